@@ -0,0 +1,61 @@
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * AIFactory class:
+ * Creates AI behaviours by name so that tools running without
+ * the GamePanel (such as SelfPlaySimulator) can choose which AIs to use.
+ * AIs that take a time limit accept it after a colon, for example
+ * "alphabeta:50" is an AlphaBetaAI that thinks for at most 50ms per turn.
+ * When the ai.metrics system property is true every AI is wrapped in an
+ * InstrumentedAI that records its turns under the name it was created from.
+ */
+public class AIFactory {
+    /**
+     * Names of every AI that can be created.
+     */
+    public static final String[] AI_NAMES = {"random", "minimax", "parallelminimax", "alphabeta", "book", "mcts", "parallelmcts", "tablebase"};
+
+    /**
+     * Creates an AI behaviour by name.
+     *
+     * @param name One of the names in AI_NAMES, optionally followed by :timeBudgetMillis.
+     * @param gameGrid Reference to the GameGrid the AI will play on.
+     * @param isX If true the AI will play as X, otherwise will play as O.
+     * @return A new instance of the AI.
+     * @throws IllegalArgumentException If the name does not match any AI.
+     */
+    public static TicTacToeAI create(String name, GameGrid gameGrid, boolean isX) {
+        TicTacToeAI ai = createUninstrumented(name, gameGrid, isX);
+        return InstrumentedAI.isEnabled() ? new InstrumentedAI(ai, name) : ai;
+    }
+
+    /**
+     * Creates an AI behaviour by name without wrapping it in an InstrumentedAI.
+     *
+     * @param name One of the names in AI_NAMES, optionally followed by :timeBudgetMillis.
+     * @param gameGrid Reference to the GameGrid the AI will play on.
+     * @param isX If true the AI will play as X, otherwise will play as O.
+     * @return A new instance of the AI.
+     * @throws IllegalArgumentException If the name does not match any AI.
+     */
+    public static TicTacToeAI createUninstrumented(String name, GameGrid gameGrid, boolean isX) {
+        int separator = name.indexOf(':');
+        long timeBudget = separator == -1 ? 0 : Long.parseLong(name.substring(separator + 1));
+        String type = separator == -1 ? name : name.substring(0, separator);
+        switch(type) {
+            case "random": return new RandomAI(gameGrid, isX);
+            case "minimax": return new MinimaxAI(gameGrid, isX);
+            case "parallelminimax": return new MinimaxAI(gameGrid, isX, 1 << 20, ForkJoinPool.commonPool());
+            case "alphabeta": return new AlphaBetaAI(gameGrid, isX, timeBudget);
+            case "book": return new OpeningBookAI(gameGrid, isX);
+            case "mcts": return timeBudget > 0 ? new MCTSAI(gameGrid, isX, 0, timeBudget, 1) : new MCTSAI(gameGrid, isX);
+            case "parallelmcts": return new MCTSAI(gameGrid, isX, timeBudget > 0 ? 0 : 40000, timeBudget,
+                    Runtime.getRuntime().availableProcessors());
+            case "tablebase": return new TablebaseAI(gameGrid, isX, timeBudget > 0 ? timeBudget : TablebaseAI.DEFAULT_FALLBACK_MILLIS);
+            default: throw new IllegalArgumentException("Unknown AI: " + name);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * AITurnEvent class:
+ * A JDK Flight Recorder event committed by InstrumentedAI for every AI turn.
+ * The event duration is the time spent choosing the move. Events are only
+ * recorded while a recording is running, for example when started with
+ * -XX:StartFlightRecording:filename=turns.jfr, and can be read with
+ * "jfr print --events tictactoe.AITurn turns.jfr".
+ */
+@Name("tictactoe.AITurn")
+@Label("AI Turn")
+@Category({"Tic Tac Toe", "AI"})
+@Description("Work done by an AI to choose one move")
+@StackTrace(false)
+public class AITurnEvent extends Event {
+    /**
+     * Name the AI was created from.
+     */
+    @Label("AI")
+    public String ai;
+    /**
+     * The cell index chosen, or -1 if the AI played the move itself.
+     */
+    @Label("Move")
+    public int move;
+    /**
+     * Number of positions visited.
+     */
+    @Label("Nodes")
+    public long nodes;
+    /**
+     * Depth of the deepest completed search iteration.
+     */
+    @Label("Depth")
+    public int depth;
+    /**
+     * Number of cache lookups.
+     */
+    @Label("Cache Probes")
+    public long cacheProbes;
+    /**
+     * Number of cache lookups that found a result.
+     */
+    @Label("Cache Hits")
+    public long cacheHits;
+    /**
+     * Bytes allocated by the thread that chose the move.
+     */
+    @Label("Allocated")
+    @DataAmount
+    public long allocatedBytes;
+    /**
+     * True if the search stopped because it ran out of time.
+     */
+    @Label("Timed Out")
+    public boolean timedOut;
+}
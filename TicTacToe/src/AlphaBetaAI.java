@@ -0,0 +1,508 @@
+/**
+ * TicTacToe
+ * Author: Peter Mitchell (2021)
+ *
+ * AlphaBetaAI class:
+ * An AI Behaviour that searches with negamax and alpha-beta pruning.
+ * The search uses iterative deepening so that each iteration can order moves
+ * using what was learnt in the last one: the previous best move is tried first,
+ * then killer moves (moves that caused a cutoff at the same depth), and then
+ * cells that are part of the most winning lines (centre, then corners on 3x3).
+ * Good ordering lets alpha-beta skip most of the tree that MinimaxAI visits.
+ *
+ * A ThreatDetector picks forced moves (wins, blocks and forks) at the root without
+ * searching. A LineEvaluator is updated with every move in the search, so at every node
+ * it can tell in constant time if a player has won or has threats: the search ends early
+ * when the player to move can win or the opponent has two threats, and only the block is
+ * searched against a single threat. Positions at the depth limit are scored from its
+ * line counts, so the search prefers open lines that are closer to complete.
+ *
+ * The search can be given a deadline, in which case the move from the deepest
+ * completed iteration is played when time runs out. This keeps the time per move
+ * bounded on large grids where searching the whole game is impossible.
+ */
+public class AlphaBetaAI implements TimeBudgetedAI, SearchStatistics {
+    /**
+     * Score for winning immediately. Wins further away score lower so that faster wins are preferred.
+     */
+    private static final int WIN_SCORE = 1000;
+    /**
+     * Any score with a magnitude above this is a forced win or loss.
+     */
+    private static final int WIN_THRESHOLD = WIN_SCORE / 2;
+    /**
+     * Larger than any possible score.
+     */
+    private static final int INFINITY = WIN_SCORE + 1;
+    /**
+     * Number of positions to keep in the transposition table.
+     */
+    private static final int TABLE_SIZE = 1 << 16;
+    /**
+     * The clock is checked each time this many more nodes have been searched (must be 2^n-1).
+     */
+    private static final int TIME_CHECK_MASK = 1023;
+
+    /**
+     * Reference to the GameGrid for evaluation and playing the turn.
+     */
+    private GameGrid gameGrid;
+    /**
+     * 1 for X or 2 for O representing the one that is being
+     * played by this player.
+     */
+    private int playAs;
+    /**
+     * Copy of the game state that is searched.
+     */
+    private SearchBoard board;
+    /**
+     * Cache of search results shared between iterations and turns.
+     */
+    private TranspositionTable transpositionTable;
+    /**
+     * Finds immediate wins, forced blocks and forks.
+     */
+    private ThreatDetector threatDetector;
+    /**
+     * Piece counts for every line of the board being searched, kept in step with board.
+     */
+    private LineEvaluator lineEvaluator;
+    /**
+     * Number of winning lines through each cell, used as the static move ordering.
+     */
+    private int[] cellValues;
+    /**
+     * Candidate moves for each ply. Preallocated so the search does not allocate.
+     */
+    private int[][] moveBuffers;
+    /**
+     * Ordering scores matching moveBuffers.
+     */
+    private int[][] orderBuffers;
+    /**
+     * Two killer moves for each ply, or -1 when not set.
+     */
+    private int[][] killerMoves;
+    /**
+     * Number of positions visited during the last chooseMove().
+     */
+    private long nodesSearched;
+    /**
+     * Depth of the last completed iteration during the last chooseMove().
+     */
+    private int depthReached;
+    /**
+     * Time allowed for each move by chooseMove(GameGrid) in nanoseconds, or 0 for no limit.
+     */
+    private long timeBudget;
+    /**
+     * True if the current search has a deadline.
+     */
+    private boolean hasDeadline;
+    /**
+     * System.nanoTime() value when the current search must stop.
+     */
+    private long deadline;
+    /**
+     * Set when the current search has run out of time or been interrupted.
+     */
+    private boolean stopped;
+    /**
+     * Result of the last search, or null if there has not been one.
+     */
+    private SearchResult lastResult;
+
+    /**
+     * Initialises the AI ready to takeTurn()s with no time limit.
+     *
+     * @param gameGrid Reference to the GameGrid for evaluation and playing the turns.
+     * @param isX If true the AI will play as X, otherwise will play as O.
+     */
+    public AlphaBetaAI(GameGrid gameGrid, boolean isX) {
+        this(gameGrid, isX, 0);
+    }
+
+    /**
+     * Initialises the AI ready to takeTurn()s.
+     *
+     * @param gameGrid Reference to the GameGrid for evaluation and playing the turns.
+     * @param isX If true the AI will play as X, otherwise will play as O.
+     * @param timeBudgetMillis Time allowed for each turn in milliseconds, or 0 for no limit.
+     */
+    public AlphaBetaAI(GameGrid gameGrid, boolean isX, long timeBudgetMillis) {
+        this.gameGrid = gameGrid;
+        timeBudget = timeBudgetMillis * 1000000L;
+        playAs = isX ? 1 : 2;
+        board = new SearchBoard(gameGrid);
+        transpositionTable = new TranspositionTable(TABLE_SIZE);
+        board.trackSymmetries(new BoardSymmetry(board.getWidth(), board.getHeight()));
+        threatDetector = new ThreatDetector(board.getWidth(), board.getHeight(), board.getWinLength());
+        lineEvaluator = new LineEvaluator(board.getWidth(), board.getHeight(), board.getWinLength());
+
+        int cellCount = board.getCellCount();
+        cellValues = new int[cellCount];
+        for(int i = 0; i < cellCount; i++) {
+            cellValues[i] = board.countLinesThrough(i);
+        }
+        moveBuffers = new int[cellCount + 1][cellCount];
+        orderBuffers = new int[cellCount + 1][cellCount];
+        killerMoves = new int[cellCount + 1][2];
+    }
+
+    /**
+     * Takes the turn by playing the move from chooseMove().
+     */
+    @Override
+    public void takeTurn() {
+        int move = chooseMove(gameGrid);
+        gameGrid.getGrid()[move % board.getWidth()][move / board.getWidth()].setCellState(playAs);
+    }
+
+    /**
+     * Chooses a move by iteratively deepening an alpha-beta search until
+     * the whole remaining game has been searched, a forced result is found,
+     * or the time budget runs out.
+     *
+     * @param gameGrid The game state to choose a move for.
+     * @return The cell index (x+y*width) of the chosen move.
+     */
+    @Override
+    public int chooseMove(GameGrid gameGrid) {
+        if(timeBudget > 0) {
+            return search(gameGrid, true, System.nanoTime() + timeBudget).getMove();
+        }
+        return search(gameGrid, false, 0).getMove();
+    }
+
+    /**
+     * Chooses a move by iteratively deepening an alpha-beta search until
+     * the whole remaining game has been searched, a forced result is found,
+     * or the deadline passes.
+     *
+     * @param gameGrid The game state to choose a move for.
+     * @param deadline Time to stop searching, as a System.nanoTime() value.
+     * @return The chosen move along with the depth reached and nodes searched.
+     */
+    @Override
+    public SearchResult chooseMove(GameGrid gameGrid, long deadline) {
+        return search(gameGrid, true, deadline);
+    }
+
+    /**
+     * Gets the result of the last search.
+     *
+     * @return The last result, or null if there has not been a search.
+     */
+    @Override
+    public SearchResult getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * Gets the number of transposition table probes since the AI was created.
+     *
+     * @return Total probes.
+     */
+    @Override
+    public long getCacheProbes() {
+        return transpositionTable.getProbeCount();
+    }
+
+    /**
+     * Gets the number of transposition table probes that found an entry since the AI was created.
+     *
+     * @return Total hits.
+     */
+    @Override
+    public long getCacheHits() {
+        return transpositionTable.getHitCount();
+    }
+
+    /**
+     * Runs the iterative deepening search. Only iterations that finish before
+     * the deadline are trusted, except that a partly finished iteration can
+     * still replace the move if it found a better one, since the previous best
+     * move is always searched first.
+     *
+     * @param gameGrid The game state to choose a move for.
+     * @param hasDeadline True if the search should stop at the deadline.
+     * @param deadline Time to stop searching, as a System.nanoTime() value.
+     * @return The chosen move along with the depth reached and nodes searched.
+     */
+    private SearchResult search(GameGrid gameGrid, boolean hasDeadline, long deadline) {
+        board.copyFrom(gameGrid);
+        lineEvaluator.copyFrom(board.getCells());
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+        stopped = false;
+        nodesSearched = 0;
+        depthReached = 0;
+        transpositionTable.nextGeneration();
+        for(int[] killers : killerMoves) {
+            killers[0] = killers[1] = -1;
+        }
+
+        int forcedMove = threatDetector.findForcedMove(board.getCells(), playAs, 3 - playAs);
+        if(forcedMove != -1) {
+            lastResult = new SearchResult(forcedMove, scoreForcedMove(forcedMove), 0, 0, false);
+            return lastResult;
+        }
+
+        int bestMove = -1;
+        int bestScore = 0;
+        int maxDepth = board.getCellCount() - board.getFilledCount();
+        for(int depth = 1; depth <= maxDepth && !stopped; depth++) {
+            int iterationScore = -INFINITY;
+            int iterationMove = -1;
+            int moveCount = orderMoves(0, bestMove);
+            int[] moves = moveBuffers[0];
+            if(bestMove == -1) bestMove = moves[0]; // Always have a move ready in case time runs out
+            int alpha = -INFINITY;
+            for(int i = 0; i < moveCount; i++) {
+                int score = scoreMove(moves[i], depth, 0, alpha, INFINITY, playAs);
+                if(stopped) break;
+                if(score > iterationScore) {
+                    iterationScore = score;
+                    iterationMove = moves[i];
+                    alpha = Math.max(alpha, score);
+                }
+            }
+            // orderMoves() puts the previous best move first, so a partial iteration that scored
+            // any move has scored that one too at this depth and its choice is at least as good
+            if(iterationMove != -1) {
+                bestMove = iterationMove;
+                bestScore = iterationScore;
+            }
+            if(stopped) break;
+            depthReached = depth;
+            if(Math.abs(bestScore) > WIN_THRESHOLD) {
+                break; // The result is forced so searching deeper will not change the move
+            }
+        }
+
+        lastResult = new SearchResult(bestMove, bestScore, depthReached, nodesSearched, stopped);
+        return lastResult;
+    }
+
+    /**
+     * Gets the number of positions visited during the last chooseMove().
+     *
+     * @return Number of nodes searched.
+     */
+    public long getNodesSearched() {
+        return nodesSearched;
+    }
+
+    /**
+     * Gets the depth of the deepest completed iteration during the last chooseMove().
+     *
+     * @return Depth reached.
+     */
+    public int getDepthReached() {
+        return depthReached;
+    }
+
+    /**
+     * Plays a move, scores it, and then undoes it.
+     *
+     * @param move Cell index to play.
+     * @param depth Remaining depth including this move.
+     * @param ply Number of moves from the root before this move.
+     * @param alpha Lower bound of the search window.
+     * @param beta Upper bound of the search window.
+     * @param player The player making the move.
+     * @return Score of the move from the perspective of player.
+     */
+    private int scoreMove(int move, int depth, int ply, int alpha, int beta, int player) {
+        board.makeMove(move, player);
+        lineEvaluator.makeMove(move, player);
+        int score;
+        if(lineEvaluator.hasWon(player)) {
+            nodesSearched++;
+            score = WIN_SCORE - (ply + 1);
+        } else {
+            score = -negamax(depth - 1, ply + 1, -beta, -alpha, 3 - player);
+        }
+        lineEvaluator.undoMove(move, player);
+        board.undoMove(move);
+        return score;
+    }
+
+    /**
+     * Negamax search with alpha-beta pruning. The previous player's move
+     * is known to not have won the game.
+     *
+     * @param depth Remaining number of moves to search.
+     * @param ply Number of moves from the root.
+     * @param alpha Lower bound of the search window.
+     * @param beta Upper bound of the search window.
+     * @param player The player to move.
+     * @return Score of the position from the perspective of player.
+     */
+    private int negamax(int depth, int ply, int alpha, int beta, int player) {
+        nodesSearched++;
+        if((nodesSearched & TIME_CHECK_MASK) == 0) {
+            checkTime();
+        }
+        if(stopped) return 0;
+        if(board.isFull()) return 0;
+
+        // Threats decide the position no matter how much depth is left
+        if(lineEvaluator.getThreat(player) != -1) {
+            return WIN_SCORE - (ply + 1);
+        }
+        int block = lineEvaluator.getThreat(3 - player);
+        if(block == LineEvaluator.MULTIPLE_THREATS) {
+            return -(WIN_SCORE - (ply + 2)); // Two threats, so the opponent wins next move
+        }
+        if(depth == 0) return evaluate(player);
+        if(block != -1) {
+            return scoreMove(block, depth, ply, alpha, beta, player); // Every other move loses
+        }
+
+        int originalAlpha = alpha;
+        long key = board.getCanonicalHash() ^ (player == 2 ? ZobristKeys.PLAYER_TWO_KEY : 0);
+        long entry = transpositionTable.probe(key);
+        if(entry != TranspositionTable.MISSING && TranspositionTable.getDepth(entry) >= depth) {
+            int score = fromTableScore(TranspositionTable.getScore(entry), ply);
+            int flag = TranspositionTable.getFlag(entry);
+            if(flag == TranspositionTable.EXACT) return score;
+            if(flag == TranspositionTable.LOWER_BOUND) alpha = Math.max(alpha, score);
+            else beta = Math.min(beta, score);
+            if(alpha >= beta) return score;
+        }
+
+        int moveCount = orderMoves(ply, -1);
+        int[] moves = moveBuffers[ply];
+        int bestScore = -INFINITY;
+        for(int i = 0; i < moveCount; i++) {
+            int score = scoreMove(moves[i], depth, ply, alpha, beta, player);
+            if(stopped) return 0; // The score is incomplete so must not be stored
+            if(score > bestScore) {
+                bestScore = score;
+                if(score > alpha) alpha = score;
+                if(alpha >= beta) {
+                    storeKiller(ply, moves[i]);
+                    break;
+                }
+            }
+        }
+
+        int flag = bestScore <= originalAlpha ? TranspositionTable.UPPER_BOUND
+                : bestScore >= beta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+        transpositionTable.store(key, toTableScore(bestScore, ply), depth, -1, flag);
+        return bestScore;
+    }
+
+    /**
+     * Gets the score of a move chosen by the ThreatDetector from the position on the board.
+     *
+     * @param move The forced move.
+     * @return WIN_SCORE-1 for a win, WIN_SCORE-3 for a fork, a loss if the
+     *         opponent has another threat, otherwise 0 as the result is unknown.
+     */
+    private int scoreForcedMove(int move) {
+        int[] cells = board.getCells();
+        int opponent = 3 - playAs;
+        if(threatDetector.findWinningMove(cells, playAs) != -1) return WIN_SCORE - 1;
+        if(threatDetector.findWinningMove(cells, opponent) != -1) {
+            return threatDetector.findWinningMove(cells, opponent, move) != -1 ? -(WIN_SCORE - 2) : 0;
+        }
+        return WIN_SCORE - 3;
+    }
+
+    /**
+     * Stops the search if the deadline has passed or the thread has been interrupted.
+     */
+    private void checkTime() {
+        if((hasDeadline && System.nanoTime() - deadline >= 0) || Thread.currentThread().isInterrupted()) {
+            stopped = true;
+        }
+    }
+
+    /**
+     * Scores a position that was not resolved before the depth limit from the
+     * LineEvaluator's line counts. Limited so it can never be mistaken for a forced result.
+     *
+     * @param player The player to move.
+     * @return Score from the perspective of player.
+     */
+    private int evaluate(int player) {
+        int score = lineEvaluator.getScore(player);
+        return Math.max(-WIN_THRESHOLD, Math.min(WIN_THRESHOLD, score));
+    }
+
+    /**
+     * Fills the move buffer for the ply with every empty cell sorted so the most
+     * promising moves come first: the hint move, then killer moves, then by cellValues.
+     *
+     * @param ply Ply to fill the move buffer of.
+     * @param hintMove Move to always try first, or -1 for none.
+     * @return Number of moves in the buffer.
+     */
+    private int orderMoves(int ply, int hintMove) {
+        int[] moves = moveBuffers[ply];
+        int[] order = orderBuffers[ply];
+        int[] killers = killerMoves[ply];
+        int count = 0;
+        for(int i = 0; i < moves.length; i++) {
+            if(board.getCell(i) != 0) continue;
+            int value = cellValues[i];
+            if(i == hintMove) value += 3000;
+            else if(i == killers[0]) value += 2000;
+            else if(i == killers[1]) value += 1000;
+            // Insertion sort, as there are at most width*height moves
+            int position = count++;
+            while(position > 0 && order[position - 1] < value) {
+                moves[position] = moves[position - 1];
+                order[position] = order[position - 1];
+                position--;
+            }
+            moves[position] = i;
+            order[position] = value;
+        }
+        return count;
+    }
+
+    /**
+     * Remembers a move that caused a cutoff so it can be tried early at the same ply.
+     *
+     * @param ply Ply the cutoff happened at.
+     * @param move The move that caused the cutoff.
+     */
+    private void storeKiller(int ply, int move) {
+        int[] killers = killerMoves[ply];
+        if(killers[0] != move) {
+            killers[1] = killers[0];
+            killers[0] = move;
+        }
+    }
+
+    /**
+     * Converts a score measured from the root into one measured from the current
+     * position so that it can be reused when the position is reached at a different ply.
+     *
+     * @param score Score relative to the root.
+     * @param ply Number of moves from the root.
+     * @return Score relative to the current position.
+     */
+    private static int toTableScore(int score, int ply) {
+        if(score > WIN_THRESHOLD) return score + ply;
+        if(score < -WIN_THRESHOLD) return score - ply;
+        return score;
+    }
+
+    /**
+     * Reverses toTableScore().
+     *
+     * @param score Score relative to the stored position.
+     * @param ply Number of moves from the root.
+     * @return Score relative to the root.
+     */
+    private static int fromTableScore(int score, int ply) {
+        if(score > WIN_THRESHOLD) return score - ply;
+        if(score < -WIN_THRESHOLD) return score + ply;
+        return score;
+    }
+}
@@ -0,0 +1,260 @@
+import java.util.Arrays;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * BatchEvaluator class:
+ * Checks many independent boards of one size for a winner at the same time.
+ * Boards are stored bit-sliced (structure of arrays): for every cell there is one
+ * bit per board saying if it holds an X, and another saying if it holds an O, packed
+ * 64 boards to a long. ANDing the words of the cells of a line then tests that line
+ * on 64 boards with each instruction, and the loops over the words are simple enough
+ * for the JIT to turn into SIMD instructions covering several words at once.
+ *
+ * Boards are filled in with setCell() or setBoard(), which can be kept up to date as
+ * moves are played, then evaluate() finds the result of every board at once.
+ * SelfPlaySimulator uses this to play many random games in lock step.
+ * getWinner(int[]) is a scalar check of a single board for when there are too few
+ * boards to batch.
+ *
+ * Cells are indexed x+y*width and players are 1 for X and 2 for O, as in Bitboard.
+ */
+public class BatchEvaluator {
+    /**
+     * Number of boards held in each long.
+     */
+    public static final int BOARDS_PER_WORD = 64;
+    /**
+     * Direction offsets (dx, dy) for the four lines that pass through a cell:
+     * horizontal, vertical, and the two diagonals.
+     */
+    private static final int[][] LINE_DIRECTIONS = {{1,0},{0,1},{1,1},{1,-1}};
+
+    /**
+     * Number of cells on each board.
+     */
+    private final int cellCount;
+    /**
+     * Number of matching cells in a row needed to win.
+     */
+    private final int winLength;
+    /**
+     * Cells of every line. Line i occupies [i*winLength, (i+1)*winLength).
+     */
+    private final int[] lineCells;
+    /**
+     * Number of boards in the batch.
+     */
+    private final int boardCount;
+    /**
+     * Number of longs needed to hold one bit for every board.
+     */
+    private final int wordCount;
+    /**
+     * Boards with an X on each cell. Cell c uses [c*wordCount, (c+1)*wordCount).
+     */
+    private final long[] xPlanes;
+    /**
+     * Boards with an O on each cell, laid out like xPlanes.
+     */
+    private final long[] oPlanes;
+    /**
+     * Boards where X has a line, set by evaluate().
+     */
+    private final long[] xWins;
+    /**
+     * Boards where O has a line, set by evaluate().
+     */
+    private final long[] oWins;
+    /**
+     * Boards with every cell filled, set by evaluate().
+     */
+    private final long[] fullBoards;
+    /**
+     * Boards where X has every cell of the line being tested so far.
+     */
+    private final long[] xLine;
+    /**
+     * Boards where O has every cell of the line being tested so far.
+     */
+    private final long[] oLine;
+
+    /**
+     * Creates a batch of empty boards.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     * @param boardCount Number of boards in the batch.
+     */
+    public BatchEvaluator(int width, int height, int winLength, int boardCount) {
+        if(width < 1 || height < 1 || winLength < 1 || boardCount < 1) {
+            throw new IllegalArgumentException("Invalid batch size");
+        }
+        this.winLength = winLength;
+        this.boardCount = boardCount;
+        cellCount = width * height;
+        int[] lines = new int[4 * cellCount * winLength];
+        int lineCount = 0;
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                for(int[] direction : LINE_DIRECTIONS) {
+                    int endX = x + direction[0] * (winLength - 1);
+                    int endY = y + direction[1] * (winLength - 1);
+                    if(endX < 0 || endX >= width || endY < 0 || endY >= height) continue;
+                    for(int i = 0; i < winLength; i++) {
+                        lines[lineCount * winLength + i] = (x + direction[0] * i) + (y + direction[1] * i) * width;
+                    }
+                    lineCount++;
+                }
+            }
+        }
+        lineCells = Arrays.copyOf(lines, lineCount * winLength);
+
+        wordCount = (boardCount + BOARDS_PER_WORD - 1) / BOARDS_PER_WORD;
+        xPlanes = new long[cellCount * wordCount];
+        oPlanes = new long[cellCount * wordCount];
+        xWins = new long[wordCount];
+        oWins = new long[wordCount];
+        fullBoards = new long[wordCount];
+        xLine = new long[wordCount];
+        oLine = new long[wordCount];
+    }
+
+    /**
+     * Empties every board.
+     */
+    public void clear() {
+        Arrays.fill(xPlanes, 0);
+        Arrays.fill(oPlanes, 0);
+    }
+
+    /**
+     * Changes one cell of one board.
+     *
+     * @param board Index of the board in the batch.
+     * @param cell Cell index (x+y*width).
+     * @param state 0 for empty, 1 for X, or 2 for O.
+     */
+    public void setCell(int board, int cell, int state) {
+        int word = cell * wordCount + (board >>> 6);
+        long bit = 1L << board;
+        xPlanes[word] &= ~bit;
+        oPlanes[word] &= ~bit;
+        if(state == 1) xPlanes[word] |= bit;
+        else if(state == 2) oPlanes[word] |= bit;
+    }
+
+    /**
+     * Replaces every cell of one board.
+     *
+     * @param board Index of the board in the batch.
+     * @param cells The board, with 0 for empty cells, 1 for X and 2 for O.
+     */
+    public void setBoard(int board, int[] cells) {
+        for(int cell = 0; cell < cellCount; cell++) {
+            setCell(board, cell, cells[cell]);
+        }
+    }
+
+    /**
+     * Tests every line of every board, ready for getWinner(int) and isFull().
+     */
+    public void evaluate() {
+        Arrays.fill(xWins, 0);
+        Arrays.fill(oWins, 0);
+        for(int start = 0; start < lineCells.length; start += winLength) {
+            int base = lineCells[start] * wordCount;
+            System.arraycopy(xPlanes, base, xLine, 0, wordCount);
+            System.arraycopy(oPlanes, base, oLine, 0, wordCount);
+            for(int i = start + 1; i < start + winLength; i++) {
+                base = lineCells[i] * wordCount;
+                for(int word = 0; word < wordCount; word++) {
+                    xLine[word] &= xPlanes[base + word];
+                    oLine[word] &= oPlanes[base + word];
+                }
+            }
+            for(int word = 0; word < wordCount; word++) {
+                xWins[word] |= xLine[word];
+                oWins[word] |= oLine[word];
+            }
+        }
+
+        Arrays.fill(fullBoards, -1L);
+        for(int cell = 0; cell < cellCount; cell++) {
+            int base = cell * wordCount;
+            for(int word = 0; word < wordCount; word++) {
+                fullBoards[word] &= xPlanes[base + word] | oPlanes[base + word];
+            }
+        }
+    }
+
+    /**
+     * Gets the winner of a board found by the last evaluate().
+     *
+     * @param board Index of the board in the batch.
+     * @return 1 if X has a line, 2 if O has a line, or 0 if neither has.
+     */
+    public int getWinner(int board) {
+        long bit = 1L << board;
+        if((xWins[board >>> 6] & bit) != 0) return 1;
+        if((oWins[board >>> 6] & bit) != 0) return 2;
+        return 0;
+    }
+
+    /**
+     * Checks if a board had every cell filled at the last evaluate().
+     *
+     * @param board Index of the board in the batch.
+     * @return True if the board is full.
+     */
+    public boolean isFull(int board) {
+        return (fullBoards[board >>> 6] & (1L << board)) != 0;
+    }
+
+    /**
+     * Counts the boards a player had a line on at the last evaluate().
+     *
+     * @param player 1 for X, 2 for O.
+     * @return Number of boards won by the player.
+     */
+    public int countWins(int player) {
+        long[] wins = player == 1 ? xWins : oWins;
+        int count = 0;
+        for(int word = 0; word < wordCount; word++) {
+            count += Long.bitCount(wins[word]);
+        }
+        return count;
+    }
+
+    /**
+     * Checks a single board for a winner without batching it.
+     *
+     * @param cells The board, with 0 for empty cells, 1 for X and 2 for O.
+     * @return 1 if X has a line, 2 if O has a line, or 0 if neither has.
+     */
+    public int getWinner(int[] cells) {
+        int winner = 0;
+        for(int start = 0; start < lineCells.length; start += winLength) {
+            int player = cells[lineCells[start]];
+            if(player == 0 || player == winner) continue;
+            int i = start + 1;
+            while(i < start + winLength && cells[lineCells[i]] == player) i++;
+            if(i == start + winLength) {
+                if(player == 1) return 1; // X is checked first, as in getWinner(int)
+                winner = player;
+            }
+        }
+        return winner;
+    }
+
+    /**
+     * Gets the number of boards in the batch.
+     *
+     * @return The number of boards.
+     */
+    public int getBoardCount() {
+        return boardCount;
+    }
+}
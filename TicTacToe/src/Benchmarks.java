@@ -0,0 +1,356 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * Benchmarks class:
+ * Measures the speed and allocation of the hot paths used by the AIs:
+ * MinimaxAI.takeTurn() from several positions, RandomAI.takeTurn(), and
+ * the GameGrid checkForWin(), isFull(), getALlValidMoves(), getValidMoves() and randomMove() methods,
+ * and random playouts one game at a time compared to in lock step with a BatchEvaluator.
+ * Each benchmark runs in its own JVM, so the JIT only ever sees that benchmark and the
+ * results do not depend on which benchmarks ran before it. Each JVM warms the benchmark
+ * up and then measures several iterations, and the results of every iteration from
+ * every JVM are printed as the mean, standard deviation, minimum and maximum operations
+ * per second, and the mean bytes allocated per operation.
+ *
+ * Usage: Benchmarks [nameFilter]
+ * Only benchmarks whose name contains nameFilter are run.
+ * The system properties bench.forks, bench.warmup, bench.iterations and bench.time set the
+ * number of JVMs per benchmark, the warm up time in seconds, the number of measured
+ * iterations, and the seconds per iteration (default 2, 1, 5 and 1).
+ * JVM options given to Benchmarks, such as these properties, are passed on to each JVM.
+ */
+public class Benchmarks {
+    /**
+     * Argument that makes Benchmarks run the named benchmark in this JVM, used by the JVMs it starts.
+     */
+    private static final String FORK_ARGUMENT = "--fork";
+    /**
+     * Start of each line a forked JVM prints with the results of an iteration.
+     */
+    private static final String ITERATION_PREFIX = "iteration ";
+    /**
+     * Results from benchmarked methods are added to this so the JIT cannot remove the calls.
+     */
+    private static volatile long sink;
+    /**
+     * Number of games played by each random playout benchmark operation.
+     */
+    private static final int BATCH_SIZE = 4096;
+
+    /**
+     * Number of JVMs to run each benchmark in.
+     */
+    private final int forks;
+    /**
+     * Seconds to run each benchmark before measuring.
+     */
+    private final double warmupSeconds;
+    /**
+     * Number of measured iterations in each JVM.
+     */
+    private final int iterations;
+    /**
+     * Seconds to measure each iteration for.
+     */
+    private final double iterationSeconds;
+    /**
+     * Used to measure allocated bytes per thread, or null if the JVM does not support it.
+     */
+    private final com.sun.management.ThreadMXBean threadBean;
+
+    /**
+     * Runs every benchmark matching the filter, each in its own JVM.
+     * Started with FORK_ARGUMENT and a name it runs that benchmark in this JVM instead.
+     *
+     * @param args Optional name filter, or FORK_ARGUMENT and a benchmark name.
+     * @throws IOException If a JVM could not be started.
+     * @throws InterruptedException If interrupted while waiting for a JVM.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Benchmarks benchmarks = new Benchmarks();
+        if(args.length == 2 && args[0].equals(FORK_ARGUMENT)) {
+            benchmarks.runInThisJVM(args[1]);
+        } else {
+            benchmarks.runAll(args.length > 0 ? args[0] : "");
+        }
+    }
+
+    /**
+     * Prepares the benchmarks.
+     */
+    public Benchmarks() {
+        forks = Integer.parseInt(System.getProperty("bench.forks", "2"));
+        warmupSeconds = Double.parseDouble(System.getProperty("bench.warmup", "1"));
+        iterations = Integer.parseInt(System.getProperty("bench.iterations", "5"));
+        iterationSeconds = Double.parseDouble(System.getProperty("bench.time", "1"));
+        com.sun.management.ThreadMXBean bean = null;
+        if(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if(bean.isThreadAllocatedMemorySupported()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                bean = null;
+            }
+        }
+        threadBean = bean;
+    }
+
+    /**
+     * Runs every benchmark that matches the filter in new JVMs and prints the results.
+     *
+     * @param nameFilter Only benchmarks with names containing this are run.
+     * @throws IOException If a JVM could not be started.
+     * @throws InterruptedException If interrupted while waiting for a JVM.
+     */
+    public void runAll(String nameFilter) throws IOException, InterruptedException {
+        System.out.printf("%-36s %14s %12s %14s %14s %12s%n",
+                "Benchmark", "ops/sec", "stdev", "min", "max", "bytes/op");
+        for(String name : createBenchmarks().keySet()) {
+            if(!name.contains(nameFilter)) continue;
+            List<double[]> results = new ArrayList<>();
+            boolean failed = false;
+            for(int fork = 0; fork < forks && !failed; fork++) {
+                failed = !runInNewJVM(name, results);
+            }
+            printResults(name, results, failed);
+        }
+    }
+
+    /**
+     * Runs one benchmark in a new JVM, reading the results of its iterations.
+     *
+     * @param name Name of the benchmark.
+     * @param results Each iteration's operations per second and bytes per operation are added to this.
+     * @return True if the JVM finished normally.
+     * @throws IOException If the JVM could not be started.
+     * @throws InterruptedException If interrupted while waiting for the JVM.
+     */
+    private boolean runInNewJVM(String name, List<double[]> results) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Benchmarks.class.getName());
+        command.add(FORK_ARGUMENT);
+        command.add(name);
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try(BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.startsWith(ITERATION_PREFIX)) {
+                    String[] values = line.substring(ITERATION_PREFIX.length()).split(" ");
+                    results.add(new double[] {Double.parseDouble(values[0]), Double.parseDouble(values[1])});
+                }
+            }
+        } catch(IOException | RuntimeException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+        return process.waitFor() == 0;
+    }
+
+    /**
+     * Prints one row of results.
+     *
+     * @param name Name of the benchmark.
+     * @param results Each iteration's operations per second and bytes per operation.
+     * @param failed True if a JVM running the benchmark failed.
+     */
+    private static void printResults(String name, List<double[]> results, boolean failed) {
+        if(failed || results.isEmpty()) {
+            System.out.printf("%-36s %14s%n", name, "failed");
+            return;
+        }
+        double sum = 0, min = Double.MAX_VALUE, max = 0, bytes = 0;
+        for(double[] result : results) {
+            sum += result[0];
+            min = Math.min(min, result[0]);
+            max = Math.max(max, result[0]);
+            bytes += result[1];
+        }
+        double mean = sum / results.size();
+        double squares = 0;
+        for(double[] result : results) {
+            squares += (result[0] - mean) * (result[0] - mean);
+        }
+        double stdev = results.size() > 1 ? Math.sqrt(squares / (results.size() - 1)) : 0;
+        String bytesPerOp = Double.isNaN(bytes) ? "n/a" : String.format("%.1f", bytes / results.size());
+        System.out.printf("%-36s %14.0f %12.0f %14.0f %14.0f %12s%n", name, mean, stdev, min, max, bytesPerOp);
+    }
+
+    /**
+     * Runs one benchmark in this JVM, printing a line starting with ITERATION_PREFIX
+     * with the operations per second and bytes per operation of each iteration.
+     *
+     * @param name Name of the benchmark.
+     */
+    private void runInThisJVM(String name) {
+        Runnable operation = createBenchmarks().get(name);
+        if(operation == null) {
+            throw new IllegalArgumentException("No benchmark named " + name);
+        }
+        runFor(operation, warmupSeconds);
+
+        long threadId = Thread.currentThread().getId();
+        for(int i = 0; i < iterations; i++) {
+            long startBytes = threadBean != null ? threadBean.getThreadAllocatedBytes(threadId) : 0;
+            long startTime = System.nanoTime();
+            long operations = runFor(operation, iterationSeconds);
+            long elapsed = System.nanoTime() - startTime;
+            long endBytes = threadBean != null ? threadBean.getThreadAllocatedBytes(threadId) : 0;
+
+            double opsPerSecond = operations / (elapsed / 1e9);
+            double bytesPerOp = threadBean != null ? (endBytes - startBytes) / (double) operations : Double.NaN;
+            System.out.println(ITERATION_PREFIX + opsPerSecond + " " + bytesPerOp);
+        }
+    }
+
+    /**
+     * Creates every benchmark. Only the one being run is ever called in a JVM.
+     *
+     * @return The benchmarks by name, in the order they are run.
+     */
+    private static Map<String, Runnable> createBenchmarks() {
+        Map<String, Runnable> benchmarks = new LinkedHashMap<>();
+
+        // Representative positions: empty, after X takes a corner, and a midgame.
+        int[] emptyBoard = {0,0,0, 0,0,0, 0,0,0};
+        int[] openingBoard = {1,0,0, 0,0,0, 0,0,0};
+        int[] midgameBoard = {1,0,2, 0,1,0, 0,0,0};
+        int[] fullBoard = {1,2,1, 1,2,2, 2,1,1};
+
+        GameGrid minimaxGrid = createGrid();
+        MinimaxAI minimaxAI = new MinimaxAI(minimaxGrid, false);
+        benchmarks.put("MinimaxAI.takeTurn empty", () -> playFrom(minimaxGrid, minimaxAI, emptyBoard));
+        benchmarks.put("MinimaxAI.takeTurn opening", () -> playFrom(minimaxGrid, minimaxAI, openingBoard));
+        benchmarks.put("MinimaxAI.takeTurn midgame", () -> playFrom(minimaxGrid, minimaxAI, midgameBoard));
+        // A new AI each time so nothing is served from the transposition table
+        benchmarks.put("MinimaxAI.takeTurn opening (cold)",
+                () -> playFrom(minimaxGrid, new MinimaxAI(minimaxGrid, false), openingBoard));
+
+        GameGrid randomGrid = createGrid();
+        RandomAI randomAI = new RandomAI(randomGrid, false);
+        benchmarks.put("RandomAI.takeTurn opening", () -> playFrom(randomGrid, randomAI, openingBoard));
+
+        GameGrid midgameGrid = createGrid();
+        setBoard(midgameGrid, midgameBoard);
+        GameGrid fullGrid = createGrid();
+        setBoard(fullGrid, fullBoard);
+        benchmarks.put("GameGrid.checkForWin midgame", () -> sink += midgameGrid.checkForWin(1) ? 1 : 0);
+        benchmarks.put("GameGrid.checkForWin full", () -> sink += fullGrid.checkForWin(2) ? 1 : 0);
+        benchmarks.put("GameGrid.isFull midgame", () -> sink += midgameGrid.isFull() ? 1 : 0);
+        benchmarks.put("GameGrid.isFull full", () -> sink += fullGrid.isFull() ? 1 : 0);
+        benchmarks.put("GameGrid.getALlValidMoves midgame", () -> {
+            List<Position> moves = midgameGrid.getALlValidMoves();
+            sink += moves.size();
+        });
+        int[] moveBuffer = new int[9];
+        benchmarks.put("GameGrid.getValidMoves midgame", () -> sink += midgameGrid.getValidMoves(moveBuffer));
+        SplittableRandom random = new SplittableRandom(1);
+        benchmarks.put("GameGrid.randomMove midgame", () -> sink += midgameGrid.randomMove(random));
+
+        addBatchBenchmarks(benchmarks, 3, 3, random);
+        addBatchBenchmarks(benchmarks, 7, 5, random);
+        return benchmarks;
+    }
+
+    /**
+     * Adds benchmarks comparing playing BATCH_SIZE random games one at a time, with
+     * the GameGrid checking for a winner after every move, against playing them in
+     * lock step with a BatchEvaluator checking every game after each step.
+     *
+     * @param benchmarks The benchmarks to add to.
+     * @param gridSize Number of cells horizontally and vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     * @param random Source of the random moves.
+     */
+    private static void addBatchBenchmarks(Map<String, Runnable> benchmarks, int gridSize, int winLength,
+                                           SplittableRandom random) {
+        String size = gridSize + "x" + gridSize + " K=" + winLength + " x" + BATCH_SIZE;
+        GameGrid gameGrid = new GameGrid(new Position(0,0), gridSize, gridSize, gridSize, gridSize, winLength);
+        RandomAI xAI = new RandomAI(gameGrid, true, random);
+        RandomAI oAI = new RandomAI(gameGrid, false, random);
+        benchmarks.put("Random playouts GameGrid " + size, () -> {
+            for(int i = 0; i < BATCH_SIZE; i++) {
+                gameGrid.reset();
+                sink += SelfPlaySimulator.playGame(gameGrid, xAI, oAI);
+            }
+        });
+        SelfPlaySimulator simulator = new SelfPlaySimulator("random", "random", gridSize, winLength);
+        benchmarks.put("Random playouts lock step " + size,
+                () -> sink += simulator.playRandomGamesInLockStep(BATCH_SIZE, random).getXWins());
+    }
+
+    /**
+     * Repeatedly runs the operation in batches until the time has passed.
+     *
+     * @param operation The code to run.
+     * @param seconds How long to keep running.
+     * @return Number of times the operation was run.
+     */
+    private static long runFor(Runnable operation, double seconds) {
+        long endTime = System.nanoTime() + (long) (seconds * 1e9);
+        long operations = 0;
+        int batchSize = 1;
+        while(System.nanoTime() < endTime) {
+            for(int i = 0; i < batchSize; i++) {
+                operation.run();
+            }
+            operations += batchSize;
+            // Grow the batch so that reading the clock does not dominate fast operations
+            if(batchSize < 1 << 16) batchSize <<= 1;
+        }
+        return operations;
+    }
+
+    /**
+     * Sets the grid to a position and lets the AI play one move.
+     *
+     * @param gameGrid The grid the AI plays on.
+     * @param ai The AI to take a turn.
+     * @param board The position to play from, indexed as x+y*3.
+     */
+    private static void playFrom(GameGrid gameGrid, TicTacToeAI ai, int[] board) {
+        setBoard(gameGrid, board);
+        ai.takeTurn();
+    }
+
+    /**
+     * Creates a 3x3 grid like the one used by GamePanel.
+     *
+     * @return A new empty grid.
+     */
+    private static GameGrid createGrid() {
+        return new GameGrid(new Position(0,0), 500, 500, 3, 3);
+    }
+
+    /**
+     * Changes every cell of a 3x3 grid to match the board.
+     *
+     * @param gameGrid The grid to change.
+     * @param board Cell states indexed as x+y*3.
+     */
+    private static void setBoard(GameGrid gameGrid, int[] board) {
+        GridCell[][] grid = gameGrid.getGrid();
+        for(int i = 0; i < board.length; i++) {
+            grid[i % 3][i / 3].setCellState(board[i]);
+        }
+    }
+}
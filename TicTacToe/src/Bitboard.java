@@ -0,0 +1,445 @@
+import java.util.random.RandomGenerator;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * Bitboard class:
+ * Compact representation of the game state using one bitmask per player.
+ * Cells are indexed as x+y*width and packed 64 to a long so any grid size
+ * can be represented. A player wins with winLength of their pieces in a row
+ * horizontally, vertically, or diagonally.
+ *
+ * The winner is tracked as pieces are placed by only inspecting the four lines
+ * through the new piece, so checking for a win costs O(winLength) per move instead
+ * of rescanning the board. Every win line is also precomputed as a mask and is only
+ * used to rescan if a piece is removed from a board that had a winner.
+ *
+ * A Zobrist hash of the position is also kept up to date as cells change,
+ * giving caches a 64 bit key for the position without reading the board.
+ */
+public class Bitboard {
+    /**
+     * Direction offsets (dx, dy) for the four lines that pass through a cell:
+     * horizontal, vertical, and the two diagonals.
+     */
+    private static final int[][] LINE_DIRECTIONS = {{1,0},{0,1},{1,1},{1,-1}};
+
+    /**
+     * Number of cells horizontally.
+     */
+    private final int width;
+    /**
+     * Number of cells vertically.
+     */
+    private final int height;
+    /**
+     * Number of matching cells in a row needed to win.
+     */
+    private final int winLength;
+    /**
+     * Total number of cells (width*height).
+     */
+    private final int cellCount;
+    /**
+     * Number of longs needed to store one bit per cell.
+     */
+    private final int wordCount;
+    /**
+     * Masks of cells owned by each player. Index 0 is X (player 1), index 1 is O (player 2).
+     */
+    private final long[][] playerMasks;
+    /**
+     * Mask with a bit set for every cell that exists on the board.
+     */
+    private final long[] boardMask;
+    /**
+     * Flattened win line masks. Line i occupies [i*wordCount, (i+1)*wordCount).
+     */
+    private final long[] winLines;
+    /**
+     * Number of win lines stored in winLines.
+     */
+    private final int winLineCount;
+    /**
+     * Keys used to maintain the position hash.
+     */
+    private final ZobristKeys zobristKeys;
+    /**
+     * Number of cells currently filled by either player.
+     */
+    private int filledCount;
+    /**
+     * Bit 0 is set if X has won, and bit 1 is set if O has won.
+     */
+    private int winners;
+    /**
+     * Zobrist hash of the current position.
+     */
+    private long hash;
+
+    /**
+     * Creates an empty bitboard where a full row, column or diagonal is
+     * needed to win (winLength is the smaller of width and height).
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     */
+    public Bitboard(int width, int height) {
+        this(width, height, Math.min(width, height));
+    }
+
+    /**
+     * Creates an empty bitboard and precomputes the win lines.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     */
+    public Bitboard(int width, int height, int winLength) {
+        this.width = width;
+        this.height = height;
+        this.winLength = winLength;
+        cellCount = width * height;
+        wordCount = (cellCount + 63) / 64;
+        playerMasks = new long[2][wordCount];
+        boardMask = new long[wordCount];
+        for(int i = 0; i < cellCount; i++) {
+            boardMask[i >>> 6] |= 1L << i;
+        }
+
+        int lineCount = 0;
+        for(int[] direction : LINE_DIRECTIONS) {
+            lineCount += countLines(direction[0], direction[1]);
+        }
+        winLines = new long[lineCount * wordCount];
+        int line = 0;
+        for(int[] direction : LINE_DIRECTIONS) {
+            for(int y = 0; y < height; y++) {
+                for(int x = 0; x < width; x++) {
+                    if(!isLineInside(x, y, direction[0], direction[1])) continue;
+                    for(int i = 0; i < winLength; i++) {
+                        setLineBit(line, (x + direction[0] * i) + (y + direction[1] * i) * width);
+                    }
+                    line++;
+                }
+            }
+        }
+        winLineCount = lineCount;
+        zobristKeys = new ZobristKeys(cellCount);
+    }
+
+    /**
+     * Clears every cell back to empty.
+     */
+    public void reset() {
+        for(int w = 0; w < wordCount; w++) {
+            playerMasks[0][w] = 0;
+            playerMasks[1][w] = 0;
+        }
+        filledCount = 0;
+        winners = 0;
+        hash = 0;
+    }
+
+    /**
+     * Changes the state of a single cell.
+     *
+     * @param index Cell index (x+y*width).
+     * @param state 0 for empty, 1 for X, 2 for O.
+     */
+    public void setState(int index, int state) {
+        int previousState = getState(index);
+        if(previousState == state) return;
+        int word = index >>> 6;
+        long bit = 1L << index;
+        hash ^= zobristKeys.getKey(index, previousState) ^ zobristKeys.getKey(index, state);
+        if(previousState != 0) {
+            playerMasks[previousState - 1][word] &= ~bit;
+            filledCount--;
+        }
+        if(state == 1 || state == 2) {
+            playerMasks[state - 1][word] |= bit;
+            filledCount++;
+        }
+
+        if(previousState != 0 && winners != 0) {
+            // A piece was taken away from a winning line, so the win may no longer stand
+            winners = (scanForWin(1) ? 1 : 0) | (scanForWin(2) ? 2 : 0);
+        }
+        if((state == 1 || state == 2) && isWinningMove(index)) {
+            winners |= 1 << (state - 1);
+        }
+    }
+
+    /**
+     * Gets the state of a single cell.
+     *
+     * @param index Cell index (x+y*width).
+     * @return 0 for empty, 1 for X, 2 for O.
+     */
+    public int getState(int index) {
+        int word = index >>> 6;
+        long bit = 1L << index;
+        if((playerMasks[0][word] & bit) != 0) return 1;
+        if((playerMasks[1][word] & bit) != 0) return 2;
+        return 0;
+    }
+
+    /**
+     * Checks if every cell has been filled.
+     *
+     * @return True if there are no empty cells.
+     */
+    public boolean isFull() {
+        return filledCount == cellCount;
+    }
+
+    /**
+     * Gets the number of empty cells.
+     *
+     * @return Number of empty cells.
+     */
+    public int getEmptyCount() {
+        return cellCount - filledCount;
+    }
+
+    /**
+     * Checks if the player has won. This is tracked as pieces are
+     * placed so it does not need to search the board.
+     *
+     * @param playerID 1 for X, 2 for O.
+     * @return True if the specified player has won.
+     */
+    public boolean hasWon(int playerID) {
+        if(playerID != 1 && playerID != 2) return false;
+        return (winners & (1 << (playerID - 1))) != 0;
+    }
+
+    /**
+     * Checks if the piece at the index is part of a line of winLength.
+     * Only the four lines through the cell are inspected.
+     *
+     * @param index Cell index to check.
+     * @return True if the player owning the cell has a winning line through it.
+     */
+    public boolean isWinningMove(int index) {
+        int player = getState(index);
+        if(player == 0) return false;
+        long[] mask = playerMasks[player - 1];
+        int x = index % width;
+        int y = index / width;
+        for(int[] direction : LINE_DIRECTIONS) {
+            int count = 1 + countInDirection(mask, x, y, direction[0], direction[1])
+                          + countInDirection(mask, x, y, -direction[0], -direction[1]);
+            if(count >= winLength) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the Zobrist hash of the current position. Equal positions
+     * on boards of the same size always have the same hash.
+     *
+     * @return 64 bit hash of the position.
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Finds the next empty cell at or after the specified index.
+     * Used to iterate empty cells without allocating.
+     *
+     * @param fromIndex Index to start searching from.
+     * @return Index of the next empty cell, or -1 if there are none.
+     */
+    public int nextEmpty(int fromIndex) {
+        if(fromIndex >= cellCount) return -1;
+        int word = fromIndex >>> 6;
+        long empty = emptyWord(word) & (-1L << fromIndex);
+        while(true) {
+            if(empty != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(empty);
+            }
+            if(++word == wordCount) return -1;
+            empty = emptyWord(word);
+        }
+    }
+
+    /**
+     * Writes the index of every empty cell into the array in increasing order.
+     *
+     * @param moves Array with space for at least getEmptyCount() cells.
+     * @return Number of cells written.
+     */
+    public int getEmptyCells(int[] moves) {
+        int count = 0;
+        for(int word = 0; word < wordCount; word++) {
+            long empty = emptyWord(word);
+            while(empty != 0) {
+                moves[count++] = (word << 6) + Long.numberOfTrailingZeros(empty);
+                empty &= empty - 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Picks an empty cell uniformly at random without listing every empty cell.
+     * Whole words are skipped using their bit count, so this costs one pass over
+     * the words plus at most 63 steps inside the chosen word.
+     *
+     * @param random Source of random numbers.
+     * @return Index of the chosen empty cell, or -1 if the board is full.
+     */
+    public int randomEmpty(RandomGenerator random) {
+        int emptyCount = cellCount - filledCount;
+        if(emptyCount == 0) return -1;
+        int remaining = random.nextInt(emptyCount);
+        for(int word = 0; word < wordCount; word++) {
+            long empty = emptyWord(word);
+            int wordEmptyCount = Long.bitCount(empty);
+            if(remaining >= wordEmptyCount) {
+                remaining -= wordEmptyCount;
+                continue;
+            }
+            for(; remaining > 0; remaining--) {
+                empty &= empty - 1; // Clear the lowest empty cell
+            }
+            return (word << 6) + Long.numberOfTrailingZeros(empty);
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the number of cells horizontally.
+     *
+     * @return Width in cells.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the number of cells vertically.
+     *
+     * @return Height in cells.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of matching cells in a row needed to win.
+     *
+     * @return The win length.
+     */
+    public int getWinLength() {
+        return winLength;
+    }
+
+    /**
+     * Gets the total number of cells.
+     *
+     * @return Number of cells on the board.
+     */
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * Gets the mask of empty cells for a single word.
+     *
+     * @param word Index of the word.
+     * @return Bits set for every empty cell in that word.
+     */
+    private long emptyWord(int word) {
+        return ~(playerMasks[0][word] | playerMasks[1][word]) & boardMask[word];
+    }
+
+    /**
+     * Checks every win line to see if the player fully owns any of them.
+     *
+     * @param playerID 1 for X, 2 for O.
+     * @return True if the specified player owns a win line.
+     */
+    private boolean scanForWin(int playerID) {
+        long[] mask = playerMasks[playerID - 1];
+        for(int line = 0, base = 0; line < winLineCount; line++, base += wordCount) {
+            boolean isMatch = true;
+            for(int w = 0; w < wordCount && isMatch; w++) {
+                long lineMask = winLines[base + w];
+                isMatch = (mask[w] & lineMask) == lineMask;
+            }
+            if(isMatch) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts consecutive cells set in the mask moving away from (x,y).
+     *
+     * @param mask Mask of one player's pieces.
+     * @param x Starting x coordinate (not counted).
+     * @param y Starting y coordinate (not counted).
+     * @param dx Step in x.
+     * @param dy Step in y.
+     * @return Number of consecutive cells set in the mask.
+     */
+    private int countInDirection(long[] mask, int x, int y, int dx, int dy) {
+        int count = 0;
+        x += dx;
+        y += dy;
+        while(count < winLength && x >= 0 && y >= 0 && x < width && y < height) {
+            int index = x + y * width;
+            if((mask[index >>> 6] & (1L << index)) == 0) break;
+            count++;
+            x += dx;
+            y += dy;
+        }
+        return count;
+    }
+
+    /**
+     * Counts how many win lines there are in a direction.
+     *
+     * @param dx Step in x.
+     * @param dy Step in y.
+     * @return Number of win lines that fit on the board in that direction.
+     */
+    private int countLines(int dx, int dy) {
+        int count = 0;
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                if(isLineInside(x, y, dx, dy)) count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks if a win line starting at (x,y) stays on the board.
+     *
+     * @param x Starting x coordinate.
+     * @param y Starting y coordinate.
+     * @param dx Step in x.
+     * @param dy Step in y.
+     * @return True if every cell of the line is on the board.
+     */
+    private boolean isLineInside(int x, int y, int dx, int dy) {
+        int endX = x + dx * (winLength - 1);
+        int endY = y + dy * (winLength - 1);
+        return endX >= 0 && endY >= 0 && endX < width && endY < height;
+    }
+
+    /**
+     * Marks a cell as part of a win line.
+     *
+     * @param line The win line to modify.
+     * @param index Cell index to add to the line.
+     */
+    private void setLineBit(int line, int index) {
+        winLines[line * wordCount + (index >>> 6)] |= 1L << index;
+    }
+}
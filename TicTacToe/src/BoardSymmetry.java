@@ -0,0 +1,109 @@
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * BoardSymmetry class:
+ * Precomputes the rotations and reflections of a board so that
+ * positions that only differ by symmetry produce the same key.
+ * Square boards have 8 symmetries, other rectangles have 4.
+ * Boards are stored as x+y*width with any small int per cell (eg. 0, 1, -1).
+ */
+public class BoardSymmetry {
+    /**
+     * Multiplier used to mix cells into the key when the board is too large for exact keys.
+     * Also used to give the second player to move a different key for the same board.
+     */
+    private static final long MIX_KEY = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Permutation for each symmetry. permutations[s][i] is the cell
+     * that moves to index i when symmetry s is applied.
+     */
+    private final int[][] permutations;
+    /**
+     * True when the board fits in 62 bits at 2 bits per cell and keys are exact.
+     */
+    private final boolean exactKeys;
+
+    /**
+     * Precomputes all the symmetries for a board of the specified size.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     */
+    public BoardSymmetry(int width, int height) {
+        int cellCount = width * height;
+        permutations = new int[width == height ? 8 : 4][cellCount];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int index = x + y * width;
+                int flipX = width - 1 - x;
+                int flipY = height - 1 - y;
+                permutations[0][index] = x + y * width;
+                permutations[1][index] = flipX + y * width;
+                permutations[2][index] = x + flipY * width;
+                permutations[3][index] = flipX + flipY * width;
+                if(width == height) {
+                    // Transposing only makes sense when the board is square
+                    permutations[4][index] = y + x * width;
+                    permutations[5][index] = flipY + x * width;
+                    permutations[6][index] = y + flipX * width;
+                    permutations[7][index] = flipY + flipX * width;
+                }
+            }
+        }
+        exactKeys = cellCount <= 31;
+    }
+
+    /**
+     * Gets the number of symmetries for this board size.
+     *
+     * @return 8 for square boards, or 4 otherwise.
+     */
+    public int getSymmetryCount() {
+        return permutations.length;
+    }
+
+    /**
+     * Gets the cell that moves to the index when a symmetry is applied.
+     *
+     * @param symmetry The symmetry to apply.
+     * @param index The cell index after the symmetry is applied.
+     * @return The cell index before the symmetry was applied.
+     */
+    public int getSourceCell(int symmetry, int index) {
+        return permutations[symmetry][index];
+    }
+
+    /**
+     * Creates a key that is the same for every rotation and reflection of the board.
+     * The key is the smallest of the keys of every symmetric version of the board.
+     * Boards of up to 31 cells produce keys that are unique for every position.
+     *
+     * @param board The board to create a key for.
+     * @param player The player that is taking the next turn.
+     * @return A key for the board that is independent of symmetry.
+     */
+    public long canonicalKey(int[] board, int player) {
+        long best = -1L;
+        for(int[] permutation : permutations) {
+            long key = 0;
+            if(exactKeys) {
+                for(int i = 0; i < permutation.length; i++) {
+                    key |= (long) (board[permutation[i]] & 3) << (i * 2);
+                }
+            } else {
+                for(int i = 0; i < permutation.length; i++) {
+                    key = (key + (board[permutation[i]] & 3)) * MIX_KEY;
+                    key ^= key >>> 29;
+                }
+            }
+            if(Long.compareUnsigned(key, best) < 0) {
+                best = key;
+            }
+        }
+        if(player == 1) return best;
+        // The top bit is never used by exact keys so it can safely mark the player
+        return best ^ (exactKeys ? Long.MIN_VALUE : MIX_KEY);
+    }
+}
@@ -1,6 +1,8 @@
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.random.RandomGenerator;
 
 /**
  * Tic Tac Toe
@@ -15,9 +17,24 @@ public class GameGrid extends Rectangle {
      * The grid of cells tracking current game state.
      */
     private GridCell[][] grid;
+    /**
+     * Bitboard mirroring the state of every GridCell. Used for fast
+     * win checks, fullness checks, and move generation.
+     */
+    private Bitboard bitboard;
+    /**
+     * The grid lines drawn once so that painting only needs to copy them.
+     * Created by the first paint() so grids that are never drawn do not allocate it.
+     */
+    private BufferedImage gridLinesImage;
+    /**
+     * Finds the cell under a screen coordinate without dividing or allocating.
+     */
+    private HitTestIndex hitTestIndex;
 
     /**
      * Creates a grid of GridCells with the specified offset and sizing.
+     * A full row, column or diagonal is needed to win.
      *
      * @param position Top left corner offset of the grid.
      * @param width Width of the grid.
@@ -26,22 +43,39 @@ public class GameGrid extends Rectangle {
      * @param gridHeight Number of grid cells vertically.
      */
     public GameGrid(Position position, int width, int height, int gridWidth, int gridHeight) {
+        this(position, width, height, gridWidth, gridHeight, Math.min(gridWidth, gridHeight));
+    }
+
+    /**
+     * Creates a grid of GridCells with the specified offset and sizing.
+     *
+     * @param position Top left corner offset of the grid.
+     * @param width Width of the grid.
+     * @param height Height of the grid.
+     * @param gridWidth Number of grid cells horizontally.
+     * @param gridHeight Number of grid cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     */
+    public GameGrid(Position position, int width, int height, int gridWidth, int gridHeight, int winLength) {
         super(position, width, height);
         grid = new GridCell[gridWidth][gridHeight];
+        bitboard = new Bitboard(gridWidth, gridHeight, winLength);
         int cellWidth = (width-position.x)/gridWidth;
         int cellHeight = (height-position.y)/gridHeight;
         for(int x = 0; x < gridWidth; x++) {
             for(int y = 0; y < gridHeight; y++) {
                 grid[x][y] = new GridCell(new Position(position.x+cellWidth*x, position.y+cellHeight*y),
-                                            cellWidth, cellHeight);
+                                            cellWidth, cellHeight, bitboard, x+y*gridWidth);
             }
         }
+        hitTestIndex = createHitTestIndex();
     }
 
     /**
      * Forces all the GridCells to reset back to their default state.
      */
     public void reset() {
+        bitboard.reset();
         for(int x = 0; x < grid.length; x++) {
             for (int y = 0; y < grid[0].length; y++) {
                 grid[x][y].reset();
@@ -49,6 +83,24 @@ public class GameGrid extends Rectangle {
         }
     }
 
+    /**
+     * Creates a copy of this grid with the same size and cell states.
+     * Changes to the copy do not affect this grid, so it can be safely
+     * handed to another thread.
+     *
+     * @return A new GameGrid matching this one.
+     */
+    public GameGrid createSnapshot() {
+        GameGrid snapshot = new GameGrid(new Position(position), width, height,
+                grid.length, grid[0].length, bitboard.getWinLength());
+        for(int x = 0; x < grid.length; x++) {
+            for (int y = 0; y < grid[0].length; y++) {
+                snapshot.grid[x][y].setCellState(grid[x][y].getCellState());
+            }
+        }
+        return snapshot;
+    }
+
     /**
      * Gets the grid cell data.
      *
@@ -59,22 +111,69 @@ public class GameGrid extends Rectangle {
     }
 
     /**
-     * Searches the grid to find all currently valid moves.
+     * Gets the number of matching cells in a row needed to win.
+     *
+     * @return The win length.
+     */
+    public int getWinLength() {
+        return bitboard.getWinLength();
+    }
+
+    /**
+     * Gets the Zobrist hash of the current position, which is kept up
+     * to date as cells change so it can be used as a cheap cache key.
+     *
+     * @return 64 bit hash of the position.
+     */
+    public long getHash() {
+        return bitboard.getHash();
+    }
+
+    /**
+     * Gets the bitboard that mirrors the state of all grid cells.
+     *
+     * @return The bitboard for this grid.
+     */
+    public Bitboard getBitboard() {
+        return bitboard;
+    }
+
+    /**
+     * Finds all currently valid moves using the bitboard's empty cells.
      *
      * @return A list containing all valid moves.
      */
     public List<Position> getALlValidMoves() {
-        List<Position> validMoves = new ArrayList<>();
-        for(int x = 0; x < grid.length; x++) {
-            for (int y = 0; y < grid[0].length; y++) {
-                if(grid[x][y].getCellState() == 0) {
-                    validMoves.add(new Position(x,y));
-                }
-            }
+        List<Position> validMoves = new ArrayList<>(bitboard.getEmptyCount());
+        int gridWidth = grid.length;
+        for(int index = bitboard.nextEmpty(0); index != -1; index = bitboard.nextEmpty(index+1)) {
+            validMoves.add(new Position(index % gridWidth, index / gridWidth));
         }
         return validMoves;
     }
 
+    /**
+     * Finds all currently valid moves without allocating. This is the
+     * fast alternative to getALlValidMoves() for code that runs often.
+     *
+     * @param moves Array that the cell indexes (x+y*gridWidth) are written to.
+     *              It needs space for every empty cell, so the grid's cell count is always enough.
+     * @return Number of moves written to the array.
+     */
+    public int getValidMoves(int[] moves) {
+        return bitboard.getEmptyCells(moves);
+    }
+
+    /**
+     * Picks a valid move uniformly at random without building a list of moves.
+     *
+     * @param random Source of random numbers.
+     * @return The cell index (x+y*gridWidth) of the move, or -1 if the grid is full.
+     */
+    public int randomMove(RandomGenerator random) {
+        return bitboard.randomEmpty(random);
+    }
+
     /**
      * Searches the grid to determine if the mouse position matches with a valid GridCell.
      *
@@ -82,12 +181,20 @@ public class GameGrid extends Rectangle {
      * @return A reference to the selected GridCell, or null if none was found.
      */
     public GridCell getGridCellAt(Position mousePosition) {
-        int gridX = (mousePosition.x- position.x)/grid[0][0].width;
-        int gridY = (mousePosition.y- position.y)/grid[0][0].height;
-        if(gridX >= grid.length || gridX < 0 || gridY >= grid[0].length || gridY < 0) {
-            return null;
-        }
-        return grid[gridX][gridY];
+        int cellIndex = getCellIndexAt(mousePosition.x, mousePosition.y);
+        return cellIndex == -1 ? null : grid[cellIndex % grid.length][cellIndex / grid.length];
+    }
+
+    /**
+     * Finds the cell under a screen coordinate. This does not allocate,
+     * so it is safe to call for every mouse movement.
+     *
+     * @param x Screen x coordinate.
+     * @param y Screen y coordinate.
+     * @return The cell index (x+y*gridWidth), or -1 if the coordinate is not over a cell.
+     */
+    public int getCellIndexAt(int x, int y) {
+        return hitTestIndex.getCellIndexAt(x, y);
     }
 
     /**
@@ -96,12 +203,7 @@ public class GameGrid extends Rectangle {
      * @return True if all cells have been filled.
      */
     public boolean isFull() {
-        for(int x = 0; x < grid.length; x++) {
-            for (int y = 0; y < grid[0].length; y++) {
-                if(grid[x][y].getCellState() == 0) return false;
-            }
-        }
-        return true;
+        return bitboard.isFull();
     }
 
     /**
@@ -111,81 +213,83 @@ public class GameGrid extends Rectangle {
      * @return True if the specified player has won.
      */
     public boolean checkForWin(int playerID) {
-        // Check the rows
-        for(int y = 0; y < grid[0].length; y++) {
-            int matchCount = 0;
-            for(int x = 0; x < grid.length; x++) {
-                if(grid[x][y].getCellState() == playerID) {
-                    matchCount++;
-                }
-            }
-            if(matchCount == grid.length) return true;
-        }
+        return bitboard.hasWon(playerID);
+    }
 
-        // Check the columns
-        for(int x = 0; x < grid.length; x++) {
-            int matchCount = 0;
-            for(int y = 0; y < grid[0].length; y++) {
-                if(grid[x][y].getCellState() == playerID) {
-                    matchCount++;
-                }
-            }
-            if(matchCount == grid[0].length) return true;
+    /**
+     * Draws grid lines to box in the cells, and then draws the content of the GridCells.
+     * Only cells inside the clip area of the Graphics are drawn, so repainting a
+     * small area of a large grid only costs as much as the cells it covers.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     */
+    public void paint(Graphics g) {
+        if(gridLinesImage == null) {
+            gridLinesImage = createGridLinesImage();
         }
+        g.drawImage(gridLinesImage, position.x, position.y, null);
 
-        // Check left to right diagonal
-        int matchCount = 0;
-        for(int x = 0, y = 0; x < grid.length; x++, y++) {
-            if(grid[x][y].getCellState() == playerID) {
-                matchCount++;
-            }
+        int cellWidth = grid[0][0].width;
+        int cellHeight = grid[0][0].height;
+        int minX = 0, minY = 0, maxX = grid.length-1, maxY = grid[0].length-1;
+        java.awt.Rectangle clip = g.getClipBounds();
+        if(clip != null) {
+            minX = Math.max(minX, Math.floorDiv(clip.x - position.x, cellWidth));
+            minY = Math.max(minY, Math.floorDiv(clip.y - position.y, cellHeight));
+            maxX = Math.min(maxX, Math.floorDiv(clip.x + clip.width - 1 - position.x, cellWidth));
+            maxY = Math.min(maxY, Math.floorDiv(clip.y + clip.height - 1 - position.y, cellHeight));
         }
-        if(matchCount == grid.length) return true;
-
-        // Check other diagonal
-        matchCount = 0;
-        for(int x = 0, y = grid[0].length-1; x < grid.length; x++, y--) {
-            if(grid[x][y].getCellState() == playerID) {
-                matchCount++;
+        for(int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                grid[x][y].paint(g);
             }
         }
-        if(matchCount == grid.length) return true;
-
-        // No match found
-        return false;
     }
 
     /**
-     * Draws grid lines to box in the cells, and then draws the content of all GridCells.
+     * Creates the hit test index from the edges of the cells.
      *
-     * @param g Reference to the Graphics object for rendering.
+     * @return The index covering every cell.
      */
-    public void paint(Graphics g) {
-        drawGridLines(g);
+    private HitTestIndex createHitTestIndex() {
+        int[] columnEdges = new int[grid.length + 1];
         for(int x = 0; x < grid.length; x++) {
-            for (int y = 0; y < grid[0].length; y++) {
-                grid[x][y].paint(g);
-            }
+            columnEdges[x] = grid[x][0].position.x;
         }
+        GridCell lastColumn = grid[grid.length-1][0];
+        columnEdges[grid.length] = lastColumn.position.x + lastColumn.width;
+
+        int[] rowEdges = new int[grid[0].length + 1];
+        for(int y = 0; y < grid[0].length; y++) {
+            rowEdges[y] = grid[0][y].position.y;
+        }
+        GridCell lastRow = grid[0][grid[0].length-1];
+        rowEdges[grid[0].length] = lastRow.position.y + lastRow.height;
+        return new HitTestIndex(columnEdges, rowEdges);
     }
 
     /**
-     * Draws lines to create boxes around all the positions where GridCells are located.
+     * Draws lines to create boxes around all the positions where GridCells are located
+     * onto a transparent image that is the size of the grid.
      *
-     * @param g Reference to the Graphics object for rendering.
+     * @return The image of the grid lines.
      */
-    private void drawGridLines(Graphics g) {
+    private BufferedImage createGridLinesImage() {
+        int cellWidth = grid[0][0].width;
+        int cellHeight = grid[0][0].height;
+        int imageWidth = Math.max(width, grid.length * cellWidth) + 1;
+        int imageHeight = Math.max(height, grid[0].length * cellHeight) + 1;
+        BufferedImage image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics g = image.getGraphics();
         g.setColor(Color.BLACK);
         // Draw vertical lines
-        int y2 = position.y+height;
-        int y1 = position.y;
         for(int x = 0; x < grid.length+1; x++)
-            g.drawLine(position.x+x * grid[0][0].width, y1, position.x+x * grid[0][0].width, y2);
+            g.drawLine(x * cellWidth, 0, x * cellWidth, height);
 
         // Draw horizontal lines
-        int x2 = position.x+width;
-        int x1 = position.x;
         for(int y = 0; y < grid[0].length+1; y++)
-            g.drawLine(x1, position.y+y * grid[0][0].height, x2, position.y+y * grid[0][0].height);
+            g.drawLine(0, y * cellHeight, width, y * cellHeight);
+        g.dispose();
+        return image;
     }
 }
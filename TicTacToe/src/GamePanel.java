@@ -3,6 +3,11 @@ import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Tic Tac Toe
@@ -11,17 +16,22 @@ import java.awt.event.MouseListener;
  * GamePanel class:
  * Controls the game state through clicks to iterate between
  * current turns and changing to a game over state once the game ends.
+ * Only the cells that change and the status strip at the bottom are repainted
+ * after each move rather than the whole panel. The empty cell under the mouse
+ * is highlighted while it is a player's turn. Finished games are appended to a
+ * game record file if the record.file system property is set.
  */
-public class GamePanel extends JPanel implements MouseListener {
+public class GamePanel extends JPanel implements MouseListener, MouseMotionListener {
     /**
      * The states the game can be in.
      * XTurn means that player 1 is placing an X.
-     * OTurn means that player 2 is placing a O. (if using AI this will be instant)
+     * OTurn means that player 2 is placing a O. (if using AI it will think in the background)
      * Draw means the game has ended due to all positions being filled.
      * XWins means there is a sequence of 3 Xs in a row.
      * OWins means there is a sequence of 3 Os in a row.
+     * AIError means the AI failed to choose a move, so the game cannot continue.
      */
-    public enum GameState {XTurn,OTurn,Draw,XWins,OWins}
+    public enum GameState {XTurn,OTurn,Draw,XWins,OWins,AIError}
 
     /**
      * Height of the panel.
@@ -31,6 +41,18 @@ public class GamePanel extends JPanel implements MouseListener {
      * Width of the panel.
      */
     private static final int PANEL_WIDTH = 500;
+    /**
+     * Height of the strip at the bottom of the panel showing the game state.
+     */
+    private static final int STATUS_HEIGHT = 100;
+    /**
+     * Font used to show the game state.
+     */
+    private static final Font STATUS_FONT = new Font("Arial", Font.BOLD, 40);
+    /**
+     * Colour drawn over the empty cell under the mouse.
+     */
+    private static final Color HOVER_COLOR = new Color(255, 255, 255, 96);
 
     /**
      * The grid of positions controlling maintaining the game state of the board.
@@ -48,6 +70,43 @@ public class GamePanel extends JPanel implements MouseListener {
      * A string representing the current game state. It is set when changing game states with setGameState().
      */
     private String gameStateStr;
+    /**
+     * Runs AI turns away from the Swing event thread so the window stays responsive.
+     */
+    private ExecutorService aiExecutor;
+    /**
+     * The AI turn currently being calculated, or null if the AI is not thinking.
+     */
+    private Future<?> aiTask;
+    /**
+     * Increased every time an AI turn is started or cancelled. A finished
+     * AI turn is only applied if this has not changed since it started.
+     */
+    private int aiTurnNumber;
+    /**
+     * Metrics for STATUS_FONT, found the first time the game state is drawn.
+     */
+    private FontMetrics statusFontMetrics;
+    /**
+     * Index of the cell under the mouse, or -1 if the mouse is not over a cell.
+     */
+    private int hoverCellIndex = -1;
+    /**
+     * Writer that finished games are logged to, or null if games are not logged.
+     */
+    private GameRecordWriter recordWriter;
+    /**
+     * Cells played so far this game in the order they were played.
+     */
+    private int[] moveHistory;
+    /**
+     * Number of moves in moveHistory.
+     */
+    private int moveCount;
+    /**
+     * Name recorded for player 2: "human" or the name of the AI.
+     */
+    private String oPlayerName = "human";
 
     /**
      * Configures the game ready to be played including selection of playing against either
@@ -57,10 +116,22 @@ public class GamePanel extends JPanel implements MouseListener {
         setPreferredSize(new Dimension(PANEL_WIDTH, PANEL_HEIGHT));
         setBackground(Color.LIGHT_GRAY);
 
-        gameGrid = new GameGrid(new Position(0,0), PANEL_WIDTH, PANEL_HEIGHT-100, 3, 3);
+        gameGrid = new GameGrid(new Position(0,0), PANEL_WIDTH, PANEL_HEIGHT-STATUS_HEIGHT, 3, 3);
+        aiExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AI Turn");
+            thread.setDaemon(true);
+            return thread;
+        });
+        moveHistory = new int[gameGrid.getGrid().length * gameGrid.getGrid()[0].length];
+        try {
+            recordWriter = GameRecordWriter.openFromProperty(GameRecordWriter.RECORD_FILE_PROPERTY);
+        } catch(IOException e) {
+            System.err.println("Games will not be recorded: " + e.getMessage());
+        }
         setGameState(GameState.XTurn);
         chooseAIType();
         addMouseListener(this);
+        addMouseMotionListener(this);
     }
 
     /**
@@ -71,14 +142,17 @@ public class GamePanel extends JPanel implements MouseListener {
     public void paint(Graphics g) {
         super.paint(g);
         gameGrid.paint(g);
+        drawHover(g);
         drawGameState(g);
     }
 
     /**
-     * Resets the grid and returns the turn back to default.
+     * Cancels any AI turn in progress, resets the grid and returns the turn back to default.
      */
     public void restart() {
+        cancelAITurn();
         gameGrid.reset();
+        moveCount = 0;
         setGameState(GameState.XTurn);
     }
 
@@ -108,12 +182,17 @@ public class GamePanel extends JPanel implements MouseListener {
      * in the selected cell and the game state moves to the next
      * turn.
      *
-     * @param mousePosition Position where the mouse is currently located.
+     * @param cellIndex Index of the cell that was clicked, or -1 if the click missed the grid.
+     * @return The cell that was changed, or null if no move was made.
      */
-    private void handleTurn(Position mousePosition) {
-        GridCell selectedCell = gameGrid.getGridCellAt(mousePosition);
-        if(selectedCell == null || selectedCell.getCellState() != 0) {
-            return;
+    private GridCell handleTurn(int cellIndex) {
+        if(cellIndex == -1) {
+            return null;
+        }
+        int gridWidth = gameGrid.getGrid().length;
+        GridCell selectedCell = gameGrid.getGrid()[cellIndex % gridWidth][cellIndex / gridWidth];
+        if(selectedCell.getCellState() != 0) {
+            return null;
         } else if(gameState == GameState.OTurn) {
             selectedCell.setCellState(2);
             setGameState(GameState.XTurn);
@@ -121,6 +200,8 @@ public class GamePanel extends JPanel implements MouseListener {
             selectedCell.setCellState(1);
             setGameState(GameState.OTurn);
         }
+        moveHistory[moveCount++] = cellIndex;
+        return selectedCell;
     }
 
     /**
@@ -137,6 +218,7 @@ public class GamePanel extends JPanel implements MouseListener {
             case XWins: gameStateStr = "Player 1 Wins! Press R."; break;
             case OWins: gameStateStr = "Player 2 Wins! Press R."; break;
             case Draw: gameStateStr = "Draw! Press R."; break;
+            case AIError: gameStateStr = "AI Failed! Press R."; break;
         }
     }
 
@@ -147,10 +229,34 @@ public class GamePanel extends JPanel implements MouseListener {
     private void testForEndGame() {
         if(gameGrid.checkForWin(1)) {
             setGameState(GameState.XWins);
+            recordGame(GameRecord.RESULT_X_WINS);
         } else if(gameGrid.checkForWin(2)) {
             setGameState(GameState.OWins);
+            recordGame(GameRecord.RESULT_O_WINS);
         } else if(gameGrid.isFull()) {
             setGameState(GameState.Draw);
+            recordGame(GameRecord.RESULT_DRAW);
+        }
+    }
+
+    /**
+     * Appends the finished game to the game record file if games are being recorded.
+     * If writing fails recording is turned off so the game can continue.
+     *
+     * @param result GameRecord.RESULT_DRAW, RESULT_X_WINS or RESULT_O_WINS.
+     */
+    private void recordGame(int result) {
+        if(recordWriter == null) {
+            return;
+        }
+        GridCell[][] grid = gameGrid.getGrid();
+        try {
+            recordWriter.write(grid.length, grid[0].length, gameGrid.getWinLength(), "human", oPlayerName,
+                    moveHistory, moveCount, result);
+            recordWriter.flush(); // Games are rare so make sure each one survives the window closing
+        } catch(IOException e) {
+            System.err.println("Stopped recording games: " + e.getMessage());
+            recordWriter = null;
         }
     }
 
@@ -165,19 +271,156 @@ public class GamePanel extends JPanel implements MouseListener {
      */
     @Override
     public void mousePressed(MouseEvent e) {
+        if(aiTask != null) {
+            return; // Wait for the AI to finish thinking
+        }
         if(gameState == GameState.XTurn || gameState == GameState.OTurn) {
-            Position mousePosition = new Position(e.getX(), e.getY());
-            handleTurn(mousePosition);
+            GridCell changedCell = handleTurn(gameGrid.getCellIndexAt(e.getX(), e.getY()));
+            if(changedCell == null) {
+                return; // Nothing changed so nothing needs to be drawn
+            }
             testForEndGame();
 
             if(gameState == GameState.OTurn && aiBehaviour != null) {
-                aiBehaviour.takeTurn();
-                setGameState(GameState.XTurn);
-                testForEndGame();
+                startAITurn();
             }
+            repaintCell(changedCell);
+            repaintStatus();
         }
+    }
 
-        repaint();
+    /**
+     * Starts the AI choosing its move on a background thread using a snapshot of the grid.
+     * The "thinking" message is shown until the move is applied by applyAITurn().
+     */
+    private void startAITurn() {
+        GameGrid snapshot = gameGrid.createSnapshot();
+        TicTacToeAI ai = aiBehaviour;
+        int turnNumber = ++aiTurnNumber;
+        gameStateStr = "Player 2 Thinking...";
+        aiTask = aiExecutor.submit(() -> {
+            int move = -1;
+            Throwable failure = null;
+            try {
+                move = ai.chooseMove(snapshot);
+            } catch(RuntimeException | Error e) {
+                failure = e; // Reported by applyAITurn() unless the turn was cancelled
+            }
+            int chosenMove = move;
+            Throwable aiFailure = failure;
+            SwingUtilities.invokeLater(() -> applyAITurn(turnNumber, chosenMove, aiFailure));
+        });
+    }
+
+    /**
+     * Called on the Swing event thread when an AI turn finishes. Plays the
+     * move unless the turn was cancelled, then checks for the end of the game.
+     * If the AI failed, or chose a cell that is off the grid or already taken,
+     * the error is logged and the game stops in the AIError state.
+     *
+     * @param turnNumber The value of aiTurnNumber when the turn was started.
+     * @param move The cell index chosen by the AI, or -1 if the AI failed to choose.
+     * @param failure What the AI threw, or null if it returned a move.
+     */
+    private void applyAITurn(int turnNumber, int move, Throwable failure) {
+        if(turnNumber != aiTurnNumber) {
+            return; // Cancelled by restart() or chooseAIType()
+        }
+        aiTask = null;
+        int gridWidth = gameGrid.getGrid().length;
+        int cellCount = gridWidth * gameGrid.getGrid()[0].length;
+        if(failure == null && move >= 0 && move < cellCount
+                && gameGrid.getGrid()[move % gridWidth][move / gridWidth].getCellState() != 0) {
+            failure = new IllegalStateException("Cell " + move + " is already taken");
+        }
+        if(failure != null || move < 0 || move >= cellCount) {
+            System.err.println("Player 2 AI failed to choose a move: " + (failure != null ? failure : "invalid move " + move));
+            if(failure != null) failure.printStackTrace();
+            setGameState(GameState.AIError);
+        } else {
+            GridCell changedCell = gameGrid.getGrid()[move % gridWidth][move / gridWidth];
+            changedCell.setCellState(2);
+            moveHistory[moveCount++] = move;
+            setGameState(GameState.XTurn);
+            testForEndGame();
+            repaintCell(changedCell);
+        }
+        if(hoverCellIndex != -1) {
+            // The highlight was hidden while the AI was thinking
+            repaintCell(gameGrid.getGrid()[hoverCellIndex % gridWidth][hoverCellIndex / gridWidth]);
+        }
+        repaintStatus();
+    }
+
+    /**
+     * Stops the AI turn in progress (if any) by interrupting it. Every AI stops
+     * searching soon after being interrupted, so the next turn is not held up
+     * behind it on aiExecutor, and its result will be ignored.
+     */
+    private void cancelAITurn() {
+        if(aiTask != null) {
+            aiTask.cancel(true);
+            aiTask = null;
+        }
+        aiTurnNumber++;
+    }
+
+    /**
+     * Highlights the cell under the mouse if it is empty and
+     * a player is able to place a piece there.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     */
+    private void drawHover(Graphics g) {
+        if(hoverCellIndex == -1 || aiTask != null
+                || (gameState != GameState.XTurn && gameState != GameState.OTurn)) {
+            return;
+        }
+        int gridWidth = gameGrid.getGrid().length;
+        GridCell cell = gameGrid.getGrid()[hoverCellIndex % gridWidth][hoverCellIndex / gridWidth];
+        if(cell.getCellState() != 0) {
+            return;
+        }
+        Position cellPosition = cell.getPosition();
+        g.setColor(HOVER_COLOR);
+        g.fillRect(cellPosition.x+1, cellPosition.y+1, cell.getWidth()-1, cell.getHeight()-1);
+    }
+
+    /**
+     * Changes which cell is highlighted, repainting only the old and new cells.
+     *
+     * @param cellIndex Index of the cell under the mouse, or -1 for none.
+     */
+    private void setHoverCell(int cellIndex) {
+        if(cellIndex == hoverCellIndex) {
+            return;
+        }
+        int gridWidth = gameGrid.getGrid().length;
+        if(hoverCellIndex != -1) {
+            repaintCell(gameGrid.getGrid()[hoverCellIndex % gridWidth][hoverCellIndex / gridWidth]);
+        }
+        hoverCellIndex = cellIndex;
+        if(hoverCellIndex != -1) {
+            repaintCell(gameGrid.getGrid()[hoverCellIndex % gridWidth][hoverCellIndex / gridWidth]);
+        }
+    }
+
+    /**
+     * Requests a repaint of only the area covered by a cell.
+     *
+     * @param cell The cell that changed.
+     */
+    private void repaintCell(GridCell cell) {
+        Position cellPosition = cell.getPosition();
+        // One extra pixel so the grid line on the right and bottom edge is included
+        repaint(cellPosition.x, cellPosition.y, cell.getWidth()+1, cell.getHeight()+1);
+    }
+
+    /**
+     * Requests a repaint of only the strip at the bottom showing the game state.
+     */
+    private void repaintStatus() {
+        repaint(0, PANEL_HEIGHT-STATUS_HEIGHT, PANEL_WIDTH, STATUS_HEIGHT);
     }
 
     /**
@@ -187,18 +430,27 @@ public class GamePanel extends JPanel implements MouseListener {
      * @param g Reference to the Graphics object for rendering.
      */
     private void drawGameState(Graphics g) {
+        if(statusFontMetrics == null) {
+            statusFontMetrics = g.getFontMetrics(STATUS_FONT);
+        }
         g.setColor(Color.BLACK);
-        g.setFont(new Font("Arial", Font.BOLD, 40));
-        int strWidth = g.getFontMetrics().stringWidth(gameStateStr);
+        g.setFont(STATUS_FONT);
+        int strWidth = statusFontMetrics.stringWidth(gameStateStr);
         g.drawString(gameStateStr, PANEL_WIDTH/2-strWidth/2, PANEL_HEIGHT-40);
     }
 
     /**
      * Shows a dialog box with options to select PvP or PvAI with Random or Hard.
      * Choosing PvP leaves the AI behaviour unset, and otherwise creates
-     * an instance of the appropriate AI.
+     * an instance of the appropriate AI. Any AI turn in progress is cancelled,
+     * and if it is O's turn the chosen AI takes it.
      */
     private void chooseAIType() {
+        if(aiTask != null) {
+            cancelAITurn();
+            setGameState(GameState.OTurn);
+            repaintStatus();
+        }
         String[] options = new String[] {"Player vs Player", "Player vs Random AI", "Player vs Hard AI"};
         String message = "Select the game mode you would like to use.";
         int difficultyChoice = JOptionPane.showOptionDialog(null, message,
@@ -208,14 +460,21 @@ public class GamePanel extends JPanel implements MouseListener {
         switch(difficultyChoice) {
             case 0: // Remove the AI so it becomes PvP
                 aiBehaviour = null;
+                oPlayerName = "human";
                 break;
             case 1:
                 aiBehaviour = new RandomAI(gameGrid, false);
+                oPlayerName = "random";
                 break;
             case 2:
-                aiBehaviour = new MinimaxAI(gameGrid, false);
+                aiBehaviour = new OpeningBookAI(gameGrid, false);
+                oPlayerName = "book";
                 break;
         }
+        if(gameState == GameState.OTurn && aiBehaviour != null) {
+            startAITurn();
+            repaintStatus();
+        }
     }
 
     /**
@@ -239,11 +498,30 @@ public class GamePanel extends JPanel implements MouseListener {
      */
     @Override
     public void mouseEntered(MouseEvent e) {}
+    /**
+     * Removes the highlight when the mouse leaves the panel.
+     *
+     * @param e Information about the mouse event.
+     */
+    @Override
+    public void mouseExited(MouseEvent e) {
+        setHoverCell(-1);
+    }
+    /**
+     * Highlights the cell under the mouse. Called at a high rate,
+     * so only repaints when the mouse moves to a different cell.
+     *
+     * @param e Information about the mouse event.
+     */
+    @Override
+    public void mouseMoved(MouseEvent e) {
+        setHoverCell(gameGrid.getCellIndexAt(e.getX(), e.getY()));
+    }
     /**
      * Not set.
      *
      * @param e Not set.
      */
     @Override
-    public void mouseExited(MouseEvent e) {}
+    public void mouseDragged(MouseEvent e) {}
 }
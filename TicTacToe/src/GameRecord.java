@@ -0,0 +1,184 @@
+import java.util.Arrays;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * GameRecord class:
+ * A finished game stored as the size of the board, who played each side,
+ * the moves in the order they were played, and the result.
+ * X always moves first, so the player for each move follows from its position
+ * in the list. Records are written by GameRecordWriter and read by GameRecordReader.
+ */
+public class GameRecord {
+    /**
+     * Result value for a game that ended in a draw.
+     */
+    public static final int RESULT_DRAW = 0;
+    /**
+     * Result value for a game that X won.
+     */
+    public static final int RESULT_X_WINS = 1;
+    /**
+     * Result value for a game that O won.
+     */
+    public static final int RESULT_O_WINS = 2;
+
+    /**
+     * Number of cells horizontally.
+     */
+    private final int width;
+    /**
+     * Number of cells vertically.
+     */
+    private final int height;
+    /**
+     * Number of matching cells in a row needed to win.
+     */
+    private final int winLength;
+    /**
+     * Name of the player or AI playing X.
+     */
+    private final String xPlayer;
+    /**
+     * Name of the player or AI playing O.
+     */
+    private final String oPlayer;
+    /**
+     * Cell indexes (x+y*width) in the order they were played.
+     */
+    private final int[] moves;
+    /**
+     * RESULT_DRAW, RESULT_X_WINS or RESULT_O_WINS.
+     */
+    private final int result;
+
+    /**
+     * Creates a record of a finished game.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     * @param xPlayer Name of the player or AI playing X.
+     * @param oPlayer Name of the player or AI playing O.
+     * @param moves Cell indexes in the order they were played. The array is not copied.
+     * @param result RESULT_DRAW, RESULT_X_WINS or RESULT_O_WINS.
+     */
+    public GameRecord(int width, int height, int winLength, String xPlayer, String oPlayer, int[] moves, int result) {
+        this.width = width;
+        this.height = height;
+        this.winLength = winLength;
+        this.xPlayer = xPlayer;
+        this.oPlayer = oPlayer;
+        this.moves = moves;
+        this.result = result;
+    }
+
+    /**
+     * Creates an empty headless GameGrid that matches the size of the recorded game.
+     *
+     * @return A new grid ready for replay().
+     */
+    public GameGrid createGrid() {
+        return new GameGrid(new Position(0,0), width, height, width, height, winLength);
+    }
+
+    /**
+     * Resets the grid and plays every move onto it.
+     *
+     * @param gameGrid A grid of the same size as the recorded game.
+     * @return The result found by the grid after the last move, which matches getResult() for valid records.
+     * @throws IllegalArgumentException If the grid is the wrong size or a move is not valid.
+     */
+    public int replay(GameGrid gameGrid) {
+        GridCell[][] grid = gameGrid.getGrid();
+        if(grid.length != width || grid[0].length != height || gameGrid.getWinLength() != winLength) {
+            throw new IllegalArgumentException("Grid does not match the recorded game size");
+        }
+        gameGrid.reset();
+        for(int i = 0; i < moves.length; i++) {
+            int move = moves[i];
+            if(move < 0 || move >= width * height || grid[move % width][move / width].getCellState() != 0) {
+                throw new IllegalArgumentException("Invalid move " + move + " at turn " + i);
+            }
+            grid[move % width][move / width].setCellState(i % 2 == 0 ? 1 : 2);
+        }
+        if(gameGrid.checkForWin(1)) return RESULT_X_WINS;
+        if(gameGrid.checkForWin(2)) return RESULT_O_WINS;
+        return RESULT_DRAW;
+    }
+
+    /**
+     * Gets the number of cells horizontally.
+     *
+     * @return Width in cells.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the number of cells vertically.
+     *
+     * @return Height in cells.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of matching cells in a row needed to win.
+     *
+     * @return The win length.
+     */
+    public int getWinLength() {
+        return winLength;
+    }
+
+    /**
+     * Gets the name of the player or AI playing X.
+     *
+     * @return The name of X.
+     */
+    public String getXPlayer() {
+        return xPlayer;
+    }
+
+    /**
+     * Gets the name of the player or AI playing O.
+     *
+     * @return The name of O.
+     */
+    public String getOPlayer() {
+        return oPlayer;
+    }
+
+    /**
+     * Gets the moves in the order they were played. The array must not be modified.
+     *
+     * @return Cell indexes (x+y*width).
+     */
+    public int[] getMoves() {
+        return moves;
+    }
+
+    /**
+     * Gets the result of the game.
+     *
+     * @return RESULT_DRAW, RESULT_X_WINS or RESULT_O_WINS.
+     */
+    public int getResult() {
+        return result;
+    }
+
+    /**
+     * Gets a summary of the record.
+     *
+     * @return A string showing the players, board, result and moves.
+     */
+    @Override
+    public String toString() {
+        return xPlayer + " vs " + oPlayer + " on " + width + "x" + height + " (" + winLength + " in a row), result "
+                + result + ", moves " + Arrays.toString(moves);
+    }
+}
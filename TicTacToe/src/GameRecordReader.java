@@ -0,0 +1,321 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * GameRecordReader class:
+ * Reads the games from a file written by GameRecordWriter, one at a time.
+ * See GameRecordWriter for the layout of the file.
+ *
+ * Usage: GameRecordReader file
+ * Replays every game in the file through a GameGrid, checks the stored
+ * result matches, and prints the results for each pair of players.
+ */
+public class GameRecordReader implements Closeable {
+    /**
+     * Size of the read buffer in bytes.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The file being read.
+     */
+    private final FileChannel channel;
+    /**
+     * Buffered stream positioned at the next entry. Replaced by seek().
+     */
+    private DataInputStream input;
+    /**
+     * Player names indexed by the ids defined in the file.
+     */
+    private final List<String> playerNames = new ArrayList<>();
+    /**
+     * Number of bytes read from the start of the file.
+     */
+    private long position;
+    /**
+     * File offset of the game last returned by next(), or -1 if there has not been one.
+     */
+    private long lastGameOffset = -1;
+
+    /**
+     * Replays every game in a file and prints a summary.
+     *
+     * @param args The file to read.
+     * @throws IOException If the file cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.out.println("Usage: GameRecordReader file");
+            return;
+        }
+        Map<String, SelfPlaySimulator.MatchResult> results = new TreeMap<>();
+        long games = 0;
+        long mismatches = 0;
+        GameGrid gameGrid = null;
+        long startTime = System.nanoTime();
+        try(GameRecordReader reader = new GameRecordReader(Path.of(args[0]))) {
+            GameRecord record;
+            while((record = reader.next()) != null) {
+                if(gameGrid == null || gameGrid.getGrid().length != record.getWidth()
+                        || gameGrid.getGrid()[0].length != record.getHeight()
+                        || gameGrid.getWinLength() != record.getWinLength()) {
+                    gameGrid = record.createGrid();
+                }
+                if(record.replay(gameGrid) != record.getResult()) {
+                    mismatches++;
+                }
+                String matchup = record.getXPlayer() + " (X) vs " + record.getOPlayer() + " (O) on "
+                        + record.getWidth() + "x" + record.getHeight() + " with " + record.getWinLength() + " in a row";
+                results.computeIfAbsent(matchup, key -> new SelfPlaySimulator.MatchResult()).addGame(record.getResult());
+                games++;
+            }
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        for(Map.Entry<String, SelfPlaySimulator.MatchResult> entry : results.entrySet()) {
+            System.out.println(entry.getKey() + ": " + entry.getValue());
+        }
+        System.out.printf("%d games replayed in %.2f s, %d did not match their stored result%n",
+                games, seconds, mismatches);
+    }
+
+    /**
+     * Opens a game record file and checks its header.
+     *
+     * @param path The file to read.
+     * @throws IOException If the file cannot be opened or is not a game record file.
+     */
+    public GameRecordReader(Path path) throws IOException {
+        channel = FileChannel.open(path);
+        input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+        try {
+            GameRecordWriter.readHeader(input);
+        } catch(IOException e) {
+            input.close();
+            throw e;
+        }
+        position = GameRecordWriter.HEADER_SIZE;
+    }
+
+    /**
+     * Reads the next game.
+     *
+     * @return The next game, or null if there are no more games.
+     * @throws IOException If the file cannot be read or is corrupt.
+     */
+    public GameRecord next() throws IOException {
+        while(true) {
+            long entryOffset = position;
+            int tag = readByte();
+            if(tag == -1) return null;
+            if(tag == GameRecordWriter.TAG_PLAYER) {
+                readPlayer();
+            } else if(tag == GameRecordWriter.TAG_GAME) {
+                lastGameOffset = entryOffset;
+                return readGame();
+            } else {
+                throw new IOException("Unknown entry tag " + tag);
+            }
+        }
+    }
+
+    /**
+     * Moves forward to an entry without creating records for the games that are passed.
+     * Player names defined along the way are still read so later games can use them.
+     *
+     * @param offset File offset of the start of an entry, at or after the current position.
+     * @throws IOException If the file cannot be read or the offset is not the start of an entry.
+     */
+    public void skipTo(long offset) throws IOException {
+        while(position < offset) {
+            int tag = readByte();
+            if(tag == GameRecordWriter.TAG_PLAYER) {
+                readPlayer();
+            } else if(tag == GameRecordWriter.TAG_GAME) {
+                for(int i = 0; i < 6; i++) {
+                    readVarint(); // width, height, winLength, X id, O id, result
+                }
+                for(int moveCount = readVarint(); moveCount > 0; moveCount--) {
+                    readVarint();
+                }
+            } else {
+                throw new IOException(tag == -1 ? "Offset is past the end of the file" : "Unknown entry tag " + tag);
+            }
+        }
+        if(position != offset) {
+            throw new IOException("Offset " + offset + " is not the start of an entry");
+        }
+    }
+
+    /**
+     * Jumps straight to an entry without reading anything before it. Player names
+     * defined before the offset are not read, so any that the following games use
+     * must be given with setPlayerName(), or skipTo() used instead.
+     *
+     * @param offset File offset of the start of an entry.
+     * @throws IOException If the offset is inside the header or the file cannot be read.
+     */
+    public void seek(long offset) throws IOException {
+        if(offset < GameRecordWriter.HEADER_SIZE) {
+            throw new IOException("Offset " + offset + " is inside the file header");
+        }
+        channel.position(offset);
+        // The old stream is not closed as that would close the channel
+        input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+        position = offset;
+    }
+
+    /**
+     * Defines a player name, as a TAG_PLAYER entry would.
+     *
+     * @param id The id games use for the player.
+     * @param name The player name.
+     */
+    public void setPlayerName(int id, String name) {
+        while(playerNames.size() <= id) {
+            playerNames.add(null);
+        }
+        playerNames.set(id, name);
+    }
+
+    /**
+     * Gets the player names defined so far.
+     *
+     * @return Names indexed by id, with null for ids that have not been defined.
+     */
+    public List<String> getPlayerNames() {
+        return Collections.unmodifiableList(playerNames);
+    }
+
+    /**
+     * Gets the file offset of the game last returned by next(). Passing
+     * this to skipTo() on a new reader makes next() return the same game.
+     *
+     * @return The offset, or -1 if next() has not returned a game.
+     */
+    public long getLastGameOffset() {
+        return lastGameOffset;
+    }
+
+    /**
+     * Gets the number of bytes read from the start of the file. After next()
+     * returns null this is the offset that new games will be appended at.
+     *
+     * @return The current file offset.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException If the file could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Reads a TAG_PLAYER entry and stores the name under its id.
+     *
+     * @throws IOException If the entry cannot be read or its id or name length is out of range.
+     */
+    private void readPlayer() throws IOException {
+        int id = readVarint();
+        int nameLength = readVarint();
+        if(id < 0 || id >= GameRecordWriter.MAX_PLAYER_IDS || nameLength < 0 || nameLength > GameRecordWriter.MAX_NAME_BYTES) {
+            throw new IOException("Player entry has id " + id + " and name length " + nameLength);
+        }
+        byte[] nameBytes = new byte[nameLength];
+        input.readFully(nameBytes);
+        position += nameBytes.length;
+        setPlayerName(id, new String(nameBytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a TAG_GAME entry.
+     *
+     * @return The game.
+     * @throws IOException If the entry cannot be read, is out of range, or refers to an undefined player.
+     */
+    private GameRecord readGame() throws IOException {
+        int width = readVarint();
+        int height = readVarint();
+        int winLength = readVarint();
+        String xPlayer = getPlayerName(readVarint());
+        String oPlayer = getPlayerName(readVarint());
+        int result = readVarint();
+        int moveCount = readVarint();
+        if(width < 1 || height < 1 || (long) width * height > GameRecordWriter.MAX_CELL_COUNT
+                || moveCount < 0 || moveCount > width * height) {
+            throw new IOException("Game entry has size " + width + "x" + height + " and " + moveCount + " moves");
+        }
+        int[] moves = new int[moveCount];
+        for(int i = 0; i < moves.length; i++) {
+            moves[i] = readVarint();
+            if(moves[i] >= width * height) {
+                throw new IOException("Move " + moves[i] + " is off the board");
+            }
+        }
+        return new GameRecord(width, height, winLength, xPlayer, oPlayer, moves, result);
+    }
+
+    /**
+     * Looks up a player name by id.
+     *
+     * @param id The id from a TAG_GAME entry.
+     * @return The name.
+     * @throws IOException If no TAG_PLAYER entry has defined the id.
+     */
+    private String getPlayerName(int id) throws IOException {
+        if(id >= playerNames.size() || playerNames.get(id) == null) {
+            throw new IOException("Undefined player id " + id);
+        }
+        return playerNames.get(id);
+    }
+
+    /**
+     * Reads a number written by GameRecordWriter.writeVarint().
+     *
+     * @return The number.
+     * @throws IOException If the file ends part way through the number or it is too large.
+     */
+    private int readVarint() throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7) {
+            int b = readByte();
+            if(b == -1) throw new EOFException("Game record file ends part way through an entry");
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Varint is too long");
+    }
+
+    /**
+     * Reads one byte and counts it in the position.
+     *
+     * @return The byte, or -1 at the end of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    private int readByte() throws IOException {
+        int b = input.read();
+        if(b != -1) position++;
+        return b;
+    }
+}
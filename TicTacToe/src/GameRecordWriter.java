@@ -0,0 +1,282 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * GameRecordWriter class:
+ * Appends GameRecords to a binary log file. Files start with a 4 byte MAGIC
+ * and a VERSION byte, followed by a stream of entries that each start with a tag byte:
+ *
+ * TAG_PLAYER: id, name length, UTF-8 name. Gives a player name an id so that each
+ *             game only stores the id. Later definitions of the same id replace earlier ones.
+ * TAG_GAME:   width, height, winLength, X id, O id, result, move count, moves.
+ *
+ * Every number after the tag is an unsigned varint (7 bits per byte, low bits first,
+ * with the top bit set on every byte except the last), so a 3x3 game is about 15 bytes.
+ * Writes are buffered and synchronized so that many threads can share one writer.
+ *
+ * When appending, the file is read to its last complete entry first, and anything after
+ * that (a game cut short by a crash) is removed so the new games are not read as part of it.
+ */
+public class GameRecordWriter implements Closeable {
+    /**
+     * Identifies a game record file ("TTTR").
+     */
+    public static final int MAGIC = 0x54545452;
+    /**
+     * Format version written after MAGIC.
+     */
+    public static final int VERSION = 1;
+    /**
+     * Number of bytes in the file header (MAGIC and VERSION).
+     */
+    public static final int HEADER_SIZE = 5;
+    /**
+     * Tag for an entry that defines a player name.
+     */
+    public static final int TAG_PLAYER = 1;
+    /**
+     * Tag for an entry that stores a game.
+     */
+    public static final int TAG_GAME = 2;
+    /**
+     * Longest player name that can be written, in UTF-8 bytes.
+     */
+    public static final int MAX_NAME_BYTES = 1024;
+    /**
+     * Number of player ids one writer can define.
+     */
+    public static final int MAX_PLAYER_IDS = 1 << 16;
+    /**
+     * Largest board (width*height) that can be written.
+     */
+    public static final int MAX_CELL_COUNT = 1 << 16;
+    /**
+     * System property naming the file that games should be logged to.
+     * Games are only logged when this is set, for example -Drecord.file=games.ttr
+     */
+    public static final String RECORD_FILE_PROPERTY = "record.file";
+    /**
+     * Size of the write buffer in bytes.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Buffered stream to the end of the file.
+     */
+    private final OutputStream output;
+    /**
+     * Ids of the player names that have been defined by this writer.
+     */
+    private final Map<String, Integer> playerIds = new HashMap<>();
+    /**
+     * Number of games written by this writer.
+     */
+    private long gameCount;
+
+    /**
+     * Opens a file for writing games. New files are given the header. Existing
+     * files are either appended to (after checking their header and removing any
+     * partly written entry from the end) or replaced.
+     *
+     * @param path The file to write.
+     * @param append If true, games are added to the end of an existing file.
+     * @throws IOException If the file cannot be opened, or an existing file is not a game record file or is corrupt.
+     */
+    public GameRecordWriter(Path path, boolean append) throws IOException {
+        boolean hasHeader = append && Files.exists(path) && Files.size(path) > 0;
+        if(hasHeader) {
+            truncateToLastEntry(path);
+        }
+        OutputStream fileOutput = append
+                ? Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+                : Files.newOutputStream(path);
+        output = new BufferedOutputStream(fileOutput, BUFFER_SIZE);
+        if(!hasHeader) {
+            output.write(MAGIC >>> 24);
+            output.write(MAGIC >>> 16);
+            output.write(MAGIC >>> 8);
+            output.write(MAGIC);
+            output.write(VERSION);
+        }
+    }
+
+    /**
+     * Opens a file named by a system property for appending games, if the property is set.
+     *
+     * @param property Name of the system property holding the file path.
+     * @return The writer, or null if the property is not set.
+     * @throws IOException If the file cannot be opened.
+     */
+    public static GameRecordWriter openFromProperty(String property) throws IOException {
+        String path = System.getProperty(property);
+        if(path == null || path.isEmpty()) return null;
+        return new GameRecordWriter(Path.of(path), true);
+    }
+
+    /**
+     * Removes anything after the last complete game, which is left when a
+     * writer stops part way through an entry.
+     *
+     * @param path The file to check.
+     * @throws IOException If the file cannot be read, is not a game record file, or is corrupt before its end.
+     */
+    private static void truncateToLastEntry(Path path) throws IOException {
+        long end;
+        try(GameRecordReader reader = new GameRecordReader(path)) {
+            end = reader.getPosition();
+            try {
+                while(reader.next() != null) {
+                    end = reader.getPosition();
+                }
+                end = reader.getPosition(); // Keep player definitions after the last game too
+            } catch(EOFException e) {
+                // The file ends part way through an entry, which is removed
+            }
+        }
+        if(end < Files.size(path)) {
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+            }
+        }
+    }
+
+    /**
+     * Checks the header at the start of a game record file.
+     *
+     * @param input Stream positioned at the start of the file.
+     * @throws IOException If the header is missing or has the wrong MAGIC or VERSION.
+     */
+    static void readHeader(DataInputStream input) throws IOException {
+        if(input.readInt() != MAGIC) {
+            throw new IOException("Not a game record file");
+        }
+        int version = input.readUnsignedByte();
+        if(version != VERSION) {
+            throw new IOException("Unsupported game record version " + version);
+        }
+    }
+
+    /**
+     * Writes a game.
+     *
+     * @param record The game to write.
+     * @throws IOException If the game could not be written.
+     */
+    public void write(GameRecord record) throws IOException {
+        write(record.getWidth(), record.getHeight(), record.getWinLength(), record.getXPlayer(),
+                record.getOPlayer(), record.getMoves(), record.getMoves().length, record.getResult());
+    }
+
+    /**
+     * Writes a game without needing a GameRecord, so callers can reuse their move array.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     * @param xPlayer Name of the player or AI playing X.
+     * @param oPlayer Name of the player or AI playing O.
+     * @param moves Cell indexes in the order they were played.
+     * @param moveCount Number of moves to write from the start of moves.
+     * @param result GameRecord.RESULT_DRAW, RESULT_X_WINS or RESULT_O_WINS.
+     * @throws IOException If the game could not be written.
+     */
+    public synchronized void write(int width, int height, int winLength, String xPlayer, String oPlayer,
+                                   int[] moves, int moveCount, int result) throws IOException {
+        if(width < 1 || height < 1 || (long) width * height > MAX_CELL_COUNT || moveCount > width * height) {
+            throw new IllegalArgumentException("Game is too large to record");
+        }
+        int xId = getPlayerId(xPlayer);
+        int oId = getPlayerId(oPlayer);
+        output.write(TAG_GAME);
+        writeVarint(width);
+        writeVarint(height);
+        writeVarint(winLength);
+        writeVarint(xId);
+        writeVarint(oId);
+        writeVarint(result);
+        writeVarint(moveCount);
+        for(int i = 0; i < moveCount; i++) {
+            writeVarint(moves[i]);
+        }
+        gameCount++;
+    }
+
+    /**
+     * Gets the number of games written by this writer.
+     *
+     * @return Number of games.
+     */
+    public synchronized long getGameCount() {
+        return gameCount;
+    }
+
+    /**
+     * Writes any buffered games to the file.
+     *
+     * @throws IOException If the games could not be written.
+     */
+    public synchronized void flush() throws IOException {
+        output.flush();
+    }
+
+    /**
+     * Writes any buffered games and closes the file.
+     *
+     * @throws IOException If the games could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        output.close();
+    }
+
+    /**
+     * Finds the id for a player name, writing a TAG_PLAYER entry the first time it is used.
+     *
+     * @param name Name of the player or AI.
+     * @return The id for the name.
+     * @throws IOException If the definition could not be written.
+     */
+    private int getPlayerId(String name) throws IOException {
+        Integer id = playerIds.get(name);
+        if(id != null) return id;
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if(nameBytes.length > MAX_NAME_BYTES || playerIds.size() >= MAX_PLAYER_IDS) {
+            throw new IllegalArgumentException("Player name is too long, or there are too many players: " + name);
+        }
+        int newId = playerIds.size();
+        playerIds.put(name, newId);
+        output.write(TAG_PLAYER);
+        writeVarint(newId);
+        writeVarint(nameBytes.length);
+        output.write(nameBytes);
+        return newId;
+    }
+
+    /**
+     * Writes a non-negative number using as few bytes as possible.
+     *
+     * @param value The number to write.
+     * @throws IOException If the number could not be written.
+     */
+    private void writeVarint(int value) throws IOException {
+        while((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+}
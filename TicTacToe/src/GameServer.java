@@ -0,0 +1,551 @@
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * GameServer class:
+ * Hosts games without any UI for clients connecting to a local socket.
+ * Each connection gets its own thread and can play many GameSessions at once.
+ * AI moves run on a fixed size compute pool, so expensive searches queue up
+ * for a free core instead of every connection searching at the same time.
+ * When the queue is full the connection waits until there is room.
+ *
+ * Every AI move is limited to maxMoveMillis so a few slow searches cannot hold
+ * the compute pool: AIs with a time limit are capped to it, minimax and book
+ * (which have none) are only allowed on grids up to 3x3, and the parallel AIs
+ * are not allowed as they search on the common pool outside the compute pool.
+ * If a client disconnects while the AI is thinking its move is cancelled.
+ *
+ * The protocol is one command per line, with replies on their own lines:
+ *
+ * NEW size winLength ai [x|o]  Starts a game against an AI from AIFactory.AI_NAMES (or "human"
+ *                              for no AI) playing the given side (default o).
+ *                              Replies OK id, then any AI move, then the state.
+ * MOVE id cell                 Plays a cell (x+y*size) for the player to move.
+ *                              Replies MOVE id cell player for each move played and STATE id state.
+ * BOARD id                     Replies BOARD id cells, with X, O or . for each cell row by row.
+ * CLOSE id                     Ends a game. Replies OK id.
+ * STATS                        Replies STATS line for each AI with its turn latency and search
+ *                              metrics (only when ai.metrics is true), then END.
+ * QUIT                         Replies BYE and closes the connection.
+ *
+ * Errors are replied as ERR message. Finished games are logged if the
+ * record.file system property is set.
+ *
+ * Usage: GameServer [port] [computeThreads] [maxSessions] [maxMoveMillis]
+ */
+public class GameServer {
+    /**
+     * Port used when none is given.
+     */
+    public static final int DEFAULT_PORT = 7777;
+    /**
+     * Longest an AI move can take in milliseconds when no limit is given.
+     */
+    public static final long DEFAULT_MAX_MOVE_MILLIS = 1000;
+    /**
+     * Stack size for connection threads. They only parse commands so
+     * a small stack lets thousands of connections share the memory.
+     */
+    private static final long CONNECTION_STACK_SIZE = 256 * 1024;
+    /**
+     * AI moves waiting for a compute thread, per compute thread, before connections have to wait.
+     */
+    private static final int QUEUED_MOVES_PER_THREAD = 64;
+    /**
+     * Largest grid size a client can ask for.
+     */
+    private static final int MAX_GRID_SIZE = 32;
+    /**
+     * Largest grid size for AIs without a time limit. Minimax solves 3x3 in
+     * milliseconds but can search for minutes on anything larger.
+     */
+    private static final int MAX_UNTIMED_GRID_SIZE = 3;
+    /**
+     * How often a connection waiting for an AI move checks if its client has gone, in milliseconds.
+     */
+    private static final long DISCONNECT_CHECK_MILLIS = 100;
+
+    /**
+     * Port to listen on, or 0 to pick any free port.
+     */
+    private final int port;
+    /**
+     * Maximum number of sessions across every connection.
+     */
+    private final int maxSessions;
+    /**
+     * Longest an AI move can take in milliseconds.
+     */
+    private final long maxMoveMillis;
+    /**
+     * Runs a thread for each connection.
+     */
+    private final ExecutorService connectionPool;
+    /**
+     * Runs AI moves on a fixed number of threads.
+     */
+    private final ThreadPoolExecutor computePool;
+    /**
+     * Number of sessions open across every connection.
+     */
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    /**
+     * Writer that finished games are logged to, or null if games are not logged.
+     */
+    private GameRecordWriter recordWriter;
+    /**
+     * Socket accepting connections, or null before start().
+     */
+    private ServerSocket serverSocket;
+
+    /**
+     * Starts a server from the command line and accepts connections until the process is stopped.
+     *
+     * @param args [port] [computeThreads] [maxSessions] [maxMoveMillis]
+     * @throws IOException If the server socket cannot be opened.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int computeThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int maxSessions = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        long maxMoveMillis = args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_MAX_MOVE_MILLIS;
+        GameServer server = new GameServer(port, computeThreads, maxSessions, maxMoveMillis);
+        server.setRecordWriter(GameRecordWriter.openFromProperty(GameRecordWriter.RECORD_FILE_PROPERTY));
+        System.out.println("Listening on " + server.start() + " with " + computeThreads + " compute threads");
+        server.acceptConnections();
+    }
+
+    /**
+     * Creates a server that allows DEFAULT_MAX_MOVE_MILLIS for each AI move. Nothing is opened until start().
+     *
+     * @param port Port to listen on, or 0 to pick any free port.
+     * @param computeThreads Number of AI moves that can be calculated at once.
+     * @param maxSessions Maximum number of sessions across every connection.
+     */
+    public GameServer(int port, int computeThreads, int maxSessions) {
+        this(port, computeThreads, maxSessions, DEFAULT_MAX_MOVE_MILLIS);
+    }
+
+    /**
+     * Creates a server. Nothing is opened until start().
+     *
+     * @param port Port to listen on, or 0 to pick any free port.
+     * @param computeThreads Number of AI moves that can be calculated at once.
+     * @param maxSessions Maximum number of sessions across every connection.
+     * @param maxMoveMillis Longest an AI move can take in milliseconds.
+     */
+    public GameServer(int port, int computeThreads, int maxSessions, long maxMoveMillis) {
+        if(maxMoveMillis <= 0) {
+            throw new IllegalArgumentException("The move time limit must be positive");
+        }
+        this.port = port;
+        this.maxSessions = maxSessions;
+        this.maxMoveMillis = maxMoveMillis;
+        connectionPool = Executors.newCachedThreadPool(createThreadFactory("Connection", CONNECTION_STACK_SIZE));
+        computePool = new ThreadPoolExecutor(computeThreads, computeThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(computeThreads * QUEUED_MOVES_PER_THREAD),
+                createThreadFactory("AI Compute", 0), (task, executor) -> {
+                    // Make the connection wait for room in the queue rather than failing the move
+                    if(executor.isShutdown()) throw new RejectedExecutionException("Server is stopping");
+                    try {
+                        executor.getQueue().put(task);
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for the compute pool", e);
+                    }
+                });
+    }
+
+    /**
+     * Sets where finished games are logged.
+     *
+     * @param recordWriter Writer to log games to, or null to not log games.
+     */
+    public void setRecordWriter(GameRecordWriter recordWriter) {
+        this.recordWriter = recordWriter;
+    }
+
+    /**
+     * Opens the server socket on the loopback address.
+     *
+     * @return The port being listened on.
+     * @throws IOException If the socket cannot be opened.
+     */
+    public int start() throws IOException {
+        serverSocket = new ServerSocket(port, 256, InetAddress.getLoopbackAddress());
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until stop() is called, handing each to its own thread.
+     */
+    public void acceptConnections() {
+        while(!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connectionPool.execute(new Connection(socket));
+            } catch(IOException e) {
+                if(!serverSocket.isClosed()) {
+                    System.err.println("Failed to accept a connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections, stops the thread pools, and closes the game log.
+     *
+     * @throws IOException If the socket or log could not be closed.
+     */
+    public void stop() throws IOException {
+        serverSocket.close();
+        connectionPool.shutdownNow();
+        computePool.shutdownNow();
+        if(recordWriter != null) recordWriter.close();
+    }
+
+    /**
+     * Gets the number of sessions open across every connection.
+     *
+     * @return Number of sessions.
+     */
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    /**
+     * Limits the AI a client asked for to maxMoveMillis per move.
+     *
+     * @param aiName Name of an AI from AIFactory.AI_NAMES (optionally with :timeBudgetMillis), or "human".
+     * @param gridSize Number of cells horizontally and vertically.
+     * @return The name to create the AI from, with a time limit no longer than maxMoveMillis.
+     * @throws IllegalArgumentException If the AI cannot be limited on this grid size.
+     */
+    private String limitAIName(String aiName, int gridSize) {
+        int separator = aiName.indexOf(':');
+        String type = separator == -1 ? aiName : aiName.substring(0, separator);
+        long timeBudget = separator == -1 ? 0 : Long.parseLong(aiName.substring(separator + 1));
+        switch(type) {
+            case "alphabeta":
+            case "mcts":
+            case "tablebase":
+                return type + ":" + (timeBudget > 0 ? Math.min(timeBudget, maxMoveMillis) : maxMoveMillis);
+            case "minimax":
+            case "book":
+                if(gridSize > MAX_UNTIMED_GRID_SIZE) {
+                    throw new IllegalArgumentException(type + " has no time limit so is only available up to "
+                            + MAX_UNTIMED_GRID_SIZE + "x" + MAX_UNTIMED_GRID_SIZE);
+                }
+                return type;
+            case "parallelminimax":
+            case "parallelmcts":
+                throw new IllegalArgumentException(type + " is not available on the server");
+            default:
+                return aiName; // random and human are instant, anything else is reported by AIFactory
+        }
+    }
+
+    /**
+     * Creates daemon threads with numbered names.
+     *
+     * @param name Name to give each thread before its number.
+     * @param stackSize Stack size for each thread, or 0 for the JVM default.
+     * @return The thread factory.
+     */
+    private static ThreadFactory createThreadFactory(String name, long stackSize) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(null, runnable, name + " " + threadNumber.incrementAndGet(), stackSize);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Reads commands from one client and replies to them. The sessions started by a
+     * connection belong to it, so only this connection's thread ever touches them
+     * (apart from AI moves, which the thread waits for).
+     */
+    private class Connection implements Runnable {
+        /**
+         * Socket connected to the client.
+         */
+        private final Socket socket;
+        /**
+         * Sessions started by this connection by id.
+         */
+        private final Map<Integer, GameSession> sessions = new HashMap<>();
+        /**
+         * Id for the next session.
+         */
+        private int nextSessionId = 1;
+        /**
+         * Commands from the client.
+         */
+        private BufferedReader input;
+        /**
+         * Buffered replies to the client, flushed after each command.
+         */
+        private PrintWriter output;
+
+        /**
+         * Creates a connection handler.
+         *
+         * @param socket Socket connected to the client.
+         */
+        public Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Handles commands until the client quits or disconnects, then ends its sessions.
+         */
+        @Override
+        public void run() {
+            try(Socket client = socket;
+                BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8))) {
+                input = reader;
+                output = new PrintWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8));
+                String line;
+                while((line = input.readLine()) != null) {
+                    if(!handleCommand(line.trim())) break;
+                    output.flush();
+                }
+                output.flush();
+            } catch(IOException | UncheckedIOException e) {
+                // The client disconnected
+            } finally {
+                sessionCount.addAndGet(-sessions.size());
+                sessions.clear();
+            }
+        }
+
+        /**
+         * Runs one command and writes the reply.
+         *
+         * @param line The command line from the client.
+         * @return False if the connection should close.
+         */
+        private boolean handleCommand(String line) {
+            if(line.isEmpty()) return true;
+            String[] parts = line.split("\\s+");
+            try {
+                switch(parts[0].toUpperCase()) {
+                    case "NEW": newSession(parts); break;
+                    case "MOVE": {
+                        GameSession session = getSession(parts, 3);
+                        move(Integer.parseInt(parts[1]), session, Integer.parseInt(parts[2]));
+                        break;
+                    }
+                    case "BOARD": {
+                        GameSession session = getSession(parts, 2);
+                        output.println("BOARD " + parts[1] + " " + session.getBoardString());
+                        break;
+                    }
+                    case "CLOSE":
+                        getSession(parts, 2);
+                        sessions.remove(Integer.parseInt(parts[1]));
+                        sessionCount.decrementAndGet();
+                        output.println("OK " + parts[1]);
+                        break;
+                    case "STATS":
+                        for(String metrics : InstrumentedAI.getMetricsSummary()) {
+                            output.println("STATS " + metrics);
+                        }
+                        output.println("END");
+                        break;
+                    case "QUIT":
+                        output.println("BYE");
+                        return false;
+                    default:
+                        output.println("ERR Unknown command " + parts[0]);
+                }
+            } catch(NumberFormatException e) {
+                output.println("ERR Expected a number");
+            } catch(IllegalArgumentException | IllegalStateException e) {
+                output.println("ERR " + e.getMessage());
+            } catch(UncheckedIOException e) {
+                throw e; // The client disconnected, so end the connection
+            } catch(RuntimeException e) {
+                // A bug in one command must not end the connection
+                System.err.println("Failed to handle \"" + line + "\": " + e);
+                output.println("ERR Internal error");
+            }
+            return true;
+        }
+
+        /**
+         * Handles NEW size winLength ai [x|o].
+         *
+         * @param parts The command split into words.
+         */
+        private void newSession(String[] parts) {
+            if(parts.length < 4) {
+                throw new IllegalArgumentException("Usage: NEW size winLength ai [x|o]");
+            }
+            int gridSize = Integer.parseInt(parts[1]);
+            if(gridSize > MAX_GRID_SIZE) {
+                throw new IllegalArgumentException("Grid size must be at most " + MAX_GRID_SIZE);
+            }
+            String aiName = limitAIName(parts[3], gridSize);
+            boolean aiPlaysX = parts.length > 4 && parts[4].equalsIgnoreCase("x");
+            if(sessionCount.incrementAndGet() > maxSessions) {
+                sessionCount.decrementAndGet();
+                throw new IllegalStateException("Server is full");
+            }
+            GameSession session;
+            try {
+                session = new GameSession(gridSize, Integer.parseInt(parts[2]), aiName, aiPlaysX);
+            } catch(RuntimeException e) {
+                sessionCount.decrementAndGet();
+                throw e;
+            }
+            int id = nextSessionId++;
+            sessions.put(id, session);
+            output.println("OK " + id);
+            playAITurnIfNeeded(id, session);
+            output.println("STATE " + id + " " + session.getState());
+        }
+
+        /**
+         * Handles MOVE id cell.
+         *
+         * @param id The session id.
+         * @param session The session to move in.
+         * @param cellIndex The cell to play.
+         */
+        private void move(int id, GameSession session, int cellIndex) {
+            int player = session.getPlayerToMove();
+            session.play(cellIndex);
+            output.println("MOVE " + id + " " + cellIndex + " " + player);
+            playAITurnIfNeeded(id, session);
+            output.println("STATE " + id + " " + session.getState());
+        }
+
+        /**
+         * Runs the AI's move on the compute pool if it is the AI's turn, waiting for
+         * the result, then logs the game if it is over. The move's deadline starts
+         * when a compute thread picks it up, not while it waits in the queue.
+         *
+         * @param id The session id.
+         * @param session The session.
+         * @throws UncheckedIOException If the client disconnected while the AI was thinking.
+         */
+        private void playAITurnIfNeeded(int id, GameSession session) {
+            if(session.isAITurn()) {
+                int player = session.getPlayerToMove();
+                long maxMoveNanos = TimeUnit.MILLISECONDS.toNanos(maxMoveMillis);
+                Future<Integer> aiMove = computePool.submit(() -> session.playAITurn(System.nanoTime() + maxMoveNanos));
+                try {
+                    output.println("MOVE " + id + " " + waitForAIMove(aiMove) + " " + player);
+                } catch(InterruptedException e) {
+                    aiMove.cancel(true);
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while the AI was thinking");
+                } catch(ExecutionException e) {
+                    throw new IllegalStateException("AI failed: " + e.getCause());
+                }
+            }
+            if(session.isOver() && recordWriter != null) {
+                try {
+                    session.record(recordWriter);
+                } catch(IOException e) {
+                    System.err.println("Failed to record a game: " + e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Waits for an AI move, cancelling it if the client disconnects first
+         * so that the compute thread is freed for other connections.
+         *
+         * @param aiMove The AI move running on the compute pool.
+         * @return The cell the AI played.
+         * @throws InterruptedException If the connection thread was interrupted.
+         * @throws ExecutionException If the AI failed.
+         * @throws UncheckedIOException If the client disconnected.
+         */
+        private int waitForAIMove(Future<Integer> aiMove) throws InterruptedException, ExecutionException {
+            while(true) {
+                try {
+                    return aiMove.get(DISCONNECT_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                } catch(TimeoutException e) {
+                    if(isClientClosed()) {
+                        aiMove.cancel(true);
+                        throw new UncheckedIOException(new EOFException("Client disconnected while the AI was thinking"));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Checks if the client has closed the connection without reading any of its commands.
+         * Waits up to a millisecond for the end of the stream if nothing is buffered.
+         *
+         * @return True if the client has closed the connection or it has failed.
+         */
+        private boolean isClientClosed() {
+            try {
+                if(input.ready()) return false; // More commands are waiting
+                input.mark(1);
+                socket.setSoTimeout(1);
+                try {
+                    if(input.read() == -1) return true;
+                    input.reset();
+                    return false;
+                } catch(SocketTimeoutException e) {
+                    return false; // Still connected with nothing to read
+                } finally {
+                    socket.setSoTimeout(0);
+                }
+            } catch(IOException e) {
+                return true;
+            }
+        }
+
+        /**
+         * Looks up the session named by the second word of a command.
+         *
+         * @param parts The command split into words.
+         * @param expectedLength Number of words the command needs.
+         * @return The session.
+         * @throws IllegalArgumentException If there are too few words or no session has the id.
+         */
+        private GameSession getSession(String[] parts, int expectedLength) {
+            if(parts.length < expectedLength) {
+                throw new IllegalArgumentException("Missing arguments for " + parts[0]);
+            }
+            GameSession session = sessions.get(Integer.parseInt(parts[1]));
+            if(session == null) {
+                throw new IllegalArgumentException("No session " + parts[1]);
+            }
+            return session;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.IOException;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * GameSession class:
+ * The state of one game without any UI: the grid, whose turn it is, the moves
+ * played so far, and an optional AI playing one side. Used by GameServer to host
+ * many games at once. A session must only be used by one thread at a time.
+ */
+public class GameSession {
+    /**
+     * The states the game can be in. Matches the states shown by GamePanel.
+     */
+    public enum State {XTurn,OTurn,Draw,XWins,OWins}
+
+    /**
+     * The grid holding the game state.
+     */
+    private final GameGrid gameGrid;
+    /**
+     * AI playing one side, or null if both sides are played by the client.
+     */
+    private final TicTacToeAI ai;
+    /**
+     * Name the AI was created from, or "human" if there is no AI.
+     */
+    private final String aiName;
+    /**
+     * The player the AI plays (1 for X, 2 for O), or 0 if there is no AI.
+     */
+    private final int aiPlayer;
+    /**
+     * Cells played so far in the order they were played.
+     */
+    private final int[] moves;
+    /**
+     * Number of moves in moves.
+     */
+    private int moveCount;
+    /**
+     * The current game state.
+     */
+    private State state = State.XTurn;
+
+    /**
+     * Creates a session with an empty grid.
+     *
+     * @param gridSize Number of cells horizontally and vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     * @param aiName Name of an AI from AIFactory.AI_NAMES (optionally with :timeBudgetMillis), or "human" for no AI.
+     * @param aiPlaysX If true the AI plays X and moves first, otherwise it plays O.
+     * @throws IllegalArgumentException If the size is invalid or the AI name is not known.
+     */
+    public GameSession(int gridSize, int winLength, String aiName, boolean aiPlaysX) {
+        if(gridSize < 1 || winLength < 1 || winLength > gridSize) {
+            throw new IllegalArgumentException("Invalid grid size or win length");
+        }
+        gameGrid = new GameGrid(new Position(0,0), gridSize, gridSize, gridSize, gridSize, winLength);
+        moves = new int[gridSize * gridSize];
+        this.aiName = aiName;
+        if(aiName.equals("human")) {
+            ai = null;
+            aiPlayer = 0;
+        } else {
+            ai = AIFactory.create(aiName, gameGrid, aiPlaysX);
+            aiPlayer = aiPlaysX ? 1 : 2;
+        }
+    }
+
+    /**
+     * Plays a move for the player whose turn it is.
+     *
+     * @param cellIndex The cell index (x+y*gridSize) to play.
+     * @throws IllegalStateException If the game is over or it is the AI's turn.
+     * @throws IllegalArgumentException If the cell is outside the grid or already filled.
+     */
+    public void play(int cellIndex) {
+        if(isAITurn()) {
+            throw new IllegalStateException("It is the AI's turn");
+        }
+        playMove(cellIndex);
+    }
+
+    /**
+     * Lets the AI choose and play its move. This can take a long time
+     * depending on the AI, so GameServer runs it on its compute pool.
+     * AIs that implement TimeBudgetedAI stop at the deadline. Other AIs
+     * (including ones wrapped in an InstrumentedAI) rely on the time limit
+     * they were created with.
+     *
+     * @param deadline Time to stop searching, as a System.nanoTime() value.
+     * @return The cell index the AI played.
+     * @throws IllegalStateException If it is not the AI's turn.
+     */
+    public int playAITurn(long deadline) {
+        if(!isAITurn()) {
+            throw new IllegalStateException("It is not the AI's turn");
+        }
+        int move = ai instanceof TimeBudgetedAI ? ((TimeBudgetedAI) ai).chooseMove(gameGrid, deadline).getMove()
+                 : ai.chooseMove(gameGrid);
+        playMove(move);
+        return move;
+    }
+
+    /**
+     * Checks if the AI should move next.
+     *
+     * @return True if the game is not over and it is the AI's turn.
+     */
+    public boolean isAITurn() {
+        return getPlayerToMove() == aiPlayer && aiPlayer != 0;
+    }
+
+    /**
+     * Gets the player whose turn it is.
+     *
+     * @return 1 for X, 2 for O, or 0 if the game is over.
+     */
+    public int getPlayerToMove() {
+        if(state == State.XTurn) return 1;
+        if(state == State.OTurn) return 2;
+        return 0;
+    }
+
+    /**
+     * Gets the current game state.
+     *
+     * @return The state.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Checks if the game has finished.
+     *
+     * @return True if a player has won or the game is a draw.
+     */
+    public boolean isOver() {
+        return state != State.XTurn && state != State.OTurn;
+    }
+
+    /**
+     * Gets the board as one character per cell, row by row: X, O, or . for empty.
+     *
+     * @return The board string.
+     */
+    public String getBoardString() {
+        Bitboard bitboard = gameGrid.getBitboard();
+        StringBuilder board = new StringBuilder(bitboard.getCellCount());
+        for(int i = 0; i < bitboard.getCellCount(); i++) {
+            int cellState = bitboard.getState(i);
+            board.append(cellState == 1 ? 'X' : cellState == 2 ? 'O' : '.');
+        }
+        return board.toString();
+    }
+
+    /**
+     * Writes the finished game to a game record file.
+     *
+     * @param recordWriter The writer to log the game to.
+     * @throws IOException If the game could not be written.
+     * @throws IllegalStateException If the game is not over.
+     */
+    public void record(GameRecordWriter recordWriter) throws IOException {
+        if(!isOver()) {
+            throw new IllegalStateException("The game is not over");
+        }
+        int result = state == State.XWins ? GameRecord.RESULT_X_WINS
+                   : state == State.OWins ? GameRecord.RESULT_O_WINS : GameRecord.RESULT_DRAW;
+        int gridSize = gameGrid.getGrid().length;
+        recordWriter.write(gridSize, gridSize, gameGrid.getWinLength(), aiPlayer == 1 ? aiName : "human",
+                aiPlayer == 2 ? aiName : "human", moves, moveCount, result);
+    }
+
+    /**
+     * Places the piece for the player to move and updates the state.
+     *
+     * @param cellIndex The cell index (x+y*gridSize) to play.
+     */
+    private void playMove(int cellIndex) {
+        int player = getPlayerToMove();
+        if(player == 0) {
+            throw new IllegalStateException("The game is over");
+        }
+        GridCell[][] grid = gameGrid.getGrid();
+        if(cellIndex < 0 || cellIndex >= moves.length) {
+            throw new IllegalArgumentException("Cell " + cellIndex + " is outside the grid");
+        }
+        GridCell cell = grid[cellIndex % grid.length][cellIndex / grid.length];
+        if(cell.getCellState() != 0) {
+            throw new IllegalArgumentException("Cell " + cellIndex + " is already filled");
+        }
+        cell.setCellState(player);
+        moves[moveCount++] = cellIndex;
+
+        if(gameGrid.checkForWin(player)) {
+            state = player == 1 ? State.XWins : State.OWins;
+        } else if(gameGrid.isFull()) {
+            state = State.Draw;
+        } else {
+            state = player == 1 ? State.OTurn : State.XTurn;
+        }
+    }
+}
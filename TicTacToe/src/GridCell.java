@@ -1,4 +1,5 @@
 import java.awt.*;
+import java.awt.image.BufferedImage;
 
 /**
  * Tic Tac Toe
@@ -7,12 +8,39 @@ import java.awt.*;
  * GridCell class:
  * Manages a single grid cell stored as 0, 1 or 2.
  * 0 means the cell is unfilled, 1 is an X, and 2 is an O.
+ * The X and O are drawn once into images (sprites) that are shared by every
+ * cell of the same size, so painting a cell only needs to copy an image.
  */
 public class GridCell extends Rectangle {
+    /**
+     * Width of the cells the cached sprites were drawn for.
+     */
+    private static int spriteWidth = -1;
+    /**
+     * Height of the cells the cached sprites were drawn for.
+     */
+    private static int spriteHeight = -1;
+    /**
+     * Cached image of an X, or null if one has not been drawn for the current size.
+     */
+    private static Image xSprite;
+    /**
+     * Cached image of an O, or null if one has not been drawn for the current size.
+     */
+    private static Image oSprite;
+
     /**
      * The state of the grid cell. 0=empty, 1=X, 2=O.
      */
     private int cellState;
+    /**
+     * Bitboard that mirrors the state of this cell, or null if the cell is standalone.
+     */
+    private final Bitboard bitboard;
+    /**
+     * Index of this cell in the bitboard.
+     */
+    private final int cellIndex;
 
     /**
      * Initialises the GridCell and defaults to empty.
@@ -22,7 +50,23 @@ public class GridCell extends Rectangle {
      * @param height Height of the cell.
      */
     public GridCell(Position position, int width, int height) {
+        this(position, width, height, null, -1);
+    }
+
+    /**
+     * Initialises the GridCell and defaults to empty. Any changes
+     * to the cell state will be mirrored into the bitboard.
+     *
+     * @param position Position to draw at.
+     * @param width Width of the cell.
+     * @param height Height of the cell.
+     * @param bitboard Bitboard to keep up to date with this cell's state.
+     * @param cellIndex Index of this cell in the bitboard.
+     */
+    public GridCell(Position position, int width, int height, Bitboard bitboard, int cellIndex) {
         super(position, width, height);
+        this.bitboard = bitboard;
+        this.cellIndex = cellIndex;
         reset();
     }
 
@@ -30,7 +74,7 @@ public class GridCell extends Rectangle {
      * Resets to the default of empty.
      */
     public void reset() {
-        cellState = 0;
+        setCellState(0);
     }
 
     /**
@@ -40,6 +84,9 @@ public class GridCell extends Rectangle {
      */
     public void setCellState(int newState) {
         this.cellState = newState;
+        if(bitboard != null) {
+            bitboard.setState(cellIndex, newState);
+        }
     }
 
     /**
@@ -57,11 +104,60 @@ public class GridCell extends Rectangle {
      * @param g Reference to the Graphics object for rendering.
      */
     public void paint(Graphics g) {
-        if(cellState == 1) {
-            drawX(g);
-        } else if(cellState == 2) {
-            drawO(g);
+        if(cellState == 1 || cellState == 2) {
+            g.drawImage(getSprite(g, cellState), position.x, position.y, null);
+        }
+    }
+
+    /**
+     * Gets the image for an X or O at the size of this cell. The images are drawn
+     * the first time they are needed and again only when the cell size changes.
+     * Painting is only done on the Swing event thread, so the cache is not locked.
+     *
+     * @param g Graphics the sprite will be drawn to, used to create a compatible image.
+     * @param state 1 for X, 2 for O.
+     * @return The image to draw.
+     */
+    private Image getSprite(Graphics g, int state) {
+        if(width != spriteWidth || height != spriteHeight) {
+            xSprite = null;
+            oSprite = null;
+            spriteWidth = width;
+            spriteHeight = height;
+        }
+        if(state == 1) {
+            if(xSprite == null) xSprite = createSprite(g, true);
+            return xSprite;
         }
+        if(oSprite == null) oSprite = createSprite(g, false);
+        return oSprite;
+    }
+
+    /**
+     * Draws an X or O into a new transparent image the size of this cell.
+     * The image matches the format of the screen when there is one so that
+     * copying it does not need to convert pixels.
+     *
+     * @param g Graphics the sprite will be drawn to.
+     * @param isX True to draw an X, false to draw an O.
+     * @return The new image.
+     */
+    private Image createSprite(Graphics g, boolean isX) {
+        Image sprite;
+        if(g instanceof Graphics2D && ((Graphics2D) g).getDeviceConfiguration() != null) {
+            sprite = ((Graphics2D) g).getDeviceConfiguration()
+                    .createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+        } else {
+            sprite = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+        Graphics spriteGraphics = sprite.getGraphics();
+        if(isX) {
+            drawX(spriteGraphics);
+        } else {
+            drawO(spriteGraphics);
+        }
+        spriteGraphics.dispose();
+        return sprite;
     }
 
     /**
@@ -69,12 +165,12 @@ public class GridCell extends Rectangle {
      * The coordinates are then offset based on the 8x8 internal grid
      * to draw an X using a polygon.
      *
-     * @param g Reference to the Graphics object for rendering.
+     * @param g Reference to the Graphics object for rendering, with the cell's top left at 0,0.
      */
     private void drawX(Graphics g) {
         g.setColor(Color.BLACK);
-        int x = position.x;
-        int y = position.y;
+        int x = 0;
+        int y = 0;
         int sValX = width / 8;
         int sValY = height / 8;
         int[] xXCoordinates = {x+sValX,x+2*sValX,x+4*sValX,x+6*sValX,x+7*sValX,
@@ -88,14 +184,14 @@ public class GridCell extends Rectangle {
      * Draws the O by drawing a large oval as red, and then
      * drawing a smaller oval in the middle of it matching the background colour.
      *
-     * @param g Reference to the Graphics object for rendering.
+     * @param g Reference to the Graphics object for rendering, with the cell's top left at 0,0.
      */
     private void drawO(Graphics g) {
         g.setColor(Color.RED);
         int visibleDiameter = 15;
-        g.fillOval(position.x+5, position.y+5, width-10,height-10);
+        g.fillOval(5, 5, width-10,height-10);
         g.setColor(Color.LIGHT_GRAY);
-        g.fillOval(position.x+5+visibleDiameter, position.y+5+visibleDiameter,
+        g.fillOval(5+visibleDiameter, 5+visibleDiameter,
                 width-10-visibleDiameter*2,height-10-visibleDiameter*2);
     }
 }
@@ -0,0 +1,108 @@
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * HitTestIndex class:
+ * Finds which cell of a grid is under a screen coordinate with two array lookups.
+ * The column and row covering every pixel are worked out once from the cell
+ * boundaries, so cells do not need to be the same size and coordinates
+ * outside the grid (including negative ones) are rejected rather than
+ * being rounded into the first row or column.
+ */
+public class HitTestIndex {
+    /**
+     * Screen x coordinate of the left edge of the grid.
+     */
+    private final int left;
+    /**
+     * Screen y coordinate of the top edge of the grid.
+     */
+    private final int top;
+    /**
+     * Number of columns, used to turn a column and row into a cell index.
+     */
+    private final int columnCount;
+    /**
+     * Column at each pixel from left, or -1 where there is no cell.
+     */
+    private final int[] columnAtPixel;
+    /**
+     * Row at each pixel from top, or -1 where there is no cell.
+     */
+    private final int[] rowAtPixel;
+
+    /**
+     * Builds the index from the boundaries of the columns and rows.
+     * Column c covers x coordinates from columnEdges[c] up to (but not including)
+     * columnEdges[c+1], and rows work the same way with rowEdges.
+     *
+     * @param columnEdges Left edge of every column followed by the right edge of the last.
+     * @param rowEdges Top edge of every row followed by the bottom edge of the last.
+     */
+    public HitTestIndex(int[] columnEdges, int[] rowEdges) {
+        left = columnEdges[0];
+        top = rowEdges[0];
+        columnCount = columnEdges.length - 1;
+        columnAtPixel = createLookup(columnEdges);
+        rowAtPixel = createLookup(rowEdges);
+    }
+
+    /**
+     * Finds the cell under a screen coordinate.
+     *
+     * @param x Screen x coordinate.
+     * @param y Screen y coordinate.
+     * @return The cell index (column+row*columnCount), or -1 if the coordinate is not over a cell.
+     */
+    public int getCellIndexAt(int x, int y) {
+        int column = getColumnAt(x);
+        int row = getRowAt(y);
+        if(column == -1 || row == -1) return -1;
+        return column + row * columnCount;
+    }
+
+    /**
+     * Finds the column under a screen x coordinate.
+     *
+     * @param x Screen x coordinate.
+     * @return The column, or -1 if the coordinate is outside the grid.
+     */
+    public int getColumnAt(int x) {
+        int offset = x - left;
+        if(offset < 0 || offset >= columnAtPixel.length) return -1;
+        return columnAtPixel[offset];
+    }
+
+    /**
+     * Finds the row under a screen y coordinate.
+     *
+     * @param y Screen y coordinate.
+     * @return The row, or -1 if the coordinate is outside the grid.
+     */
+    public int getRowAt(int y) {
+        int offset = y - top;
+        if(offset < 0 || offset >= rowAtPixel.length) return -1;
+        return rowAtPixel[offset];
+    }
+
+    /**
+     * Creates a table with the column (or row) covering each pixel.
+     *
+     * @param edges Boundaries of the columns (or rows) in increasing order.
+     * @return The table indexed by the distance from the first edge.
+     */
+    private static int[] createLookup(int[] edges) {
+        int[] lookup = new int[edges[edges.length - 1] - edges[0]];
+        int pixel = 0;
+        for(int i = 0; i < edges.length - 1; i++) {
+            // Any gap between cells (edges out of step) is left as no cell
+            for(; pixel < edges[i] - edges[0]; pixel++) {
+                lookup[pixel] = -1;
+            }
+            for(; pixel < edges[i + 1] - edges[0]; pixel++) {
+                lookup[pixel] = i;
+            }
+        }
+        return lookup;
+    }
+}
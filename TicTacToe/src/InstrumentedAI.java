@@ -0,0 +1,321 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * InstrumentedAI class:
+ * Wraps any AI behaviour and measures every turn it takes: wall time, bytes
+ * allocated, and (for AIs that implement SearchStatistics) nodes searched, depth
+ * reached and cache hits. Each turn is committed as an AITurnEvent for
+ * JDK Flight Recorder and added to the metrics for the AI's name, which are
+ * shared by every instance with the same name so that batches of games on
+ * many threads add up. Use dumpMetrics() to print them at any time.
+ *
+ * Allocation is measured on the thread that calls the AI, so work done on
+ * other threads by the parallel AIs is not included.
+ *
+ * AIFactory wraps every AI it creates in this when the ai.metrics
+ * system property is true, for example -Dai.metrics=true
+ */
+public class InstrumentedAI implements TicTacToeAI, SearchStatistics {
+    /**
+     * System property that turns on instrumentation of the AIs created by AIFactory.
+     */
+    public static final String METRICS_PROPERTY = "ai.metrics";
+    /**
+     * Metrics for each AI name.
+     */
+    private static final Map<String, TurnMetrics> METRICS = new ConcurrentHashMap<>();
+    /**
+     * Used to measure allocated bytes per thread, or null if the JVM does not support it.
+     */
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN = createThreadBean();
+
+    /**
+     * The AI being measured.
+     */
+    private final TicTacToeAI ai;
+    /**
+     * The AI as SearchStatistics, or null if it does not report them.
+     */
+    private final SearchStatistics statistics;
+    /**
+     * Name used for the events and metrics.
+     */
+    private final String name;
+    /**
+     * Metrics shared by every InstrumentedAI with the same name.
+     */
+    private final TurnMetrics metrics;
+
+    /**
+     * Wraps an AI.
+     *
+     * @param ai The AI to measure.
+     * @param name Name to report the AI under, such as the name it was created from in AIFactory.
+     */
+    public InstrumentedAI(TicTacToeAI ai, String name) {
+        this.ai = ai;
+        this.name = name;
+        statistics = ai instanceof SearchStatistics ? (SearchStatistics) ai : null;
+        metrics = METRICS.computeIfAbsent(name, key -> new TurnMetrics());
+    }
+
+    /**
+     * Takes the turn with the wrapped AI and records it.
+     */
+    @Override
+    public void takeTurn() {
+        AITurnEvent event = new AITurnEvent();
+        long probes = getCacheProbes();
+        long hits = getCacheHits();
+        long allocated = getAllocatedBytes();
+        long startTime = System.nanoTime();
+        event.begin();
+        ai.takeTurn();
+        finishTurn(event, -1, System.nanoTime() - startTime, getAllocatedBytes() - allocated,
+                getCacheProbes() - probes, getCacheHits() - hits);
+    }
+
+    /**
+     * Chooses a move with the wrapped AI and records it.
+     *
+     * @param gameGrid The game state to choose a move for.
+     * @return The cell index (x+y*gridWidth) of the chosen move.
+     */
+    @Override
+    public int chooseMove(GameGrid gameGrid) {
+        AITurnEvent event = new AITurnEvent();
+        long probes = getCacheProbes();
+        long hits = getCacheHits();
+        long allocated = getAllocatedBytes();
+        long startTime = System.nanoTime();
+        event.begin();
+        int move = ai.chooseMove(gameGrid);
+        finishTurn(event, move, System.nanoTime() - startTime, getAllocatedBytes() - allocated,
+                getCacheProbes() - probes, getCacheHits() - hits);
+        return move;
+    }
+
+    /**
+     * Gets the result of the wrapped AI's last search.
+     *
+     * @return The result, or null if the AI does not report one.
+     */
+    @Override
+    public SearchResult getLastResult() {
+        return statistics == null ? null : statistics.getLastResult();
+    }
+
+    /**
+     * Gets the wrapped AI's total cache probes.
+     *
+     * @return Total cache probes, or 0 if the AI does not report them.
+     */
+    @Override
+    public long getCacheProbes() {
+        return statistics == null ? 0 : statistics.getCacheProbes();
+    }
+
+    /**
+     * Gets the wrapped AI's total cache hits.
+     *
+     * @return Total cache hits, or 0 if the AI does not report them.
+     */
+    @Override
+    public long getCacheHits() {
+        return statistics == null ? 0 : statistics.getCacheHits();
+    }
+
+    /**
+     * Gets the AI being measured.
+     *
+     * @return The wrapped AI.
+     */
+    public TicTacToeAI getAI() {
+        return ai;
+    }
+
+    /**
+     * Checks if AIFactory should instrument the AIs it creates.
+     *
+     * @return True if the ai.metrics system property is true.
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(METRICS_PROPERTY);
+    }
+
+    /**
+     * Gets a summary of the metrics for every AI name that has taken a turn, in name order.
+     *
+     * @return One line per AI name.
+     */
+    public static List<String> getMetricsSummary() {
+        List<String> lines = new ArrayList<>();
+        for(Map.Entry<String, TurnMetrics> entry : new TreeMap<>(METRICS).entrySet()) {
+            if(entry.getValue().latency.getCount() > 0) {
+                lines.add(entry.getKey() + ": " + entry.getValue());
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Prints the metrics for every AI name that has taken a turn, in name order.
+     *
+     * @param output Where to print the metrics.
+     */
+    public static void dumpMetrics(PrintStream output) {
+        for(String line : getMetricsSummary()) {
+            output.println(line);
+        }
+    }
+
+    /**
+     * Clears the metrics for every AI name.
+     */
+    public static void resetMetrics() {
+        for(TurnMetrics turnMetrics : METRICS.values()) {
+            turnMetrics.reset();
+        }
+    }
+
+    /**
+     * Adds a finished turn to the metrics and commits its event.
+     *
+     * @param event The event that was started before the turn.
+     * @param move The chosen move, or -1 if unknown.
+     * @param nanos Wall time of the turn.
+     * @param allocatedBytes Bytes allocated by this thread during the turn, or 0 if unknown.
+     * @param cacheProbes Cache probes during the turn.
+     * @param cacheHits Cache hits during the turn.
+     */
+    private void finishTurn(AITurnEvent event, int move, long nanos, long allocatedBytes,
+                            long cacheProbes, long cacheHits) {
+        event.end();
+        SearchResult result = getLastResult();
+        long nodes = result == null ? 0 : result.getNodes();
+        int depth = result == null ? 0 : result.getDepth();
+        metrics.record(nanos, nodes, depth, cacheProbes, cacheHits, allocatedBytes);
+        if(event.shouldCommit()) {
+            event.ai = name;
+            event.move = move;
+            event.nodes = nodes;
+            event.depth = depth;
+            event.cacheProbes = cacheProbes;
+            event.cacheHits = cacheHits;
+            event.allocatedBytes = allocatedBytes;
+            event.timedOut = result != null && result.isTimedOut();
+            event.commit();
+        }
+    }
+
+    /**
+     * Gets the total bytes allocated by the current thread.
+     *
+     * @return Allocated bytes, or 0 if the JVM cannot measure them.
+     */
+    private static long getAllocatedBytes() {
+        return THREAD_BEAN == null ? 0 : THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Finds the ThreadMXBean and turns on allocation measurement.
+     *
+     * @return The bean, or null if the JVM does not support measuring allocation.
+     */
+    private static com.sun.management.ThreadMXBean createThreadBean() {
+        if(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if(bean.isThreadAllocatedMemorySupported()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+                return bean;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Running totals for every turn taken by AIs with one name.
+     */
+    private static class TurnMetrics {
+        /**
+         * Wall time of each turn.
+         */
+        private final LatencyHistogram latency = new LatencyHistogram();
+        /**
+         * Total positions visited.
+         */
+        private final LongAdder nodes = new LongAdder();
+        /**
+         * Deepest search iteration completed by any turn.
+         */
+        private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+        /**
+         * Total cache probes.
+         */
+        private final LongAdder cacheProbes = new LongAdder();
+        /**
+         * Total cache hits.
+         */
+        private final LongAdder cacheHits = new LongAdder();
+        /**
+         * Total bytes allocated by the calling threads.
+         */
+        private final LongAdder allocatedBytes = new LongAdder();
+
+        /**
+         * Adds a turn.
+         *
+         * @param nanos Wall time of the turn.
+         * @param turnNodes Positions visited.
+         * @param depth Depth reached.
+         * @param turnProbes Cache probes.
+         * @param turnHits Cache hits.
+         * @param turnAllocated Bytes allocated.
+         */
+        private void record(long nanos, long turnNodes, int depth, long turnProbes, long turnHits, long turnAllocated) {
+            latency.record(nanos);
+            nodes.add(turnNodes);
+            maxDepth.accumulate(depth);
+            cacheProbes.add(turnProbes);
+            cacheHits.add(turnHits);
+            allocatedBytes.add(turnAllocated);
+        }
+
+        /**
+         * Clears every total.
+         */
+        private void reset() {
+            latency.reset();
+            nodes.reset();
+            maxDepth.reset();
+            cacheProbes.reset();
+            cacheHits.reset();
+            allocatedBytes.reset();
+        }
+
+        /**
+         * Gets a summary of the turns.
+         *
+         * @return The latency followed by per turn averages and the cache hit rate.
+         */
+        @Override
+        public String toString() {
+            long turns = Math.max(1, latency.getCount());
+            long probes = cacheProbes.sum();
+            return String.format("%s, %.0f nodes/turn, max depth %d, cache hit rate %.1f%%, %.0f bytes/turn",
+                    latency, (double) nodes.sum() / turns, maxDepth.get(),
+                    probes == 0 ? 0 : 100.0 * cacheHits.sum() / probes, (double) allocatedBytes.sum() / turns);
+        }
+    }
+}
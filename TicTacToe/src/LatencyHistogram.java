@@ -0,0 +1,153 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * LatencyHistogram class:
+ * Counts durations in log-linear buckets so that percentiles can be read
+ * at any time without keeping every sample. Each power of two is split into
+ * SUB_BUCKETS equal buckets, so a percentile is at most 1/SUB_BUCKETS (about 6%)
+ * above the real value, from nanoseconds up to centuries. The maximum is exact.
+ * Recording is lock-free and does not allocate, so many threads can share one histogram.
+ */
+public class LatencyHistogram {
+    /**
+     * log2 of the number of buckets each power of two is split into.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+    /**
+     * Number of buckets each power of two is split into.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Number of samples in each bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+    /**
+     * Number of samples recorded.
+     */
+    private final LongAdder count = new LongAdder();
+    /**
+     * Sum of every sample, used for the mean.
+     */
+    private final LongAdder total = new LongAdder();
+    /**
+     * Largest sample recorded.
+     */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Adds a sample.
+     *
+     * @param nanos The duration in nanoseconds. Negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(getBucket(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Gets the number of samples recorded.
+     *
+     * @return The sample count.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the largest sample recorded.
+     *
+     * @return The maximum in nanoseconds, or 0 if there are no samples.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the mean of the samples recorded.
+     *
+     * @return The mean in nanoseconds, or 0 if there are no samples.
+     */
+    public double getMean() {
+        long samples = count.sum();
+        return samples == 0 ? 0 : (double) total.sum() / samples;
+    }
+
+    /**
+     * Gets the value that the given fraction of samples are at or below.
+     *
+     * @param percentile The percentile from 0 to 100, for example 99 for p99.
+     * @return The upper edge of the bucket holding the percentile in nanoseconds
+     *         (never more than the maximum), or 0 if there are no samples.
+     */
+    public long getPercentile(double percentile) {
+        long samples = count.sum();
+        if(samples == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(samples * percentile / 100));
+        long seen = 0;
+        for(int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if(seen >= rank) {
+                return Math.min(getBucketLimit(i), getMax());
+            }
+        }
+        return getMax(); // Samples were added while counting
+    }
+
+    /**
+     * Removes every sample.
+     */
+    public void reset() {
+        for(int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    /**
+     * Gets a summary of the samples in milliseconds.
+     *
+     * @return A string with the count, mean, p50, p99 and max.
+     */
+    @Override
+    public String toString() {
+        return String.format("count %d mean %.3f ms p50 %.3f ms p99 %.3f ms max %.3f ms", getCount(),
+                getMean() / 1e6, getPercentile(50) / 1e6, getPercentile(99) / 1e6, getMax() / 1e6);
+    }
+
+    /**
+     * Finds the bucket for a value. Values below SUB_BUCKETS get a bucket each,
+     * larger values use their highest bit and the SUB_BUCKET_BITS bits after it.
+     *
+     * @param value A non-negative value.
+     * @return The bucket index.
+     */
+    private static int getBucket(long value) {
+        if(value < SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Gets the largest value that falls in a bucket.
+     *
+     * @param bucket The bucket index.
+     * @return The inclusive upper edge of the bucket.
+     */
+    private static long getBucketLimit(int bucket) {
+        if(bucket < SUB_BUCKETS) return bucket;
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        long lowest = (long) ((bucket & (SUB_BUCKETS - 1)) + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,271 @@
+import java.util.Arrays;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * LineEvaluator class:
+ * Keeps the number of X and O pieces on every winning line, updated as moves
+ * are made and undone, so a search can read the state of the lines without
+ * scanning the board. Each move only touches the lines through its cell
+ * (at most 4*winLength of them), and everything below is kept up to date as it goes:
+ *
+ *  - a heuristic score: every line that only one player has pieces on is
+ *    worth LINE_WEIGHTS[count] to that player, so open lines that are nearly
+ *    complete count for much more than lines with one piece,
+ *  - the number of complete lines for each player, giving win detection,
+ *  - the threats for each player (lines with winLength-1 of their pieces and one
+ *    empty cell). The count, sum and sum of squares of the empty cells of the
+ *    threat lines show whether they all share one cell (sumOfSquares*count == sum^2)
+ *    and which cell it is (sum/count) without looking at the lines.
+ *
+ * Cells are indexed x+y*width and players are 1 for X and 2 for O, as in SearchBoard.
+ */
+public class LineEvaluator {
+    /**
+     * Returned by getThreat() when a player threatens to win on more than one cell.
+     */
+    public static final int MULTIPLE_THREATS = -2;
+    /**
+     * Score for a line holding only one player's pieces, indexed by how many they have.
+     * Each extra piece is worth 4 times as much, up to a limit so large boards cannot overflow.
+     */
+    private static final int[] LINE_WEIGHTS = {0, 1, 4, 16, 64, 256, 1024, 4096};
+    /**
+     * Direction offsets (dx, dy) for the four lines that pass through a cell:
+     * horizontal, vertical, and the two diagonals.
+     */
+    private static final int[][] LINE_DIRECTIONS = {{1,0},{0,1},{1,1},{1,-1}};
+
+    /**
+     * Number of matching cells in a row needed to win.
+     */
+    private final int winLength;
+    /**
+     * Ids of the lines through each cell. The lines through cell i are
+     * cellLines[cellLineStarts[i]] to cellLines[cellLineStarts[i+1]-1].
+     */
+    private final int[] cellLines;
+    /**
+     * Start of each cell's lines in cellLines, with one extra entry for the end.
+     */
+    private final int[] cellLineStarts;
+    /**
+     * Sum of the cell indexes on each line.
+     */
+    private final int[] lineCellSums;
+    /**
+     * Number of X pieces on each line.
+     */
+    private final int[] xCounts;
+    /**
+     * Number of O pieces on each line.
+     */
+    private final int[] oCounts;
+    /**
+     * Sum of the cell indexes of the pieces on each line, so the empty cell of a
+     * threat is lineCellSums minus this.
+     */
+    private final int[] filledSums;
+    /**
+     * Score from X's perspective.
+     */
+    private int score;
+    /**
+     * Number of complete lines for X (index 0) and O (index 1).
+     */
+    private final int[] wonLines = new int[2];
+    /**
+     * Number of threat lines for X (index 0) and O (index 1).
+     */
+    private final int[] threatLines = new int[2];
+    /**
+     * Sum of the empty cells of each player's threat lines.
+     */
+    private final long[] threatCellSums = new long[2];
+    /**
+     * Sum of the squares of the empty cells of each player's threat lines.
+     */
+    private final long[] threatCellSquareSums = new long[2];
+
+    /**
+     * Creates the counters for an empty board.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     */
+    public LineEvaluator(int width, int height, int winLength) {
+        this.winLength = winLength;
+        int cellCount = width * height;
+        int[][] lines = new int[4 * cellCount][];
+        int lineCount = 0;
+        int[] linesPerCell = new int[cellCount];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                for(int[] direction : LINE_DIRECTIONS) {
+                    int endX = x + direction[0] * (winLength - 1);
+                    int endY = y + direction[1] * (winLength - 1);
+                    if(endX < 0 || endX >= width || endY < 0 || endY >= height) continue;
+                    int[] line = new int[winLength];
+                    for(int i = 0; i < winLength; i++) {
+                        line[i] = (x + direction[0] * i) + (y + direction[1] * i) * width;
+                        linesPerCell[line[i]]++;
+                    }
+                    lines[lineCount++] = line;
+                }
+            }
+        }
+
+        cellLineStarts = new int[cellCount + 1];
+        for(int i = 0; i < cellCount; i++) {
+            cellLineStarts[i + 1] = cellLineStarts[i] + linesPerCell[i];
+        }
+        cellLines = new int[cellLineStarts[cellCount]];
+        lineCellSums = new int[lineCount];
+        int[] nextSlot = new int[cellCount];
+        for(int line = 0; line < lineCount; line++) {
+            for(int cell : lines[line]) {
+                cellLines[cellLineStarts[cell] + nextSlot[cell]++] = line;
+                lineCellSums[line] += cell;
+            }
+        }
+        xCounts = new int[lineCount];
+        oCounts = new int[lineCount];
+        filledSums = new int[lineCount];
+        reset();
+    }
+
+    /**
+     * Clears every counter back to an empty board.
+     */
+    public void reset() {
+        Arrays.fill(xCounts, 0);
+        Arrays.fill(oCounts, 0);
+        Arrays.fill(filledSums, 0);
+        score = 0;
+        for(int p = 0; p < 2; p++) {
+            wonLines[p] = 0;
+            threatLines[p] = 0;
+            threatCellSums[p] = 0;
+            threatCellSquareSums[p] = 0;
+        }
+        for(int line = 0; line < xCounts.length; line++) {
+            addLine(line, 1); // Empty lines are threats when winLength is 1
+        }
+    }
+
+    /**
+     * Sets the counters to match a board.
+     *
+     * @param cells The board, with 0 for empty cells, 1 for X and 2 for O.
+     */
+    public void copyFrom(int[] cells) {
+        reset();
+        for(int i = 0; i < cells.length; i++) {
+            if(cells[i] != 0) makeMove(i, cells[i]);
+        }
+    }
+
+    /**
+     * Updates the lines through a cell for a piece being placed.
+     *
+     * @param index Cell index (x+y*width). Must be empty.
+     * @param player 1 for X, 2 for O.
+     */
+    public void makeMove(int index, int player) {
+        int[] counts = player == 1 ? xCounts : oCounts;
+        for(int i = cellLineStarts[index]; i < cellLineStarts[index + 1]; i++) {
+            int line = cellLines[i];
+            addLine(line, -1);
+            counts[line]++;
+            filledSums[line] += index;
+            addLine(line, 1);
+        }
+    }
+
+    /**
+     * Updates the lines through a cell for a piece placed by makeMove() being removed.
+     *
+     * @param index Cell index (x+y*width).
+     * @param player The player whose piece is removed.
+     */
+    public void undoMove(int index, int player) {
+        int[] counts = player == 1 ? xCounts : oCounts;
+        for(int i = cellLineStarts[index]; i < cellLineStarts[index + 1]; i++) {
+            int line = cellLines[i];
+            addLine(line, -1);
+            counts[line]--;
+            filledSums[line] -= index;
+            addLine(line, 1);
+        }
+    }
+
+    /**
+     * Gets the heuristic score of the position.
+     *
+     * @param player The player to score for.
+     * @return Sum of the line weights of the player's open lines minus the opponent's.
+     */
+    public int getScore(int player) {
+        return player == 1 ? score : -score;
+    }
+
+    /**
+     * Checks if a player has completed a line.
+     *
+     * @param player 1 for X, 2 for O.
+     * @return True if the player has won.
+     */
+    public boolean hasWon(int player) {
+        return wonLines[player - 1] > 0;
+    }
+
+    /**
+     * Finds the cell a player could win on with their next move.
+     *
+     * @param player 1 for X, 2 for O.
+     * @return The cell, -1 if there is none, or MULTIPLE_THREATS if there is more than one.
+     */
+    public int getThreat(int player) {
+        int count = threatLines[player - 1];
+        if(count == 0) return -1;
+        long sum = threatCellSums[player - 1];
+        if(threatCellSquareSums[player - 1] * count != sum * sum) return MULTIPLE_THREATS;
+        return (int) (sum / count);
+    }
+
+    /**
+     * Adds or removes the contribution of a line to the score, wins and threats.
+     *
+     * @param line The line id.
+     * @param sign 1 to add the line, -1 to remove it.
+     */
+    private void addLine(int line, int sign) {
+        int x = xCounts[line];
+        int o = oCounts[line];
+        if(o == 0) {
+            score += sign * LINE_WEIGHTS[Math.min(x, LINE_WEIGHTS.length - 1)];
+            if(x == winLength) wonLines[0] += sign;
+            else if(x == winLength - 1) addThreat(0, lineCellSums[line] - filledSums[line], sign);
+        }
+        if(x == 0) {
+            score -= sign * LINE_WEIGHTS[Math.min(o, LINE_WEIGHTS.length - 1)];
+            if(o == winLength) wonLines[1] += sign;
+            else if(o == winLength - 1) addThreat(1, lineCellSums[line] - filledSums[line], sign);
+        }
+    }
+
+    /**
+     * Adds or removes a threat line.
+     *
+     * @param playerIndex 0 for X, 1 for O.
+     * @param cell The empty cell of the line.
+     * @param sign 1 to add the threat, -1 to remove it.
+     */
+    private void addThreat(int playerIndex, int cell, int sign) {
+        threatLines[playerIndex] += sign;
+        threatCellSums[playerIndex] += sign * (long) cell;
+        threatCellSquareSums[playerIndex] += sign * (long) cell * cell;
+    }
+}
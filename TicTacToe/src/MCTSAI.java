@@ -0,0 +1,626 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * MCTSAI class:
+ * An AI Behaviour using Monte Carlo Tree Search, suited to grids far too
+ * large for minimax. Each iteration walks down the tree choosing children with
+ * UCT (upper confidence bound applied to trees), adds one new child, plays the
+ * rest of the game out with random moves on a SearchBoard, and then updates
+ * the win counts on the way back up. The most visited move is played.
+ *
+ * On grids larger than 5x5 only cells near existing pieces are added to the tree,
+ * which keeps the tree focused on the part of the board where the game is happening.
+ *
+ * The tree is kept between turns. When the next turn starts, the part of the
+ * tree for the moves that were actually played becomes the new root.
+ *
+ * Several threads can search at once using root parallelism: each thread grows
+ * its own tree and the visit counts of the root moves are added together.
+ */
+public class MCTSAI implements TimeBudgetedAI, SearchStatistics {
+    /**
+     * Exploration constant for UCT. Larger values try less visited moves more often.
+     */
+    private static final double EXPLORATION = 1.4;
+    /**
+     * Grids with more cells than this only consider moves near existing pieces.
+     */
+    private static final int CANDIDATE_LIMIT_CELLS = 25;
+    /**
+     * Distance from existing pieces that a move must be within to be considered on large grids.
+     */
+    private static final int CANDIDATE_RADIUS = 2;
+    /**
+     * The clock is checked each time this many more iterations have run (must be 2^n-1).
+     */
+    private static final int TIME_CHECK_MASK = 63;
+    /**
+     * Default number of iterations per turn when no time budget is given.
+     */
+    private static final int DEFAULT_ITERATIONS = 10000;
+
+    /**
+     * Reference to the GameGrid for evaluation and playing the turn.
+     */
+    private GameGrid gameGrid;
+    /**
+     * 1 for X or 2 for O representing the one that is being
+     * played by this player.
+     */
+    private int playAs;
+    /**
+     * Maximum iterations per turn (across all threads).
+     */
+    private int iterations;
+    /**
+     * Time allowed for each move by chooseMove(GameGrid) in nanoseconds, or 0 for no limit.
+     */
+    private long timeBudget;
+    /**
+     * One search tree per thread.
+     */
+    private SearchTree[] trees;
+    /**
+     * Result of the last search, or null if there has not been one.
+     */
+    private SearchResult lastResult;
+    /**
+     * Set when the thread waiting for the trees is interrupted, to stop the trees on other threads.
+     */
+    private volatile boolean searchStopped;
+
+    /**
+     * Initialises the AI ready to takeTurn()s using DEFAULT_ITERATIONS on one thread.
+     *
+     * @param gameGrid Reference to the GameGrid for evaluation and playing the turns.
+     * @param isX If true the AI will play as X, otherwise will play as O.
+     */
+    public MCTSAI(GameGrid gameGrid, boolean isX) {
+        this(gameGrid, isX, DEFAULT_ITERATIONS, 0, 1);
+    }
+
+    /**
+     * Initialises the AI ready to takeTurn()s. The search stops when either
+     * the iterations or the time budget is used up.
+     *
+     * @param gameGrid Reference to the GameGrid for evaluation and playing the turns.
+     * @param isX If true the AI will play as X, otherwise will play as O.
+     * @param iterations Maximum iterations per turn, or 0 for no limit (a time budget must be given).
+     * @param timeBudgetMillis Time allowed for each turn in milliseconds, or 0 for no limit.
+     * @param threads Number of trees to search in parallel.
+     */
+    public MCTSAI(GameGrid gameGrid, boolean isX, int iterations, long timeBudgetMillis, int threads) {
+        if(iterations <= 0 && timeBudgetMillis <= 0) {
+            throw new IllegalArgumentException("An iteration limit or time budget is required");
+        }
+        this.gameGrid = gameGrid;
+        playAs = isX ? 1 : 2;
+        this.iterations = iterations > 0 ? iterations : Integer.MAX_VALUE;
+        timeBudget = timeBudgetMillis * 1000000L;
+        trees = new SearchTree[Math.max(1, threads)];
+        for(int i = 0; i < trees.length; i++) {
+            trees[i] = new SearchTree(new SearchBoard(gameGrid), new SplittableRandom());
+        }
+    }
+
+    /**
+     * Takes the turn by playing the move from chooseMove().
+     */
+    @Override
+    public void takeTurn() {
+        int move = chooseMove(gameGrid);
+        int gridWidth = gameGrid.getGrid().length;
+        gameGrid.getGrid()[move % gridWidth][move / gridWidth].setCellState(playAs);
+    }
+
+    /**
+     * Chooses a move using the iteration limit and time budget given to the constructor.
+     *
+     * @param gameGrid The game state to choose a move for.
+     * @return The cell index (x+y*gridWidth) of the chosen move.
+     */
+    @Override
+    public int chooseMove(GameGrid gameGrid) {
+        if(timeBudget > 0) {
+            return search(gameGrid, true, System.nanoTime() + timeBudget).getMove();
+        }
+        return search(gameGrid, false, 0).getMove();
+    }
+
+    /**
+     * Chooses a move, stopping at the deadline or the iteration limit.
+     *
+     * @param gameGrid The game state to choose a move for.
+     * @param deadline Time to stop searching, as a System.nanoTime() value.
+     * @return The chosen move, with its win rate (0-1000) as the score,
+     *         the deepest tree depth, and the number of iterations as nodes.
+     */
+    @Override
+    public SearchResult chooseMove(GameGrid gameGrid, long deadline) {
+        return search(gameGrid, true, deadline);
+    }
+
+    /**
+     * Grows the trees and picks the root move with the most visits in total.
+     *
+     * @param gameGrid The game state to choose a move for.
+     * @param hasDeadline True if the search should stop at the deadline.
+     * @param deadline Time to stop searching, as a System.nanoTime() value.
+     * @return The chosen move.
+     */
+    private SearchResult search(GameGrid gameGrid, boolean hasDeadline, long deadline) {
+        int iterationsPerTree = Math.max(1, iterations / trees.length);
+        for(SearchTree tree : trees) {
+            tree.prepare(gameGrid, iterationsPerTree, hasDeadline, deadline);
+        }
+        if(trees.length == 1) {
+            trees[0].call();
+        } else {
+            List<ForkJoinTask<Void>> results = new ArrayList<>(trees.length);
+            for(SearchTree tree : trees) {
+                results.add(ForkJoinPool.commonPool().submit((Callable<Void>) tree));
+            }
+            try {
+                for(ForkJoinTask<Void> result : results) {
+                    result.get();
+                }
+            } catch(InterruptedException e) {
+                // Stop the other trees and wait for them before their roots are read
+                searchStopped = true;
+                for(ForkJoinTask<Void> result : results) {
+                    result.quietlyJoin();
+                }
+                searchStopped = false;
+                Thread.currentThread().interrupt();
+            } catch(ExecutionException e) {
+                throw new IllegalStateException("MCTS search failed", e.getCause());
+            }
+        }
+
+        // Add the visits for each root move across every tree
+        int cellCount = trees[0].board.getCellCount();
+        long[] visits = new long[cellCount];
+        double[] wins = new double[cellCount];
+        long totalIterations = 0;
+        int maxDepth = 0;
+        for(SearchTree tree : trees) {
+            for(Node child = tree.root.firstChild; child != null; child = child.nextSibling) {
+                visits[child.move] += child.visits;
+                wins[child.move] += child.wins;
+            }
+            totalIterations += tree.iterationsRun;
+            maxDepth = Math.max(maxDepth, tree.maxDepth);
+        }
+        int bestMove = -1;
+        for(int move = 0; move < cellCount; move++) {
+            if(visits[move] > 0 && (bestMove == -1 || visits[move] > visits[bestMove])) {
+                bestMove = move;
+            }
+        }
+        if(bestMove == -1) {
+            bestMove = trees[0].board.getCellCount() - 1;
+            while(gameGrid.getBitboard().getState(bestMove) != 0) bestMove--;
+        }
+        for(SearchTree tree : trees) {
+            tree.rememberMove(bestMove);
+        }
+        int score = visits[bestMove] > 0 ? (int) (1000 * wins[bestMove] / visits[bestMove]) : 0;
+        boolean timedOut = hasDeadline && System.nanoTime() - deadline >= 0;
+        lastResult = new SearchResult(bestMove, score, maxDepth, totalIterations, timedOut);
+        return lastResult;
+    }
+
+    /**
+     * Gets the result of the last search.
+     *
+     * @return The last result, or null if there has not been a search.
+     */
+    @Override
+    public SearchResult getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * MCTS keeps its statistics in the tree rather than a cache.
+     *
+     * @return Always 0.
+     */
+    @Override
+    public long getCacheProbes() {
+        return 0;
+    }
+
+    /**
+     * MCTS keeps its statistics in the tree rather than a cache.
+     *
+     * @return Always 0.
+     */
+    @Override
+    public long getCacheHits() {
+        return 0;
+    }
+
+    /**
+     * A node in the search tree, representing the position after a move.
+     */
+    private static class Node {
+        /**
+         * Node this was expanded from, or null for the root.
+         */
+        private Node parent;
+        /**
+         * First expanded child, or null if there are none.
+         */
+        private Node firstChild;
+        /**
+         * Next child of the same parent, or null if this is the last.
+         */
+        private Node nextSibling;
+        /**
+         * The cell played to reach this node, or -1 for the root.
+         */
+        private final int move;
+        /**
+         * The player (1 or 2) that played the move.
+         */
+        private final int player;
+        /**
+         * The player that won with the move (1 or 2), 3 if the move filled the
+         * board without a winner, or 0 if the game continues.
+         */
+        private final int result;
+        /**
+         * Moves that have not been added as children yet, or null until this node is first expanded.
+         */
+        private int[] untriedMoves;
+        /**
+         * Number of valid entries in untriedMoves.
+         */
+        private int untriedCount;
+        /**
+         * Number of playouts through this node.
+         */
+        private int visits;
+        /**
+         * Playout wins for player through this node. A draw counts as half a win.
+         */
+        private double wins;
+
+        /**
+         * Creates a node.
+         *
+         * @param parent Node this was expanded from, or null for the root.
+         * @param move The cell played to reach this node, or -1 for the root.
+         * @param player The player that played the move.
+         * @param result The player that won, 3 for a draw, or 0 if the game continues.
+         */
+        private Node(Node parent, int move, int player, int result) {
+            this.parent = parent;
+            this.move = move;
+            this.player = player;
+            this.result = result;
+        }
+    }
+
+    /**
+     * One tree along with the board and random numbers used to grow it.
+     * Each tree is only used by one thread at a time.
+     */
+    private class SearchTree implements Callable<Void> {
+        /**
+         * Board used for walking the tree and for playouts.
+         */
+        private final SearchBoard board;
+        /**
+         * Random numbers for this tree.
+         */
+        private final SplittableRandom random;
+        /**
+         * Cells state at the root, used to match the next turn against the existing tree.
+         */
+        private final int[] rootCells;
+        /**
+         * Moves made on the board during an iteration so they can be undone.
+         */
+        private final int[] pathMoves;
+        /**
+         * Empty cells used during a playout.
+         */
+        private final int[] emptyCells;
+        /**
+         * Scratch used to mark cells near pieces when finding candidate moves.
+         */
+        private final boolean[] isCandidate;
+        /**
+         * Scratch the candidate moves are collected in before being copied to a node.
+         */
+        private final int[] candidateMoves;
+        /**
+         * The root of the tree.
+         */
+        private Node root;
+        /**
+         * Iterations to run for this turn.
+         */
+        private int iterationLimit;
+        /**
+         * True if the search should stop at the deadline.
+         */
+        private boolean hasDeadline;
+        /**
+         * System.nanoTime() value when the search must stop.
+         */
+        private long deadline;
+        /**
+         * Iterations that ran during the last search.
+         */
+        private long iterationsRun;
+        /**
+         * Deepest node reached during the last search, measured from the root.
+         */
+        private int maxDepth;
+
+        /**
+         * Creates an empty tree.
+         *
+         * @param board Board matching the size of the game grid.
+         * @param random Random numbers for this tree.
+         */
+        private SearchTree(SearchBoard board, SplittableRandom random) {
+            this.board = board;
+            this.random = random;
+            int cellCount = board.getCellCount();
+            rootCells = new int[cellCount];
+            pathMoves = new int[cellCount];
+            emptyCells = new int[cellCount];
+            isCandidate = new boolean[cellCount];
+            candidateMoves = new int[cellCount];
+        }
+
+        /**
+         * Gets ready for a new search, reusing the part of the old tree that matches the grid.
+         *
+         * @param gameGrid The game state to search from.
+         * @param iterationLimit Iterations to run for this turn.
+         * @param hasDeadline True if the search should stop at the deadline.
+         * @param deadline System.nanoTime() value when the search must stop.
+         */
+        private void prepare(GameGrid gameGrid, int iterationLimit, boolean hasDeadline, long deadline) {
+            board.copyFrom(gameGrid);
+            this.iterationLimit = iterationLimit;
+            this.hasDeadline = hasDeadline;
+            this.deadline = deadline;
+            root = findReusableRoot();
+            if(root == null) {
+                root = new Node(null, -1, 3 - playAs, 0);
+            }
+            root.parent = null;
+            System.arraycopy(board.getCells(), 0, rootCells, 0, rootCells.length);
+        }
+
+        /**
+         * Finds the node in the old tree for the current board. This only works if the
+         * board is the old root plus the move this AI played and then one opponent move.
+         *
+         * @return The matching node, or null if the tree cannot be reused.
+         */
+        private Node findReusableRoot() {
+            if(root == null) return null;
+            int[] cells = board.getCells();
+            int changedCount = 0;
+            int opponentMove = -1;
+            for(int i = 0; i < cells.length; i++) {
+                if(cells[i] == rootCells[i]) continue;
+                if(rootCells[i] != 0) return null; // A piece was removed, so this is a new game
+                changedCount++;
+                if(cells[i] != playAs) opponentMove = i;
+            }
+            if(changedCount != 2 || opponentMove == -1) return null;
+            Node ourNode = root.firstChild; // rememberMove() keeps only the played move as a child
+            if(ourNode == null || cells[ourNode.move] != playAs) return null;
+            for(Node child = ourNode.firstChild; child != null; child = child.nextSibling) {
+                if(child.move == opponentMove) return child.result == 0 ? child : null;
+            }
+            return null;
+        }
+
+        /**
+         * Throws away every root child except the one that was played,
+         * so that only the part of the tree that can be reused is kept.
+         *
+         * @param move The move that was chosen.
+         */
+        private void rememberMove(int move) {
+            Node played = null;
+            for(Node child = root.firstChild; child != null; child = child.nextSibling) {
+                if(child.move == move) played = child;
+            }
+            if(played == null) {
+                root.firstChild = null;
+                return;
+            }
+            played.nextSibling = null;
+            root.firstChild = played;
+        }
+
+        /**
+         * Runs iterations until the limit or deadline is reached.
+         *
+         * @return Nothing.
+         */
+        @Override
+        public Void call() {
+            iterationsRun = 0;
+            maxDepth = 0;
+            while(iterationsRun < iterationLimit) {
+                if((iterationsRun & TIME_CHECK_MASK) == 0 && iterationsRun > 0 && shouldStop()) break;
+                runIteration();
+                iterationsRun++;
+            }
+            return null;
+        }
+
+        /**
+         * Checks the deadline and whether the search has been interrupted.
+         *
+         * @return True if the search should stop.
+         */
+        private boolean shouldStop() {
+            return (hasDeadline && System.nanoTime() - deadline >= 0) || searchStopped || Thread.currentThread().isInterrupted();
+        }
+
+        /**
+         * Runs a single select, expand, playout, and update iteration.
+         */
+        private void runIteration() {
+            Node node = root;
+            int depth = 0;
+
+            // Select
+            while(node.result == 0 && node.untriedMoves != null && node.untriedCount == 0 && node.firstChild != null) {
+                node = selectChild(node);
+                board.makeMove(node.move, node.player);
+                pathMoves[depth++] = node.move;
+            }
+
+            // Expand
+            if(node.result == 0) {
+                if(node.untriedMoves == null) {
+                    findCandidateMoves(node);
+                }
+                if(node.untriedCount > 0) {
+                    int pick = random.nextInt(node.untriedCount);
+                    int move = node.untriedMoves[pick];
+                    node.untriedMoves[pick] = node.untriedMoves[--node.untriedCount];
+                    int player = 3 - node.player;
+                    board.makeMove(move, player);
+                    pathMoves[depth++] = move;
+                    int result = board.isWinningMove(move) ? player : board.isFull() ? 3 : 0;
+                    Node child = new Node(node, move, player, result);
+                    child.nextSibling = node.firstChild;
+                    node.firstChild = child;
+                    node = child;
+                }
+            }
+            maxDepth = Math.max(maxDepth, depth);
+
+            // Playout
+            int winner = node.result != 0 ? node.result : playout(3 - node.player);
+
+            // Update
+            for(Node current = node; current != null; current = current.parent) {
+                current.visits++;
+                if(winner == current.player) current.wins += 1;
+                else if(winner == 3) current.wins += 0.5;
+            }
+            while(depth > 0) {
+                board.undoMove(pathMoves[--depth]);
+            }
+        }
+
+        /**
+         * Picks the child with the highest UCT value.
+         *
+         * @param node Node to choose a child of.
+         * @return The selected child.
+         */
+        private Node selectChild(Node node) {
+            double logVisits = Math.log(node.visits);
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for(Node child = node.firstChild; child != null; child = child.nextSibling) {
+                double value = child.wins / child.visits + EXPLORATION * Math.sqrt(logVisits / child.visits);
+                if(value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Fills the node's untried moves with the moves worth considering from the current board.
+         * On small grids that is every empty cell. On large grids it is empty cells within
+         * CANDIDATE_RADIUS of a piece, or the centre if the grid is empty.
+         *
+         * @param node Node matching the current board.
+         */
+        private void findCandidateMoves(Node node) {
+            int cellCount = board.getCellCount();
+            int[] moves = candidateMoves;
+            int count = 0;
+            if(cellCount <= CANDIDATE_LIMIT_CELLS || board.getFilledCount() == 0) {
+                if(board.getFilledCount() == 0 && cellCount > CANDIDATE_LIMIT_CELLS) {
+                    moves[count++] = board.getWidth() / 2 + (board.getHeight() / 2) * board.getWidth();
+                } else {
+                    for(int i = 0; i < cellCount; i++) {
+                        if(board.getCell(i) == 0) moves[count++] = i;
+                    }
+                }
+            } else {
+                int width = board.getWidth();
+                int height = board.getHeight();
+                for(int i = 0; i < cellCount; i++) {
+                    if(board.getCell(i) == 0) continue;
+                    int x = i % width;
+                    int y = i / width;
+                    for(int ny = Math.max(0, y - CANDIDATE_RADIUS); ny <= Math.min(height - 1, y + CANDIDATE_RADIUS); ny++) {
+                        for(int nx = Math.max(0, x - CANDIDATE_RADIUS); nx <= Math.min(width - 1, x + CANDIDATE_RADIUS); nx++) {
+                            isCandidate[nx + ny * width] = true;
+                        }
+                    }
+                }
+                for(int i = 0; i < cellCount; i++) {
+                    if(isCandidate[i] && board.getCell(i) == 0) moves[count++] = i;
+                    isCandidate[i] = false;
+                }
+            }
+            // Copied at the exact size as large grids usually have far fewer candidates than empty cells
+            node.untriedMoves = Arrays.copyOf(moves, count);
+            node.untriedCount = count;
+        }
+
+        /**
+         * Plays random moves until the game ends, then undoes them.
+         *
+         * @param player The player to move first.
+         * @return The winning player, or 3 for a draw.
+         */
+        private int playout(int player) {
+            int emptyCount = 0;
+            int cellCount = board.getCellCount();
+            for(int i = 0; i < cellCount; i++) {
+                if(board.getCell(i) == 0) emptyCells[emptyCount++] = i;
+            }
+            int played = 0;
+            int winner = 3;
+            while(played < emptyCount) {
+                // Swap a random remaining empty cell to the played section
+                int pick = played + random.nextInt(emptyCount - played);
+                int move = emptyCells[pick];
+                emptyCells[pick] = emptyCells[played];
+                emptyCells[played++] = move;
+                board.makeMove(move, player);
+                if(board.isWinningMove(move)) {
+                    winner = player;
+                    break;
+                }
+                player = 3 - player;
+            }
+            for(int i = 0; i < played; i++) {
+                board.undoMove(emptyCells[i]);
+            }
+            return winner;
+        }
+    }
+}
@@ -1,3 +1,10 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
 /**
  * TicTacToe
  * Author: Peter Mitchell (2021)
@@ -9,8 +16,19 @@
  *
  * This is based on the work at:
  * //https://gsurma.medium.com/tic-tac-toe-creating-unbeatable-ai-with-minimax-algorithm-8af9e52c1e7d
+ *
+ * When given a ForkJoinPool the search runs in parallel. At each node with enough
+ * empty cells left, the first move is searched on its own (the eldest brother), then
+ * the remaining moves (the young brothers) are searched at the same time. Searching the
+ * eldest first fills the shared transposition table so that the young brothers find
+ * more of their positions already solved. Smaller subtrees are searched sequentially.
+ * Finished tasks are kept with their boards and reused, so after the first few turns
+ * neither search allocates anything.
+ *
+ * Searches have no time limit, but stop with a CancellationException if the thread
+ * that called chooseMove() is interrupted, including the parts running on the pool.
  */
-public class MinimaxAI implements TicTacToeAI {
+public class MinimaxAI implements TicTacToeAI, SearchStatistics {
     /**
      * Reference to the GameGrid for evaluation and playing the turn.
      */
@@ -20,6 +38,114 @@ public class MinimaxAI implements TicTacToeAI {
      * played by this player.
      */
     private int playAs;
+    /**
+     * Cache of scores for positions that have already been searched.
+     * Positions are stored relative to the AI (1 is the AI, -1 the opponent),
+     * so results stay valid between turns and between games.
+     */
+    private TranspositionTable transpositionTable;
+    /**
+     * Used to find the same key for boards that are rotations or reflections of each other.
+     */
+    private BoardSymmetry boardSymmetry;
+    /**
+     * Number of cells horizontally.
+     */
+    private int width;
+    /**
+     * Number of cells vertically.
+     */
+    private int height;
+    /**
+     * Number of matching cells in a row needed to win.
+     */
+    private int winLength;
+    /**
+     * Finds immediate wins, forced blocks and forks. Only the root uses
+     * findForkMove(), so the parallel search can share it.
+     */
+    private ThreatDetector threatDetector;
+    /**
+     * Board that is searched, one per thread so a search never allocates after the first turn.
+     */
+    private ThreadLocal<int[]> searchBoards;
+    /**
+     * Pool to run the parallel search on, or null to search on the calling thread only.
+     */
+    private ForkJoinPool pool;
+    /**
+     * Number of transposition table probes since the AI was created.
+     */
+    private long cacheProbes;
+    /**
+     * Number of transposition table probes that found an entry since the AI was created.
+     */
+    private long cacheHits;
+    /**
+     * Counts for the search in progress, reused by every search.
+     */
+    private final SearchCounts searchCounts = new SearchCounts();
+    /**
+     * Move chosen by the last search, or -1 if there has not been one.
+     */
+    private int lastMove = -1;
+    /**
+     * Score of the move chosen by the last search.
+     */
+    private int lastScore;
+    /**
+     * Number of empty cells, and so the depth searched, in the last search.
+     */
+    private int lastDepth;
+    /**
+     * Number of positions visited by the last search.
+     */
+    private long lastNodes;
+    /**
+     * The last search as a SearchResult, created by getLastResult() when it is
+     * asked for so that searching does not allocate one.
+     */
+    private SearchResult lastResult;
+    /**
+     * Finished SearchTasks that can be reused. Locked on itself as every pool thread uses it.
+     */
+    private final List<SearchTask> freeTasks = new ArrayList<>();
+    /**
+     * Runs the root task of the parallel search on the pool, reused by every search.
+     */
+    private final RootTask rootTask = new RootTask();
+    /**
+     * Lock for rootFinished.
+     */
+    private final Object rootLock = new Object();
+    /**
+     * Set by rootTask when the root task has finished.
+     */
+    private boolean rootFinished;
+    /**
+     * Set when the thread waiting for a parallel search is interrupted, so
+     * that every task on the pool stops. Pool threads are never interrupted
+     * themselves, so they cannot rely on their own interrupt status.
+     */
+    private volatile boolean searchCancelled;
+
+    /**
+     * Direction offsets (dx, dy) for the four lines that pass through a cell:
+     * horizontal, vertical, and the two diagonals.
+     */
+    private static final int[][] LINE_DIRECTIONS = {{1,0},{0,1},{1,1},{1,-1}};
+    /**
+     * Default number of entries in the transposition table.
+     */
+    private static final int DEFAULT_TABLE_SIZE = 1 << 16;
+    /**
+     * Positions with this many empty cells or fewer are searched sequentially by the parallel search.
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 5;
+    /**
+     * Returned by searchThreats() when the position has no threats. Not a valid packResult().
+     */
+    private static final int NO_THREAT = Integer.MIN_VALUE;
 
     /**
      * Initialises the AI ready to takeTurn()s.
@@ -28,148 +154,654 @@ public class MinimaxAI implements TicTacToeAI {
      * @param isX If true the AI will play as X, otherwise will play as O.
      */
     public MinimaxAI(GameGrid gameGrid, boolean isX) {
+        this(gameGrid, isX, DEFAULT_TABLE_SIZE);
+    }
+
+    /**
+     * Initialises the AI ready to takeTurn()s.
+     *
+     * @param gameGrid Reference to the GameGrid for evaluation and playing the turns.
+     * @param isX If true the AI will play as X, otherwise will play as O.
+     * @param tableSize Maximum number of positions to keep in the transposition table.
+     */
+    public MinimaxAI(GameGrid gameGrid, boolean isX, int tableSize) {
+        this(gameGrid, isX, tableSize, null);
+    }
+
+    /**
+     * Initialises the AI ready to takeTurn()s.
+     *
+     * @param gameGrid Reference to the GameGrid for evaluation and playing the turns.
+     * @param isX If true the AI will play as X, otherwise will play as O.
+     * @param tableSize Maximum number of positions to keep in the transposition table.
+     * @param pool Pool to search in parallel with, or null to search sequentially.
+     */
+    public MinimaxAI(GameGrid gameGrid, boolean isX, int tableSize, ForkJoinPool pool) {
         this.gameGrid = gameGrid;
+        this.pool = pool;
         playAs = isX ? 1 : 2;
+        transpositionTable = new TranspositionTable(tableSize);
+        width = gameGrid.getGrid().length;
+        height = gameGrid.getGrid()[0].length;
+        winLength = gameGrid.getWinLength();
+        boardSymmetry = new BoardSymmetry(width, height);
+        threatDetector = new ThreatDetector(width, height, winLength);
+        int cellCount = width * height;
+        searchBoards = ThreadLocal.withInitial(() -> new int[cellCount]);
     }
 
     /**
      * Takes the turn by choosing the best move using a minimax algorithm.
-     *
-     * TODO: This method is flawed. It does NOT take into account the enemy player having a winning move that needs blocking.
+     * Winning moves, blocks of the opponent's winning move, and forks are played without searching.
      */
     @Override
     public void takeTurn() {
-        int[] board = squashGrid();
-        ResultPair action = minimax(board, 1);
-        int actionX = action.b % 3;
-        int actionY = action.b / 3;
+        int action = chooseMove(gameGrid);
+        int actionX = action % width;
+        int actionY = action / width;
         gameGrid.getGrid()[actionX][actionY].setCellState(playAs);
     }
 
     /**
-     * Stores a pair of ints used to store the score and move for minimax.
+     * Chooses the best move using a minimax algorithm without playing it.
+     *
+     * @param gameGrid The game state to choose a move for.
+     * @return The cell index (x+y*width) of the chosen move.
+     * @throws CancellationException If the calling thread is interrupted during the search.
      */
-    private class ResultPair {
-        /**
-         * Paired values.
-         */
-        public int a, b;
+    @Override
+    public int chooseMove(GameGrid gameGrid) {
+        int[] board = squashGrid(gameGrid);
+        int emptyCount = 0;
+        for(int cell : board) {
+            if(cell == 0) emptyCount++;
+        }
+        SearchCounts counts = searchCounts;
+        counts.reset();
+        int result = searchThreats(board, 1, -1, counts);
+        if(result == NO_THREAT) {
+            int forkMove = threatDetector.findForkMove(board, 1, -1);
+            if(forkMove != -1) {
+                result = packResult(1, forkMove);
+            } else if(pool != null) {
+                SearchTask search = acquireTask(board, -1, 1);
+                result = searchInParallel(search);
+                counts.add(search.counts);
+                releaseTask(search);
+            } else {
+                result = minimax(board, 1, -1, counts);
+            }
+        }
+        cacheProbes += counts.probes;
+        cacheHits += counts.hits;
+        lastMove = getMove(result);
+        lastScore = getScore(result);
+        lastDepth = emptyCount;
+        lastNodes = counts.nodes;
+        lastResult = null;
+        return lastMove;
+    }
 
-        /**
-         * Pairs a pair of values.
-         *
-         * @param a First value.
-         * @param b Second value.
-         */
-        public ResultPair(int a, int b) {
-            this.a = a;
-            this.b = b;
+    /**
+     * Gets the result of the last search. The search always reaches the end
+     * of the game, so the depth is the number of empty cells.
+     *
+     * @return The last result, or null if there has not been a search.
+     */
+    @Override
+    public SearchResult getLastResult() {
+        if(lastResult == null && lastMove != -1) {
+            lastResult = new SearchResult(lastMove, lastScore, lastDepth, lastNodes, false);
         }
+        return lastResult;
+    }
+
+    /**
+     * Gets the number of transposition table probes since the AI was created.
+     *
+     * @return Total probes.
+     */
+    @Override
+    public long getCacheProbes() {
+        return cacheProbes;
+    }
+
+    /**
+     * Gets the number of transposition table probes that found an entry since the AI was created.
+     *
+     * @return Total hits.
+     */
+    @Override
+    public long getCacheHits() {
+        return cacheHits;
     }
 
     /**
      * Based on: https://gsurma.medium.com/tic-tac-toe-creating-unbeatable-ai-with-minimax-algorithm-8af9e52c1e7d
      *
      * Recursively compares board states with changes to find the best scoring move.
+     * Moves are made and undone on the same board so nothing is allocated.
      *
-     * @param board The current board state.
+     * @param board The current board state. Restored before returning.
      * @param player The player that is taking a turn.
-     * @return A pair with score and move.
+     * @param lastMove The cell the previous player played, or -1 if unknown.
+     * @param counts Counts for the thread running the search.
+     * @return The score and move packed with packResult().
      */
-        private ResultPair minimax(int[] board, int player) {
-        int winner = getWinner(board);
+    private int minimax(int[] board, int player, int lastMove, SearchCounts counts) {
+        checkInterrupted();
+        counts.nodes++;
+        int winner = getWinner(board, lastMove);
         if (winner != 0) {
-            return new ResultPair(winner * player,0); // -1 * -1 || 1 * 1
+            return packResult(winner * player, -1); // -1 * -1 || 1 * 1
+        }
+        int threatResult = searchThreats(board, player, lastMove, counts);
+        if (threatResult != NO_THREAT) {
+            return threatResult;
         }
 
-        ResultPair score = new ResultPair(-2, -1);
-
-        for (int i = 0; i < 9; i++) { // For all moves
+        int bestScore = -2;
+        int bestMove = -1;
+        for (int i = 0; i < board.length; i++) { // For all moves
             if (board[i] == 0) { // Only possible moves
-                int[] boardWithNewMove = board.clone();
-                boardWithNewMove[i] = player; // Try the move
-                ResultPair scoreForTheMove = minimax(boardWithNewMove, -player);
-                scoreForTheMove.a = -scoreForTheMove.a;
-                if (scoreForTheMove.a > score.a) {
-                    score.a = scoreForTheMove.a;
-                    score.b = i;
+                board[i] = player; // Try the move
+                int scoreForTheMove = -cachedScore(board, -player, i, counts);
+                board[i] = 0; // Undo the move
+                if (scoreForTheMove > bestScore) {
+                    bestScore = scoreForTheMove;
+                    bestMove = i;
                 }
             }
         }
-        if (score.b == -1) {
-            return new ResultPair(0, -1); // No move - it's a draw
+        if (bestMove == -1) {
+            return packResult(0, -1); // No move - it's a draw
         }
-        return score;
+        return packResult(bestScore, bestMove);
     }
 
     /**
-     * Squashes the grid assuming 3x3 to 9x1. And changes the indexing to
-     * having the AI player as 1, the opponent as -1, and 0 stays as 0.
+     * Runs parallelMinimax() on the pool and waits for it. The calling thread waits
+     * on rootLock rather than joining the task, as a thread joining a task can run
+     * tasks itself and its interrupt status is cleared while they wait. If the calling
+     * thread is interrupted every task is told to stop, and this waits for them to
+     * finish so none are still using the transposition table when the next search starts.
      *
-     * @return Squashed grid.
+     * @param search Task for the root position. Its counts hold the totals afterwards.
+     * @return The score and move packed with packResult().
+     * @throws CancellationException If the calling thread is interrupted.
      */
-    private int[] squashGrid() {
-        GridCell[][] gridCells = gameGrid.getGrid();
-        int[] result = new int[9];
-        for(int y = 0; y < 3; y++) {
-            for(int x = 0; x < 3; x++) {
-                result[x+y*3] = gridCells[x][y].getCellState();
-                if(gridCells[x][y].getCellState() == 0) result[x+y*3] = 0;
-                else if(gridCells[x][y].getCellState() == playAs) result[x+y*3] = 1;
-                else result[x+y*3] = -1;
+    private int searchInParallel(SearchTask search) {
+        if(ForkJoinTask.inForkJoinPool()) {
+            pool.invoke(search); // Pool threads are not interrupted, and must not block
+            return search.result;
+        }
+        rootFinished = false;
+        rootTask.reinitialize();
+        rootTask.search = search;
+        pool.execute(rootTask);
+        try {
+            synchronized(rootLock) {
+                while(!rootFinished) {
+                    rootLock.wait();
+                }
             }
+        } catch(InterruptedException e) {
+            searchCancelled = true;
+            search.quietlyJoin();
+            searchCancelled = false;
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Search was interrupted");
         }
-        return result;
+        search.join(); // Rethrows anything the search threw
+        return search.result;
     }
 
     /**
-     * Checks for a winner. Returns either the current winner (1,-1) or 0 if no winner.
+     * Gets a task to search the position after a move, reusing a finished one if there is one.
      *
-     * @param board Reference to the board to check for a winner.
-     * @return 1 if the AI has won this state, -1 if the player won, 0 for anything else.
+     * @param board The board before the move. Copied into the task.
+     * @param move The cell to play, or -1 to search the board as it is.
+     * @param player The player playing the move, or the player to move if move is -1.
+     * @return The task, ready to run.
      */
-    private int getWinner(int[] board) {
-        // Check the rows
-        for(int y = 0; y < 3; y++) {
-            boolean isMatch = true;
-            for(int x = 0; x < 3; x++) {
-                if(board[x+y*3] == 0 || board[x+y*3] != board[y*3]) {
-                    isMatch = false;
-                }
+    private SearchTask acquireTask(int[] board, int move, int player) {
+        SearchTask task = null;
+        synchronized(freeTasks) {
+            if(!freeTasks.isEmpty()) {
+                task = freeTasks.remove(freeTasks.size() - 1);
             }
-            if(isMatch) return board[y*3];
         }
+        if(task == null) {
+            task = new SearchTask(board.length);
+        } else {
+            task.reinitialize();
+        }
+        task.prepare(board, move, player);
+        return task;
+    }
 
-        // Check the columns
-        for(int x = 0; x < 3; x++) {
-            boolean isMatch = true;
-            for(int y = 0; y < 3; y++) {
-                if(board[x+y*3] == 0 || board[x+y*3] != board[x]) {
-                    isMatch = false;
-                }
+    /**
+     * Returns a finished task so that it can be reused. Its result and counts must have been read.
+     *
+     * @param task The task.
+     */
+    private void releaseTask(SearchTask task) {
+        synchronized(freeTasks) {
+            freeTasks.add(task);
+        }
+    }
+
+    /**
+     * Parallel version of minimax(). The first move is searched before the
+     * others so its results are in the transposition table, then the rest
+     * are searched in parallel. Must be called from inside the pool.
+     *
+     * @param board The current board state. Owned by the calling task.
+     * @param player The player that is taking a turn.
+     * @param lastMove The cell the previous player played, or -1 if unknown.
+     * @param counts Counts for the calling task. The counts of the tasks it runs are added to them.
+     * @param children List for the calling task's child tasks. Empty before and after.
+     * @return The score and move packed with packResult().
+     */
+    private int parallelMinimax(int[] board, int player, int lastMove, SearchCounts counts, List<SearchTask> children) {
+        checkInterrupted();
+        int winner = getWinner(board, lastMove);
+        if (winner != 0) {
+            counts.nodes++;
+            return packResult(winner * player, -1);
+        }
+        int emptyCount = 0;
+        int firstMove = -1;
+        for (int i = 0; i < board.length; i++) {
+            if (board[i] == 0) {
+                emptyCount++;
+                if (firstMove == -1) firstMove = i;
             }
-            if(isMatch) return board[x];
         }
+        if (emptyCount <= SEQUENTIAL_THRESHOLD) {
+            return minimax(board, player, lastMove, counts);
+        }
+        counts.nodes++;
+        int threatResult = searchThreats(board, player, lastMove, counts);
+        if (threatResult != NO_THREAT) {
+            return threatResult;
+        }
+
+        // Eldest brother first
+        SearchTask eldestBrother = acquireTask(board, firstMove, player);
+        eldestBrother.compute();
+        int bestScore = -getScore(eldestBrother.result);
+        counts.add(eldestBrother.counts);
+        releaseTask(eldestBrother);
+        int bestMove = firstMove;
 
-        // Check left to right diagonal
-        boolean isMatch = true;
-        for(int x = 0, y = 0; x < 3; x++, y++) {
-            if(board[x+y*3] == 0 || board[x+y*3] != board[0]) {
-                isMatch = false;
+        // Then the young brothers in parallel
+        for (int i = firstMove + 1; i < board.length; i++) {
+            if (board[i] == 0) {
+                children.add(acquireTask(board, i, player));
+            }
+        }
+        ForkJoinTask.invokeAll(children);
+        // Compare in board order so the same move is chosen as by minimax()
+        for (int i = 0; i < children.size(); i++) {
+            SearchTask task = children.get(i);
+            int scoreForTheMove = -getScore(task.result);
+            counts.add(task.counts);
+            if (scoreForTheMove > bestScore) {
+                bestScore = scoreForTheMove;
+                bestMove = task.lastMove;
             }
+            releaseTask(task);
         }
-        if(isMatch) return board[0];
+        children.clear();
+        return packResult(bestScore, bestMove);
+    }
 
-        // Check other diagonal
-        isMatch = true;
-        for(int x = 0, y = 2; x < 3; x++, y--) {
-            if(board[x+y*3] == 0 || board[x+y*3] != board[8]) {
-                isMatch = false;
+    /**
+     * Searches one position as part of parallelMinimax(). Tasks are reused
+     * through acquireTask() and releaseTask(), keeping their board and lists.
+     */
+    private class SearchTask extends RecursiveAction {
+        /**
+         * Version for serialization, which ForkJoinTask supports.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The board to search. Owned by this task.
+         */
+        private final int[] board;
+        /**
+         * Counts for this task and every task it ran, complete once it has finished.
+         */
+        private final SearchCounts counts = new SearchCounts();
+        /**
+         * Tasks for the young brothers while this task is waiting for them.
+         */
+        private final List<SearchTask> children = new ArrayList<>();
+        /**
+         * The player that is taking a turn.
+         */
+        private int player;
+        /**
+         * The cell the previous player played, or -1 if unknown.
+         */
+        private int lastMove;
+        /**
+         * True to look up and store the score in the transposition table.
+         * Only the root is not stored, as its move is needed as well as its score.
+         */
+        private boolean useTable;
+        /**
+         * The score and move packed with packResult(), once the task has finished.
+         */
+        private int result;
+
+        /**
+         * Creates a task with its own board.
+         *
+         * @param cellCount Number of cells on the board.
+         */
+        private SearchTask(int cellCount) {
+            board = new int[cellCount];
+        }
+
+        /**
+         * Sets the position to search.
+         *
+         * @param parentBoard The board before the move. Copied into this task's board.
+         * @param move The cell to play, or -1 to search the board as it is (the root).
+         * @param mover The player playing the move, or the player to move if move is -1.
+         */
+        private void prepare(int[] parentBoard, int move, int mover) {
+            System.arraycopy(parentBoard, 0, board, 0, board.length);
+            if(move != -1) {
+                board[move] = mover;
+            }
+            player = move != -1 ? -mover : mover;
+            lastMove = move;
+            useTable = move != -1;
+            counts.reset();
+        }
+
+        /**
+         * Searches the position, leaving the packed score and move in result.
+         */
+        @Override
+        protected void compute() {
+            if(!useTable) {
+                result = parallelMinimax(board, player, lastMove, counts, children);
+                return;
+            }
+            long key = boardSymmetry.canonicalKey(board, player);
+            long entry = probe(key, counts);
+            if(entry != TranspositionTable.MISSING) {
+                result = packResult(TranspositionTable.getScore(entry), -1);
+                return;
+            }
+            result = parallelMinimax(board, player, lastMove, counts, children);
+            transpositionTable.store(key, getScore(result), 0, -1, TranspositionTable.EXACT);
+        }
+    }
+
+    /**
+     * Runs the root SearchTask for searchInParallel() and then wakes the thread
+     * waiting on rootLock. Reused for every search.
+     */
+    private class RootTask extends RecursiveAction {
+        /**
+         * Version for serialization, which ForkJoinTask supports.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The root task to run.
+         */
+        private SearchTask search;
+
+        /**
+         * Runs the search, then reports that it has finished however it ended.
+         */
+        @Override
+        protected void compute() {
+            try {
+                search.quietlyInvoke();
+            } finally {
+                synchronized(rootLock) {
+                    rootFinished = true;
+                    rootLock.notifyAll();
+                }
             }
         }
-        if(isMatch) return board[8];
+    }
+
+    /**
+     * Positions visited and transposition table probes made by one task or
+     * sequential search. Each task keeps its own, and they are added together
+     * once the tasks finish, so the threads never write the same counter.
+     */
+    private static class SearchCounts {
+        /**
+         * Number of positions visited.
+         */
+        private long nodes;
+        /**
+         * Number of transposition table probes.
+         */
+        private long probes;
+        /**
+         * Number of transposition table probes that found an entry.
+         */
+        private long hits;
+
+        /**
+         * Sets every count back to 0.
+         */
+        private void reset() {
+            nodes = 0;
+            probes = 0;
+            hits = 0;
+        }
+
+        /**
+         * Adds the counts of a finished task to these.
+         *
+         * @param other The counts to add.
+         */
+        private void add(SearchCounts other) {
+            nodes += other.nodes;
+            probes += other.probes;
+            hits += other.hits;
+        }
+    }
+
+    /**
+     * Resolves a position decided by threats without trying every move: a win
+     * for the player to move, a loss to two opponent threats, or a single
+     * opponent threat where only the block needs to be searched.
+     *
+     * Below the root the parent position was resolved here first, so neither player
+     * had a threat there apart from a single one the last move blocked. The player
+     * to move cannot have gained one from the opponent's move, and any threat the
+     * opponent has must be on a line through the last move, so only those lines are read.
+     *
+     * @param board The current board state. Restored before returning.
+     * @param player The player that is taking a turn.
+     * @param lastMove The cell the previous player played, or -1 at the root to read the whole board.
+     * @param counts Counts for the thread running the search.
+     * @return The score and move packed with packResult(), or NO_THREAT if every move needs searching.
+     */
+    private int searchThreats(int[] board, int player, int lastMove, SearchCounts counts) {
+        int block;
+        if (lastMove == -1) {
+            int winningMove = threatDetector.findWinningMove(board, player);
+            if (winningMove != -1) {
+                return packResult(1, winningMove);
+            }
+            block = threatDetector.findWinningMove(board, -player);
+        } else {
+            block = threatDetector.findWinningMoveThrough(board, -player, lastMove, -1);
+        }
+        if (block == -1) {
+            return NO_THREAT;
+        }
+        boolean secondThreat = lastMove == -1
+                ? threatDetector.findWinningMove(board, -player, block) != -1
+                : threatDetector.findWinningMoveThrough(board, -player, lastMove, block) != -1;
+        if (secondThreat) {
+            return packResult(-1, block); // Two threats, so blocking one still loses
+        }
+        board[block] = player;
+        int score = -cachedScore(board, -player, block, counts);
+        board[block] = 0;
+        return packResult(score, block);
+    }
+
+    /**
+     * Stops the search if the searching thread has been interrupted,
+     * or a parallel search has been cancelled.
+     *
+     * @throws CancellationException If the search should stop.
+     */
+    private void checkInterrupted() {
+        if(searchCancelled || Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Search was interrupted");
+        }
+    }
+
+    /**
+     * Packs a score and move into a single int so that minimax does not
+     * need to allocate an object to return both.
+     *
+     * @param score The score, which must fit in 16 bits.
+     * @param move The move, or -1 for no move.
+     * @return The packed result.
+     */
+    private static int packResult(int score, int move) {
+        return (score << 16) | ((move + 1) & 0xFFFF);
+    }
+
+    /**
+     * Gets the score from a result returned by packResult().
+     *
+     * @param result The packed result.
+     * @return The score.
+     */
+    private static int getScore(int result) {
+        return result >> 16;
+    }
+
+    /**
+     * Gets the move from a result returned by packResult().
+     *
+     * @param result The packed result.
+     * @return The move, or -1 for no move.
+     */
+    private static int getMove(int result) {
+        return (result & 0xFFFF) - 1;
+    }
+
+    /**
+     * Gets the minimax score of a board, using the transposition table when the
+     * board (or any rotation or reflection of it) has already been searched.
+     *
+     * @param board The board state to score.
+     * @param player The player that is taking a turn.
+     * @param lastMove The cell the previous player played.
+     * @param counts Counts for the thread running the search.
+     * @return The score from the perspective of player.
+     */
+    private int cachedScore(int[] board, int player, int lastMove, SearchCounts counts) {
+        long key = boardSymmetry.canonicalKey(board, player);
+        long entry = probe(key, counts);
+        if(entry != TranspositionTable.MISSING) {
+            return TranspositionTable.getScore(entry);
+        }
+        int score = getScore(minimax(board, player, lastMove, counts));
+        transpositionTable.store(key, score, 0, -1, TranspositionTable.EXACT);
+        return score;
+    }
+
+    /**
+     * Looks up a key in the transposition table. The table is shared by every
+     * thread of a parallel search, so the probe is counted in counts rather than
+     * by the table.
+     *
+     * @param key Key of the position to find.
+     * @param counts Counts for the thread running the search.
+     * @return The packed entry, or TranspositionTable.MISSING if there is no entry for the key.
+     */
+    private long probe(long key, SearchCounts counts) {
+        counts.probes++;
+        long entry = transpositionTable.probeUncounted(key);
+        if(entry != TranspositionTable.MISSING) {
+            counts.hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Squashes the grid from width x height to a single array indexed as x+y*width.
+     * And changes the indexing to having the AI player as 1, the opponent as -1, and 0 stays as 0.
+     * The array is reused between turns by the same thread.
+     *
+     * @param gameGrid The grid to squash.
+     * @return Squashed grid.
+     */
+    private int[] squashGrid(GameGrid gameGrid) {
+        Bitboard bitboard = gameGrid.getBitboard();
+        int[] result = searchBoards.get();
+        for(int i = 0; i < result.length; i++) {
+            int cellState = bitboard.getState(i);
+            if(cellState == 0) result[i] = 0;
+            else if(cellState == playAs) result[i] = 1;
+            else result[i] = -1;
+        }
+        return result;
+    }
+
+    /**
+     * Checks if the last move won the game. Only the four lines through
+     * the last move are checked, as any earlier win would have ended the game.
+     *
+     * @param board Reference to the board to check for a winner.
+     * @param lastMove The cell the previous player played, or -1 if unknown.
+     * @return 1 if the AI has won this state, -1 if the player won, 0 for anything else.
+     */
+    private int getWinner(int[] board, int lastMove) {
+        if(lastMove == -1) return 0;
+        int player = board[lastMove];
+        int x = lastMove % width;
+        int y = lastMove / width;
+        for(int[] direction : LINE_DIRECTIONS) {
+            int count = 1 + countInDirection(board, x, y, direction[0], direction[1], player)
+                          + countInDirection(board, x, y, -direction[0], -direction[1], player);
+            if(count >= winLength) return player;
+        }
 
         // No match found
         return 0;
     }
-}
\ No newline at end of file
+
+    /**
+     * Counts consecutive cells owned by the player moving away from (x,y).
+     *
+     * @param board Reference to the board to count on.
+     * @param x Starting x coordinate (not counted).
+     * @param y Starting y coordinate (not counted).
+     * @param dx Step in x.
+     * @param dy Step in y.
+     * @param player The player to match.
+     * @return Number of consecutive matching cells.
+     */
+    private int countInDirection(int[] board, int x, int y, int dx, int dy, int player) {
+        int count = 0;
+        x += dx;
+        y += dy;
+        while(count < winLength && x >= 0 && y >= 0 && x < width && y < height
+                && board[x + y * width] == player) {
+            count++;
+            x += dx;
+            y += dy;
+        }
+        return count;
+    }
+}
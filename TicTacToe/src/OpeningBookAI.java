@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * TicTacToe
+ * Author: Peter Mitchell (2021)
+ *
+ * OpeningBookAI class:
+ * An AI Behaviour that plays perfectly on a 3x3 board without searching.
+ * The best move for every position is looked up in the opening book
+ * written by OpeningBookGenerator, which is memory-mapped once and shared
+ * by every instance using the same path. If the file does not exist the book is
+ * solved in memory on a background thread instead, without writing anything, so
+ * creating the AI never waits for it (GamePanel creates it on the event thread).
+ * MinimaxAI is used until the book is ready.
+ * Boards that are not 3x3 with three in a row to win, or positions the book does not cover, fall back
+ * to MinimaxAI.
+ */
+public class OpeningBookAI implements TicTacToeAI, SearchStatistics {
+    /**
+     * Books that have been loaded or solved, shared by every instance.
+     */
+    private static final Map<Path, ByteBuffer> LOADED = new HashMap<>();
+    /**
+     * Paths of missing books that are being solved in the background.
+     */
+    private static final Set<Path> GENERATING = new HashSet<>();
+
+    /**
+     * Reference to the GameGrid for evaluation and playing the turn.
+     */
+    private GameGrid gameGrid;
+    /**
+     * 1 for X or 2 for O representing the one that is being
+     * played by this player.
+     */
+    private int playAs;
+    /**
+     * Location of the book if the board is one the book covers, otherwise null.
+     */
+    private Path bookPath;
+    /**
+     * The book to look moves up in, or null if it is not ready or could not be used.
+     */
+    private ByteBuffer book;
+    /**
+     * AI used when a position is not in the book. Created the first time it is needed.
+     */
+    private MinimaxAI fallbackAI;
+    /**
+     * Number of positions looked up in the book.
+     */
+    private long bookProbes;
+    /**
+     * Number of positions the book had a move for.
+     */
+    private long bookHits;
+    /**
+     * Result of the last chooseMove(), or null if there has not been one.
+     */
+    private SearchResult lastResult;
+
+    /**
+     * Initialises the AI ready to takeTurn()s using the book at OpeningBookGenerator.DEFAULT_PATH.
+     *
+     * @param gameGrid Reference to the GameGrid for evaluation and playing the turns.
+     * @param isX If true the AI will play as X, otherwise will play as O.
+     */
+    public OpeningBookAI(GameGrid gameGrid, boolean isX) {
+        this(gameGrid, isX, OpeningBookGenerator.DEFAULT_PATH);
+    }
+
+    /**
+     * Initialises the AI ready to takeTurn()s.
+     *
+     * @param gameGrid Reference to the GameGrid for evaluation and playing the turns.
+     * @param isX If true the AI will play as X, otherwise will play as O.
+     * @param bookPath Location of the opening book. Solved in memory in the background if it does not exist.
+     */
+    public OpeningBookAI(GameGrid gameGrid, boolean isX, Path bookPath) {
+        this.gameGrid = gameGrid;
+        playAs = isX ? 1 : 2;
+        Bitboard bitboard = gameGrid.getBitboard();
+        if(bitboard.getWidth() == 3 && bitboard.getHeight() == 3 && bitboard.getWinLength() == 3) {
+            this.bookPath = bookPath;
+            try {
+                book = loadBook(bookPath);
+            } catch(IOException e) {
+                System.err.println("Opening book unavailable, using search instead: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Looks up the best move for the current position and plays it.
+     * Uses the fallback AI if the position is not in the book.
+     */
+    @Override
+    public void takeTurn() {
+        int move = chooseMove(gameGrid);
+        int gridWidth = gameGrid.getGrid().length;
+        gameGrid.getGrid()[move % gridWidth][move / gridWidth].setCellState(playAs);
+    }
+
+    /**
+     * Looks up the best move for the position without playing it.
+     * Uses the fallback AI if the position is not in the book.
+     *
+     * @param gameGrid The game state to choose a move for.
+     * @return The cell index (x+y*gridWidth) of the chosen move.
+     */
+    @Override
+    public int chooseMove(GameGrid gameGrid) {
+        int move = lookupMove(gameGrid);
+        if(move == -1) {
+            if(fallbackAI == null) {
+                fallbackAI = new MinimaxAI(this.gameGrid, playAs == 1);
+            }
+            move = fallbackAI.chooseMove(gameGrid);
+            lastResult = fallbackAI.getLastResult();
+            return move;
+        }
+        lastResult = new SearchResult(move, 0, 0, 0, false);
+        return move;
+    }
+
+    /**
+     * Gets the result of the last chooseMove(). Moves from the book
+     * have no search, so their score, depth and nodes are 0.
+     *
+     * @return The last result, or null if no move has been chosen.
+     */
+    @Override
+    public SearchResult getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * Gets the number of book lookups plus the fallback AI's cache probes.
+     *
+     * @return Total probes.
+     */
+    @Override
+    public long getCacheProbes() {
+        return bookProbes + (fallbackAI == null ? 0 : fallbackAI.getCacheProbes());
+    }
+
+    /**
+     * Gets the number of book lookups that found a move plus the fallback AI's cache hits.
+     *
+     * @return Total hits.
+     */
+    @Override
+    public long getCacheHits() {
+        return bookHits + (fallbackAI == null ? 0 : fallbackAI.getCacheHits());
+    }
+
+    /**
+     * Finds the book move for a position.
+     *
+     * @param gameGrid The game state to look up.
+     * @return The cell index to play, or -1 if the book has no move for this position.
+     */
+    private int lookupMove(GameGrid gameGrid) {
+        if(book == null && bookPath != null) {
+            book = getLoadedBook(bookPath); // Picks up a book that has finished generating
+        }
+        if(book == null) return -1;
+        Bitboard bitboard = gameGrid.getBitboard();
+        int index = 0;
+        int pieceCount = 0;
+        for(int i = OpeningBookGenerator.CELL_COUNT - 1; i >= 0; i--) {
+            int state = bitboard.getState(i);
+            index = index * 3 + state;
+            if(state != 0) pieceCount++;
+        }
+        // The book assumes X moved first so it only knows the move for the player whose turn it is
+        int playerToMove = pieceCount % 2 == 0 ? 1 : 2;
+        int entry = book.get(OpeningBookGenerator.HEADER_SIZE + index) & 0xFF;
+        bookProbes++;
+        if(entry == OpeningBookGenerator.NO_ENTRY || playerToMove != playAs) return -1;
+        int move = entry & 0xF;
+        if(bitboard.getState(move) != 0) return -1;
+        bookHits++;
+        return move;
+    }
+
+    /**
+     * Loads the book if it exists, or starts solving it in memory on a background
+     * thread. Each book is only loaded once, and every later call for the same
+     * path returns the same buffer.
+     *
+     * @param bookPath Location of the opening book.
+     * @return Read only view of the whole book, or null if it is still being solved.
+     * @throws IOException If the book could not be read, or is not valid.
+     */
+    private static synchronized ByteBuffer loadBook(Path bookPath) throws IOException {
+        ByteBuffer book = LOADED.get(bookPath);
+        if(book != null || GENERATING.contains(bookPath)) return book;
+        if(Files.exists(bookPath)) {
+            book = mapBook(bookPath);
+            LOADED.put(bookPath, book);
+            return book;
+        }
+        GENERATING.add(bookPath);
+        Thread generator = new Thread(() -> {
+            ByteBuffer generated = OpeningBookGenerator.generateInMemory();
+            synchronized(OpeningBookAI.class) {
+                LOADED.put(bookPath, generated);
+                GENERATING.remove(bookPath);
+            }
+        }, "OpeningBookGenerator");
+        generator.setDaemon(true);
+        generator.start();
+        return null;
+    }
+
+    /**
+     * Gets a book that has finished loading.
+     *
+     * @param bookPath Location of the opening book.
+     * @return The book, or null if it is not ready.
+     */
+    private static synchronized ByteBuffer getLoadedBook(Path bookPath) {
+        return LOADED.get(bookPath);
+    }
+
+    /**
+     * Maps a book file and checks its header.
+     *
+     * @param bookPath Location of the opening book.
+     * @return Read only view of the whole book file.
+     * @throws IOException If the book could not be read, or is not valid.
+     */
+    private static ByteBuffer mapBook(Path bookPath) throws IOException {
+        try(FileChannel channel = FileChannel.open(bookPath, StandardOpenOption.READ)) {
+            long expectedSize = OpeningBookGenerator.HEADER_SIZE + OpeningBookGenerator.POSITION_COUNT;
+            if(channel.size() != expectedSize) {
+                throw new IOException("Unexpected opening book size " + channel.size());
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, expectedSize);
+            if(buffer.getInt(0) != OpeningBookGenerator.MAGIC
+                    || buffer.get(4) != OpeningBookGenerator.VERSION) {
+                throw new IOException("Not a supported opening book: " + bookPath);
+            }
+            return buffer;
+        }
+    }
+}
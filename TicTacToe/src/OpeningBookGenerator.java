@@ -0,0 +1,262 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * OpeningBookGenerator class:
+ * Solves every position of 3x3 Tic Tac Toe and writes the perfect move
+ * for each one to a binary file that OpeningBookAI can load.
+ *
+ * Positions are indexed as a base 3 number where cell i (x+y*3) is digit i
+ * using the GridCell values (0=empty, 1=X, 2=O). X always moves first, so the
+ * player to move is X when both players have the same number of pieces.
+ *
+ * File layout:
+ * 4 byte magic (MAGIC), 1 byte version, 1 byte width, 1 byte height,
+ * followed by one byte per position index (POSITION_COUNT bytes).
+ * Each byte holds the best move in the low 4 bits and the result for
+ * the player to move in bits 4-5 (RESULT_LOSS, RESULT_DRAW, RESULT_WIN).
+ * Positions that are illegal or already finished are stored as NO_ENTRY.
+ */
+public class OpeningBookGenerator {
+    /**
+     * Identifies the file as an opening book.
+     */
+    public static final int MAGIC = 0x54545442; // "TTTB"
+    /**
+     * Version of the file layout.
+     */
+    public static final int VERSION = 1;
+    /**
+     * Size of the header in bytes.
+     */
+    public static final int HEADER_SIZE = 7;
+    /**
+     * Number of cells on the board.
+     */
+    public static final int CELL_COUNT = 9;
+    /**
+     * Number of position indexes (3^9).
+     */
+    public static final int POSITION_COUNT = 19683;
+    /**
+     * Stored for positions that have no move.
+     */
+    public static final int NO_ENTRY = 0xFF;
+    /**
+     * The player to move will lose with perfect play.
+     */
+    public static final int RESULT_LOSS = 0;
+    /**
+     * The game will be a draw with perfect play.
+     */
+    public static final int RESULT_DRAW = 1;
+    /**
+     * The player to move will win with perfect play.
+     */
+    public static final int RESULT_WIN = 2;
+    /**
+     * Default location for the opening book.
+     */
+    public static final Path DEFAULT_PATH = Paths.get("opening_book.bin");
+
+    /**
+     * Every line of three on a 3x3 board.
+     */
+    private static final int[][] WIN_LINES = {{0,1,2},{3,4,5},{6,7,8},{0,3,6},{1,4,7},{2,5,8},{0,4,8},{2,4,6}};
+    /**
+     * Used to break ties between equally good moves: centre, then corners, then edges.
+     */
+    private static final int[] CELL_PREFERENCE = {3,2,3,2,4,2,3,2,3};
+    /**
+     * Power of 3 for each cell.
+     */
+    private static final int[] POWERS_OF_THREE = {1,3,9,27,81,243,729,2187,6561};
+
+    /**
+     * Score for each solved position from the perspective of the player to move.
+     * Wins score higher the sooner they happen and losses score lower the sooner they happen.
+     */
+    private int[] scores;
+    /**
+     * True for each position that has been solved.
+     */
+    private boolean[] solved;
+    /**
+     * The encoded book entries.
+     */
+    private byte[] book;
+
+    /**
+     * Generates the opening book and writes it to the path in the first
+     * argument, or to DEFAULT_PATH if no argument is given.
+     *
+     * @param args Optional path to write to.
+     * @throws IOException If the book could not be written.
+     */
+    public static void main(String[] args) throws IOException {
+        Path path = args.length > 0 ? Paths.get(args[0]) : DEFAULT_PATH;
+        generate(path);
+        System.out.println("Wrote opening book to " + path.toAbsolutePath());
+    }
+
+    /**
+     * Solves every position and writes the book to the path.
+     *
+     * @param path Where to write the book.
+     * @throws IOException If the book could not be written.
+     */
+    public static void generate(Path path) throws IOException {
+        OpeningBookGenerator generator = new OpeningBookGenerator();
+        generator.solveAll();
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try(DataOutputStream out = new DataOutputStream(Files.newOutputStream(tempPath))) {
+            generator.write(out);
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Solves every position and returns the book without writing a file.
+     *
+     * @return Read only buffer laid out the same as the book file.
+     */
+    public static ByteBuffer generateInMemory() {
+        OpeningBookGenerator generator = new OpeningBookGenerator();
+        generator.solveAll();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + POSITION_COUNT);
+        try(DataOutputStream out = new DataOutputStream(bytes)) {
+            generator.write(out);
+        } catch(IOException e) {
+            throw new IllegalStateException("Writing to memory failed", e);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Prepares empty tables.
+     */
+    private OpeningBookGenerator() {
+        scores = new int[POSITION_COUNT];
+        solved = new boolean[POSITION_COUNT];
+        book = new byte[POSITION_COUNT];
+    }
+
+    /**
+     * Fills the book with an entry for every index.
+     */
+    private void solveAll() {
+        int[] board = new int[CELL_COUNT];
+        for(int index = 0; index < POSITION_COUNT; index++) {
+            int xCount = 0, oCount = 0;
+            for(int i = 0, value = index; i < CELL_COUNT; i++, value /= 3) {
+                board[i] = value % 3;
+                if(board[i] == 1) xCount++;
+                else if(board[i] == 2) oCount++;
+            }
+            boolean isLegal = xCount == oCount || xCount == oCount + 1;
+            if(!isLegal || getWinner(board) != 0 || xCount + oCount == CELL_COUNT) {
+                book[index] = (byte) NO_ENTRY;
+                continue;
+            }
+            int player = xCount == oCount ? 1 : 2;
+            int bestMove = -1;
+            int bestScore = Integer.MIN_VALUE;
+            for(int move = 0; move < CELL_COUNT; move++) {
+                if(board[move] != 0) continue;
+                int score = -solve(index + player * POWERS_OF_THREE[move], board, move, player);
+                if(score > bestScore || (score == bestScore && CELL_PREFERENCE[move] > CELL_PREFERENCE[bestMove])) {
+                    bestScore = score;
+                    bestMove = move;
+                }
+            }
+            int result = bestScore > 0 ? RESULT_WIN : bestScore < 0 ? RESULT_LOSS : RESULT_DRAW;
+            book[index] = (byte) (bestMove | (result << 4));
+        }
+    }
+
+    /**
+     * Solves the position reached by playing move, from the perspective of the opponent
+     * who now has to move. The board is restored before returning.
+     *
+     * @param index Position index after the move.
+     * @param board Board before the move. Temporarily modified.
+     * @param move Cell that was played.
+     * @param player The player that played the move.
+     * @return Score from the perspective of the opponent of player.
+     */
+    private int solve(int index, int[] board, int move, int player) {
+        if(solved[index]) return scores[index];
+        board[move] = player;
+        int score;
+        if(getWinner(board) != 0) {
+            score = -(CELL_COUNT + 1 - countPieces(board));
+        } else if(countPieces(board) == CELL_COUNT) {
+            score = 0;
+        } else {
+            int opponent = 3 - player;
+            score = Integer.MIN_VALUE;
+            for(int next = 0; next < CELL_COUNT; next++) {
+                if(board[next] == 0) {
+                    score = Math.max(score, -solve(index + opponent * POWERS_OF_THREE[next], board, next, opponent));
+                }
+            }
+        }
+        board[move] = 0;
+        solved[index] = true;
+        scores[index] = score;
+        return score;
+    }
+
+    /**
+     * Writes the header and all entries.
+     *
+     * @param out Stream to write to.
+     * @throws IOException If writing failed.
+     */
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(3);
+        out.writeByte(3);
+        out.write(book);
+    }
+
+    /**
+     * Counts the pieces on the board.
+     *
+     * @param board Board to count.
+     * @return Number of cells that are not empty.
+     */
+    private static int countPieces(int[] board) {
+        int count = 0;
+        for(int cell : board) {
+            if(cell != 0) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Checks for a winner.
+     *
+     * @param board Board to check.
+     * @return The player with three in a row, or 0 if nobody has won.
+     */
+    private static int getWinner(int[] board) {
+        for(int[] line : WIN_LINES) {
+            if(board[line[0]] != 0 && board[line[0]] == board[line[1]] && board[line[1]] == board[line[2]]) {
+                return board[line[0]];
+            }
+        }
+        return 0;
+    }
+}
@@ -1,5 +1,5 @@
-import java.util.Collections;
-import java.util.List;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 
 /**
  * TicTacToe
@@ -20,6 +20,10 @@ public class RandomAI implements TicTacToeAI {
      * played by this player.
      */
     private int playAs;
+    /**
+     * Source of random numbers for choosing moves.
+     */
+    private RandomGenerator random;
 
     /**
      * Initialises the AI ready to takeTurn()s.
@@ -28,8 +32,21 @@ public class RandomAI implements TicTacToeAI {
      * @param isX If true the AI will play as X, otherwise will play as O.
      */
     public RandomAI(GameGrid gameGrid, boolean isX) {
+        this(gameGrid, isX, new SplittableRandom());
+    }
+
+    /**
+     * Initialises the AI ready to takeTurn()s using the specified random numbers,
+     * so that a seeded generator can be used to repeat the same games.
+     *
+     * @param gameGrid Reference to the GameGrid for evaluation and playing the turns.
+     * @param isX If true the AI will play as X, otherwise will play as O.
+     * @param random Source of random numbers for choosing moves.
+     */
+    public RandomAI(GameGrid gameGrid, boolean isX, RandomGenerator random) {
         this.gameGrid = gameGrid;
         playAs = isX ? 1 : 2;
+        this.random = random;
     }
 
     /**
@@ -37,8 +54,19 @@ public class RandomAI implements TicTacToeAI {
      */
     @Override
     public void takeTurn() {
-        List<Position> validMoves = gameGrid.getALlValidMoves();
-        Collections.shuffle(validMoves);
-        gameGrid.getGrid()[validMoves.get(0).x][validMoves.get(0).y].setCellState(playAs);
+        int move = chooseMove(gameGrid);
+        int gridWidth = gameGrid.getGrid().length;
+        gameGrid.getGrid()[move % gridWidth][move / gridWidth].setCellState(playAs);
+    }
+
+    /**
+     * Chooses a random move from the valid moves.
+     *
+     * @param gameGrid The game state to choose a move for.
+     * @return The cell index (x+y*gridWidth) of the chosen move.
+     */
+    @Override
+    public int chooseMove(GameGrid gameGrid) {
+        return gameGrid.randomMove(random);
     }
 }
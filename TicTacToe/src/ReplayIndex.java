@@ -0,0 +1,702 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.TreeMap;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * ReplayIndex class:
+ * An on-disk index from positions to the logged games that passed through them.
+ * Positions are keyed by their Zobrist hash with rotations and reflections
+ * removed, mixed with the board size, so symmetric positions share an entry.
+ *
+ * The index is made of four files. The first two are memory-mapped, so lookups
+ * only touch the pages they need and nothing is loaded onto the heap:
+ *
+ * path:            A header and an open-addressed table of slots. Each slot holds a
+ *                  position key, the most recent posting for it, and a count of postings.
+ * path.postings:   Fixed size postings, one for each (position, game). Each holds a game
+ *                  reference and the previous posting for the same position, forming a list.
+ * path.logs:       The game record files that are indexed (one per line) with how far
+ *                  each has been indexed, so new games can be added without starting again.
+ * path.players:    The player names defined in each log, and the offset of the first game
+ *                  that saw each one. A game can then be read by seeking straight to it
+ *                  instead of reading the log from the start for its player names.
+ *
+ * Game references combine the log number (top 16 bits) and the file offset of the
+ * game in that log (low 48 bits). The empty board is not indexed since every game starts there.
+ *
+ * Usage: ReplayIndex index log...            Indexes any new games in the logs.
+ *        ReplayIndex index -q size winLength move...
+ *                                            Lists the games that reached the position.
+ */
+public class ReplayIndex implements Closeable {
+    /**
+     * Identifies a replay index file ("TTRI").
+     */
+    private static final int MAGIC = 0x54545249;
+    /**
+     * Format version stored after MAGIC.
+     */
+    private static final int VERSION = 2;
+    /**
+     * Bytes before the first slot: MAGIC, VERSION, capacity, used slots, posting count.
+     */
+    private static final int HEADER_SIZE = 32;
+    /**
+     * Bytes per slot: key, head posting, count.
+     */
+    private static final int SLOT_SIZE = 24;
+    /**
+     * Bytes per posting: game reference, previous posting.
+     */
+    private static final int POSTING_SIZE = 16;
+    /**
+     * Postings are mapped in segments of this many bytes since one mapping is limited to 2GB.
+     */
+    private static final long SEGMENT_SIZE = 1L << 26;
+    /**
+     * Slot count for a new index (must be 2^n).
+     */
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    /**
+     * Largest slot table that fits in a single mapping.
+     */
+    private static final int MAX_CAPACITY = 1 << 26;
+    /**
+     * Number of bits in a game reference used for the file offset.
+     */
+    private static final int OFFSET_BITS = 48;
+
+    /**
+     * Path of the slot table. The other files add a suffix to it.
+     */
+    private final Path path;
+    /**
+     * Channel for the postings file.
+     */
+    private final FileChannel postingsChannel;
+    /**
+     * Mapped segments of the postings file, created as they are needed.
+     */
+    private final List<MappedByteBuffer> postingSegments = new ArrayList<>();
+    /**
+     * Game record files that are indexed. The position in the list is the log number.
+     */
+    private final List<Path> logs = new ArrayList<>();
+    /**
+     * How many bytes of each log have been indexed.
+     */
+    private final List<Long> indexedOffsets = new ArrayList<>();
+    /**
+     * Player names of each log by log number then player id. Each name is
+     * keyed by the offset of the first game that saw it, so the names in use by
+     * a game are the last ones at or before its offset.
+     */
+    private final List<Map<Integer, TreeMap<Long, String>>> playerNames = new ArrayList<>();
+    /**
+     * Mapping of the slot table file.
+     */
+    private MappedByteBuffer slots;
+    /**
+     * Number of slots (2^n).
+     */
+    private int capacity;
+    /**
+     * Number of slots holding a position.
+     */
+    private int usedSlots;
+    /**
+     * Number of postings written.
+     */
+    private long postingCount;
+
+    /**
+     * Builds or queries an index from the command line.
+     *
+     * @param args index log... or index -q size winLength move...
+     * @throws IOException If the index or a log cannot be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2) {
+            System.out.println("Usage: ReplayIndex index log...");
+            System.out.println("       ReplayIndex index -q size winLength move...");
+            return;
+        }
+        try(ReplayIndex index = new ReplayIndex(Path.of(args[0]))) {
+            if(!args[1].equals("-q")) {
+                long startTime = System.nanoTime();
+                for(int i = 1; i < args.length; i++) {
+                    long games = index.update(Path.of(args[i]));
+                    System.out.println(games + " new games indexed from " + args[i]);
+                }
+                System.out.printf("%d positions, %d postings, %.2f s%n", index.getPositionCount(),
+                        index.getPostingCount(), (System.nanoTime() - startTime) / 1e9);
+                return;
+            }
+            int size = Integer.parseInt(args[2]);
+            SearchBoard board = new SearchBoard(size, size, Integer.parseInt(args[3]));
+            board.trackSymmetries(new BoardSymmetry(size, size));
+            for(int i = 4; i < args.length; i++) {
+                board.makeMove(Integer.parseInt(args[i]), i % 2 == 0 ? 1 : 2);
+            }
+            long key = positionKey(board);
+            System.out.println(index.countGames(key) + " games reached the position");
+            PrimitiveIterator.OfLong games = index.findGames(key);
+            for(int i = 0; i < 10 && games.hasNext(); i++) {
+                System.out.println(index.readGame(games.nextLong()));
+            }
+        }
+    }
+
+    /**
+     * Opens an index, creating empty files if it does not exist.
+     *
+     * @param path Path of the slot table. The postings and logs files are stored next to it.
+     * @throws IOException If the files cannot be opened or are not a replay index.
+     */
+    public ReplayIndex(Path path) throws IOException {
+        this.path = path;
+        if(!Files.exists(path)) {
+            createSlotFile(path, INITIAL_CAPACITY);
+        }
+        mapSlots();
+        if(slots.getInt(0) != MAGIC) {
+            throw new IOException("Not a replay index: " + path);
+        }
+        if(slots.getInt(4) != VERSION) {
+            throw new IOException("Unsupported replay index version " + slots.getInt(4) + ", delete it to rebuild: " + path);
+        }
+        capacity = slots.getInt(8);
+        usedSlots = slots.getInt(12);
+        postingCount = slots.getLong(16);
+        postingsChannel = FileChannel.open(suffixPath(".postings"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        Path logsPath = suffixPath(".logs");
+        if(Files.exists(logsPath)) {
+            for(String line : Files.readAllLines(logsPath, StandardCharsets.UTF_8)) {
+                if(line.isEmpty()) continue;
+                int separator = line.indexOf('\t');
+                indexedOffsets.add(Long.parseLong(line.substring(0, separator)));
+                logs.add(Path.of(line.substring(separator + 1)));
+                playerNames.add(new HashMap<>());
+            }
+        }
+        Path playersPath = suffixPath(".players");
+        if(Files.exists(playersPath)) {
+            for(String line : Files.readAllLines(playersPath, StandardCharsets.UTF_8)) {
+                if(line.isEmpty()) continue;
+                String[] fields = line.split("\t", 4); // log, id, offset, name
+                playerNames.get(Integer.parseInt(fields[0]))
+                        .computeIfAbsent(Integer.parseInt(fields[1]), id -> new TreeMap<>())
+                        .put(Long.parseLong(fields[2]), fields[3]);
+            }
+        }
+    }
+
+    /**
+     * Creates the key used for a position. The board must be tracking symmetries.
+     *
+     * @param board The position.
+     * @return Key for the position and every rotation and reflection of it.
+     */
+    public static long positionKey(SearchBoard board) {
+        long sizeKey = (board.getWidth() * 31L + board.getHeight()) * 31L + board.getWinLength();
+        long key = board.getCanonicalHash() ^ (sizeKey * 0x9E3779B97F4A7C15L);
+        return key == 0 ? 1 : key; // 0 marks an empty slot
+    }
+
+    /**
+     * Indexes the games in a log that were added since it was last indexed.
+     * A game that is still being written at the end of the log is left for the next update.
+     * If an entry cannot be read, the games before it stay indexed and the update
+     * stops there, so retrying never indexes a game twice.
+     *
+     * @param log Game record file to index.
+     * @return Number of games added to the index.
+     * @throws IOException If the log cannot be read or is corrupt, or the index cannot be written.
+     */
+    public long update(Path log) throws IOException {
+        Path logPath = log.toAbsolutePath().normalize();
+        int logNumber = logs.indexOf(logPath);
+        if(logNumber == -1) {
+            if(logs.size() == 1 << (64 - OFFSET_BITS)) {
+                throw new IllegalStateException("Too many logs in one index");
+            }
+            logNumber = logs.size();
+            logs.add(logPath);
+            indexedOffsets.add((long) GameRecordWriter.HEADER_SIZE);
+            playerNames.add(new HashMap<>());
+        }
+        Map<Integer, TreeMap<Long, String>> logPlayerNames = playerNames.get(logNumber);
+
+        long games = 0;
+        long indexedOffset = indexedOffsets.get(logNumber);
+        SearchBoard board = null;
+        long[] keys = new long[0];
+        try(GameRecordReader reader = new GameRecordReader(logPath)) {
+            seekWithPlayerNames(reader, logPlayerNames, indexedOffset);
+            GameRecord record;
+            while((record = reader.next()) != null) {
+                rememberPlayerNames(reader, logPlayerNames);
+                if(board == null || board.getWidth() != record.getWidth() || board.getHeight() != record.getHeight()
+                        || board.getWinLength() != record.getWinLength()) {
+                    board = new SearchBoard(record.getWidth(), record.getHeight(), record.getWinLength());
+                    board.trackSymmetries(new BoardSymmetry(record.getWidth(), record.getHeight()));
+                }
+                long gameReference = ((long) logNumber << OFFSET_BITS) | reader.getLastGameOffset();
+                int[] moves = record.getMoves();
+                if(keys.length < moves.length) {
+                    keys = new long[moves.length];
+                }
+                for(int i = 0; i < moves.length; i++) {
+                    board.makeMove(moves[i], i % 2 == 0 ? 1 : 2);
+                    keys[i] = positionKey(board);
+                }
+                for(int i = moves.length - 1; i >= 0; i--) {
+                    board.undoMove(moves[i]);
+                }
+                addGame(keys, moves.length, gameReference);
+                indexedOffset = reader.getPosition();
+                games++;
+            }
+        } catch(EOFException e) {
+            // The last game is only partly written, so index it next time
+        } finally {
+            indexedOffsets.set(logNumber, indexedOffset);
+            sync();
+        }
+        return games;
+    }
+
+    /**
+     * Finds every indexed game that reached a position (or a rotation or reflection of it).
+     * The games are read from the mapped postings as the iterator moves, so a position
+     * reached by any number of games takes no heap. Games indexed after this is called
+     * are not included.
+     *
+     * @param positionKey Key from positionKey().
+     * @return Game references, most recently indexed first.
+     */
+    public PrimitiveIterator.OfLong findGames(long positionKey) {
+        int slotOffset = HEADER_SIZE + findSlot(positionKey) * SLOT_SIZE;
+        return new PostingIterator(slots.getLong(slotOffset) == 0 ? 0 : slots.getLong(slotOffset + 8));
+    }
+
+    /**
+     * Counts the indexed games that reached a position (or a rotation or reflection of it).
+     *
+     * @param positionKey Key from positionKey().
+     * @return Number of games.
+     */
+    public long countGames(long positionKey) {
+        int slotOffset = HEADER_SIZE + findSlot(positionKey) * SLOT_SIZE;
+        return slots.getLong(slotOffset) == 0 ? 0 : slots.getLong(slotOffset + 16);
+    }
+
+    /**
+     * Reads a game from its log. The log is read from the game's offset
+     * onwards, so this takes the same time wherever the game is in the log.
+     *
+     * @param gameReference A game reference from findGames().
+     * @return The game.
+     * @throws IOException If the log cannot be read.
+     */
+    public GameRecord readGame(long gameReference) throws IOException {
+        int logNumber = (int) (gameReference >>> OFFSET_BITS);
+        try(GameRecordReader reader = new GameRecordReader(logs.get(logNumber))) {
+            seekWithPlayerNames(reader, playerNames.get(logNumber), getGameOffset(gameReference));
+            return reader.next();
+        }
+    }
+
+    /**
+     * Gets the log a game reference points into.
+     *
+     * @param gameReference A game reference from findGames().
+     * @return Path of the game record file.
+     */
+    public Path getLog(long gameReference) {
+        return logs.get((int) (gameReference >>> OFFSET_BITS));
+    }
+
+    /**
+     * Gets the file offset of the game in its log.
+     *
+     * @param gameReference A game reference from findGames().
+     * @return Offset that can be passed to GameRecordReader.seek().
+     */
+    public static long getGameOffset(long gameReference) {
+        return gameReference & ((1L << OFFSET_BITS) - 1);
+    }
+
+    /**
+     * Gets the number of different positions in the index.
+     *
+     * @return Number of positions.
+     */
+    public int getPositionCount() {
+        return usedSlots;
+    }
+
+    /**
+     * Gets the number of (position, game) pairs in the index.
+     *
+     * @return Number of postings.
+     */
+    public long getPostingCount() {
+        return postingCount;
+    }
+
+    /**
+     * Saves the header and log list and closes the index.
+     *
+     * @throws IOException If the index cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        sync();
+        postingsChannel.close();
+    }
+
+    /**
+     * Writes the header and log list, and forces the mapped files to disk.
+     *
+     * @throws IOException If the index cannot be written.
+     */
+    private void sync() throws IOException {
+        slots.putInt(12, usedSlots);
+        slots.putLong(16, postingCount);
+        slots.force();
+        for(MappedByteBuffer segment : postingSegments) {
+            segment.force();
+        }
+        StringBuilder logList = new StringBuilder();
+        for(int i = 0; i < logs.size(); i++) {
+            logList.append(indexedOffsets.get(i)).append('\t').append(logs.get(i)).append('\n');
+        }
+        Path logsPath = suffixPath(".logs");
+        Path tempPath = suffixPath(".logs.tmp");
+        Files.writeString(tempPath, logList, StandardCharsets.UTF_8);
+        Files.move(tempPath, logsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        StringBuilder playerList = new StringBuilder();
+        for(int i = 0; i < playerNames.size(); i++) {
+            for(Map.Entry<Integer, TreeMap<Long, String>> player : playerNames.get(i).entrySet()) {
+                for(Map.Entry<Long, String> name : player.getValue().entrySet()) {
+                    playerList.append(i).append('\t').append(player.getKey()).append('\t')
+                            .append(name.getKey()).append('\t').append(name.getValue()).append('\n');
+                }
+            }
+        }
+        Path playersPath = suffixPath(".players");
+        tempPath = suffixPath(".players.tmp");
+        Files.writeString(tempPath, playerList, StandardCharsets.UTF_8);
+        Files.move(tempPath, playersPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Moves a reader straight to an entry and gives it the player names that
+     * were in use there, so nothing before the entry needs to be read.
+     *
+     * @param reader Reader for the log.
+     * @param logPlayerNames Player names of the log.
+     * @param offset File offset of the start of an entry.
+     * @throws IOException If the log cannot be read.
+     */
+    private static void seekWithPlayerNames(GameRecordReader reader, Map<Integer, TreeMap<Long, String>> logPlayerNames,
+                                            long offset) throws IOException {
+        reader.seek(offset);
+        for(Map.Entry<Integer, TreeMap<Long, String>> player : logPlayerNames.entrySet()) {
+            Map.Entry<Long, String> name = player.getValue().floorEntry(offset);
+            if(name != null) {
+                reader.setPlayerName(player.getKey(), name.getValue());
+            }
+        }
+    }
+
+    /**
+     * Records any player names that have changed since the last game, under the
+     * offset of the game the reader has just returned.
+     *
+     * @param reader Reader that has just returned a game.
+     * @param logPlayerNames Player names of the log.
+     */
+    private static void rememberPlayerNames(GameRecordReader reader, Map<Integer, TreeMap<Long, String>> logPlayerNames) {
+        List<String> names = reader.getPlayerNames();
+        for(int id = 0; id < names.size(); id++) {
+            String name = names.get(id);
+            if(name == null) continue;
+            TreeMap<Long, String> idNames = logPlayerNames.computeIfAbsent(id, key -> new TreeMap<>());
+            Map.Entry<Long, String> lastName = idNames.lastEntry();
+            if(lastName == null || !lastName.getValue().equals(name)) {
+                idNames.put(reader.getLastGameOffset(), name);
+            }
+        }
+    }
+
+    /**
+     * Adds every position of a game, or none of them if one cannot be added. The slot
+     * table is grown first so that it does not move while the game is added, which lets
+     * the postings be removed again in reverse order. The header counts are updated once
+     * the whole game is in.
+     *
+     * @param keys Keys from positionKey() for each position the game reached. A game never repeats a position.
+     * @param keyCount Number of keys to use from the start of keys.
+     * @param gameReference The game.
+     * @throws IOException If the table needs to grow and cannot be written.
+     */
+    private void addGame(long[] keys, int keyCount, long gameReference) throws IOException {
+        while((usedSlots + keyCount) * 10L > capacity * 7L) {
+            grow();
+        }
+        int added = 0;
+        try {
+            for(; added < keyCount; added++) {
+                addPosting(keys[added], gameReference);
+            }
+        } catch(RuntimeException e) {
+            while(added > 0) {
+                removeLastPosting(keys[--added]);
+            }
+            throw e;
+        }
+        slots.putInt(12, usedSlots);
+        slots.putLong(16, postingCount);
+    }
+
+    /**
+     * Adds a game to the list for a position. There must be room in the slot table for a new key.
+     *
+     * @param positionKey Key from positionKey().
+     * @param gameReference The game that reached the position.
+     */
+    private void addPosting(long positionKey, long gameReference) {
+        int slot = findSlot(positionKey);
+        int slotOffset = HEADER_SIZE + slot * SLOT_SIZE;
+        // Write the posting before changing anything else, as mapping a new segment can fail
+        long posting = postingCount;
+        writePostingLong(posting, 0, gameReference);
+        writePostingLong(posting, 8, slots.getLong(slotOffset + 8));
+        if(slots.getLong(slotOffset) == 0) {
+            slots.putLong(slotOffset, positionKey);
+            usedSlots++;
+        }
+        // Postings are numbered from 1 so that 0 can mean the end of the list
+        postingCount++;
+        slots.putLong(slotOffset + 8, posting + 1);
+        slots.putLong(slotOffset + 16, slots.getLong(slotOffset + 16) + 1);
+    }
+
+    /**
+     * Undoes the last addPosting(). Keys are only removed in the reverse of the order
+     * they were added, so no other key can have been placed past the freed slot.
+     *
+     * @param positionKey Key the last posting was added for.
+     */
+    private void removeLastPosting(long positionKey) {
+        int slotOffset = HEADER_SIZE + findSlot(positionKey) * SLOT_SIZE;
+        postingCount--;
+        slots.putLong(slotOffset + 8, readPostingLong(postingCount, 8));
+        long count = slots.getLong(slotOffset + 16) - 1;
+        slots.putLong(slotOffset + 16, count);
+        if(count == 0) {
+            slots.putLong(slotOffset, 0);
+            usedSlots--;
+        }
+    }
+
+    /**
+     * Finds the slot holding a key, or the empty slot where it would be added.
+     *
+     * @param positionKey Key from positionKey().
+     * @return The slot number.
+     */
+    private int findSlot(long positionKey) {
+        int mask = capacity - 1;
+        int slot = (int) (positionKey ^ (positionKey >>> 32)) & mask;
+        while(true) {
+            long key = slots.getLong(HEADER_SIZE + slot * SLOT_SIZE);
+            if(key == 0 || key == positionKey) return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Doubles the slot table. The table is rebuilt in a new file that then replaces
+     * the old one, so the index is never left half grown. Postings do not move.
+     *
+     * @throws IOException If the new table cannot be written.
+     */
+    private void grow() throws IOException {
+        if(capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("Replay index is full");
+        }
+        MappedByteBuffer oldSlots = slots;
+        int oldCapacity = capacity;
+        Path tempPath = suffixPath(".tmp");
+        createSlotFile(tempPath, capacity * 2);
+        capacity *= 2;
+        try(FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            slots = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        }
+        for(int i = 0; i < oldCapacity; i++) {
+            int oldOffset = HEADER_SIZE + i * SLOT_SIZE;
+            long key = oldSlots.getLong(oldOffset);
+            if(key == 0) continue;
+            int newOffset = HEADER_SIZE + findSlot(key) * SLOT_SIZE;
+            slots.putLong(newOffset, key);
+            slots.putLong(newOffset + 8, oldSlots.getLong(oldOffset + 8));
+            slots.putLong(newOffset + 16, oldSlots.getLong(oldOffset + 16));
+        }
+        slots.putInt(12, usedSlots);
+        slots.putLong(16, postingCount);
+        slots.force();
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Creates a slot table file with every slot empty.
+     *
+     * @param filePath File to create.
+     * @param slotCount Number of slots (2^n).
+     * @throws IOException If the file cannot be written.
+     */
+    private static void createSlotFile(Path filePath, int slotCount) throws IOException {
+        try(FileChannel channel = FileChannel.open(filePath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Mapping past the end of the file extends it with zeros, which are empty slots
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) slotCount * SLOT_SIZE);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, slotCount);
+            header.force();
+        }
+    }
+
+    /**
+     * Maps the whole slot table file.
+     *
+     * @throws IOException If the file cannot be mapped.
+     */
+    private void mapSlots() throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            slots = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+    }
+
+    /**
+     * Reads one long of a posting.
+     *
+     * @param posting Posting number (from 0).
+     * @param field 0 for the game reference, 8 for the previous posting.
+     * @return The value.
+     */
+    private long readPostingLong(long posting, int field) {
+        long offset = posting * POSTING_SIZE + field;
+        return getPostingSegment(offset).getLong((int) (offset % SEGMENT_SIZE));
+    }
+
+    /**
+     * Writes one long of a posting.
+     *
+     * @param posting Posting number (from 0).
+     * @param field 0 for the game reference, 8 for the previous posting.
+     * @param value The value to write.
+     */
+    private void writePostingLong(long posting, int field, long value) {
+        long offset = posting * POSTING_SIZE + field;
+        getPostingSegment(offset).putLong((int) (offset % SEGMENT_SIZE), value);
+    }
+
+    /**
+     * Gets the mapped segment of the postings file containing an offset, mapping
+     * (and so extending the file) as needed. Postings never cross a segment boundary
+     * since SEGMENT_SIZE is a multiple of POSTING_SIZE.
+     *
+     * @param offset Byte offset in the postings file.
+     * @return The segment.
+     */
+    private MappedByteBuffer getPostingSegment(long offset) {
+        int segment = (int) (offset / SEGMENT_SIZE);
+        try {
+            while(postingSegments.size() <= segment) {
+                postingSegments.add(postingsChannel.map(FileChannel.MapMode.READ_WRITE,
+                        postingSegments.size() * SEGMENT_SIZE, SEGMENT_SIZE));
+            }
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return postingSegments.get(segment);
+    }
+
+    /**
+     * Gets the path of one of the index files stored next to the slot table.
+     *
+     * @param suffix Suffix to add to the slot table's file name.
+     * @return The path.
+     */
+    private Path suffixPath(String suffix) {
+        return path.resolveSibling(path.getFileName() + suffix);
+    }
+
+    /**
+     * Walks the list of postings for a position, reading each from the mapped file as it is reached.
+     */
+    private class PostingIterator implements PrimitiveIterator.OfLong {
+        /**
+         * The next posting (numbered from 1), or 0 at the end of the list.
+         */
+        private long posting;
+
+        /**
+         * Starts at the head of a list.
+         *
+         * @param head The most recent posting for the position, or 0 if there are none.
+         */
+        private PostingIterator(long head) {
+            posting = head;
+        }
+
+        /**
+         * Checks if there are more games.
+         *
+         * @return True if nextLong() will return a game.
+         */
+        @Override
+        public boolean hasNext() {
+            return posting != 0;
+        }
+
+        /**
+         * Gets the next game and moves on to the posting before it.
+         *
+         * @return The game reference.
+         */
+        @Override
+        public long nextLong() {
+            if(posting == 0) throw new NoSuchElementException();
+            long gameReference = readPostingLong(posting - 1, 0);
+            posting = readPostingLong(posting - 1, 8);
+            return gameReference;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * SearchBoard class:
+ * A lightweight copy of the game state for AIs to search with.
+ * Cells are stored in a single int array indexed as x+y*width using the
+ * same values as GridCell (0=empty, 1=X, 2=O). Moves are made and undone
+ * in place so that searching does not need to copy the board.
+ *
+ * A Zobrist hash of the position is updated with each move. Boards can also
+ * track a hash for every rotation and reflection so that a key that is the
+ * same for all symmetric positions costs one comparison per symmetry.
+ */
+public class SearchBoard {
+    /**
+     * Direction offsets (dx, dy) for the four lines that pass through a cell:
+     * horizontal, vertical, and the two diagonals.
+     */
+    private static final int[][] LINE_DIRECTIONS = {{1,0},{0,1},{1,1},{1,-1}};
+
+    /**
+     * Number of cells horizontally.
+     */
+    private final int width;
+    /**
+     * Number of cells vertically.
+     */
+    private final int height;
+    /**
+     * Number of matching cells in a row needed to win.
+     */
+    private final int winLength;
+    /**
+     * State of every cell. 0=empty, 1=X, 2=O.
+     */
+    private final int[] cells;
+    /**
+     * Number of cells that are not empty.
+     */
+    private int filledCount;
+    /**
+     * Keys used to maintain the position hashes.
+     */
+    private final ZobristKeys zobristKeys;
+    /**
+     * Zobrist hash of the current position.
+     */
+    private long hash;
+    /**
+     * For each symmetry, the cell each index moves to when the symmetry is applied,
+     * or null if symmetries are not being tracked.
+     */
+    private int[][] symmetryTargets;
+    /**
+     * Zobrist hash of the position after each symmetry is applied.
+     */
+    private long[] symmetryHashes;
+
+    /**
+     * Creates an empty board.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     */
+    public SearchBoard(int width, int height, int winLength) {
+        this.width = width;
+        this.height = height;
+        this.winLength = winLength;
+        cells = new int[width * height];
+        zobristKeys = new ZobristKeys(cells.length);
+    }
+
+    /**
+     * Creates a board matching the size and state of a GameGrid.
+     *
+     * @param gameGrid The grid to copy.
+     */
+    public SearchBoard(GameGrid gameGrid) {
+        this(gameGrid.getGrid().length, gameGrid.getGrid()[0].length, gameGrid.getWinLength());
+        copyFrom(gameGrid);
+    }
+
+    /**
+     * Replaces the state of this board with the state of a GameGrid of the same size.
+     *
+     * @param gameGrid The grid to copy.
+     */
+    public void copyFrom(GameGrid gameGrid) {
+        Bitboard bitboard = gameGrid.getBitboard();
+        filledCount = 0;
+        for(int i = 0; i < cells.length; i++) {
+            cells[i] = bitboard.getState(i);
+            if(cells[i] != 0) filledCount++;
+        }
+        rehash();
+    }
+
+    /**
+     * Starts keeping a hash for every symmetry of the board so that
+     * getCanonicalHash() can be used.
+     *
+     * @param boardSymmetry Symmetries for a board of this size.
+     */
+    public void trackSymmetries(BoardSymmetry boardSymmetry) {
+        int symmetryCount = boardSymmetry.getSymmetryCount();
+        symmetryTargets = new int[symmetryCount][cells.length];
+        symmetryHashes = new long[symmetryCount];
+        for(int s = 0; s < symmetryCount; s++) {
+            for(int i = 0; i < cells.length; i++) {
+                symmetryTargets[s][boardSymmetry.getSourceCell(s, i)] = i;
+            }
+        }
+        rehash();
+    }
+
+    /**
+     * Places a piece for the player.
+     *
+     * @param index Cell index (x+y*width). Must be empty.
+     * @param player 1 for X, 2 for O.
+     */
+    public void makeMove(int index, int player) {
+        cells[index] = player;
+        filledCount++;
+        hash ^= zobristKeys.getKey(index, player);
+        if(symmetryTargets != null) {
+            for(int s = 0; s < symmetryHashes.length; s++) {
+                symmetryHashes[s] ^= zobristKeys.getKey(symmetryTargets[s][index], player);
+            }
+        }
+    }
+
+    /**
+     * Removes the piece placed by makeMove().
+     *
+     * @param index Cell index (x+y*width).
+     */
+    public void undoMove(int index) {
+        int player = cells[index];
+        cells[index] = 0;
+        filledCount--;
+        hash ^= zobristKeys.getKey(index, player);
+        if(symmetryTargets != null) {
+            for(int s = 0; s < symmetryHashes.length; s++) {
+                symmetryHashes[s] ^= zobristKeys.getKey(symmetryTargets[s][index], player);
+            }
+        }
+    }
+
+    /**
+     * Checks if the piece at the index completes a line of winLength.
+     * Only the four lines through the cell are inspected.
+     *
+     * @param index Cell index of the piece that was just placed.
+     * @return True if the player owning the cell has won.
+     */
+    public boolean isWinningMove(int index) {
+        int player = cells[index];
+        if(player == 0) return false;
+        int x = index % width;
+        int y = index / width;
+        for(int[] direction : LINE_DIRECTIONS) {
+            int count = 1 + countInDirection(x, y, direction[0], direction[1], player)
+                          + countInDirection(x, y, -direction[0], -direction[1], player);
+            if(count >= winLength) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the state of a cell.
+     *
+     * @param index Cell index (x+y*width).
+     * @return 0 for empty, 1 for X, 2 for O.
+     */
+    public int getCell(int index) {
+        return cells[index];
+    }
+
+    /**
+     * Gets the cell array. Modifying it directly bypasses makeMove()/undoMove().
+     *
+     * @return The array of cell states.
+     */
+    public int[] getCells() {
+        return cells;
+    }
+
+    /**
+     * Gets the Zobrist hash of the current position. This matches
+     * Bitboard.getHash() for the same position.
+     *
+     * @return 64 bit hash of the position.
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Gets a hash that is the same for every rotation and reflection of the position.
+     * This is the smallest of the hashes of each symmetry. trackSymmetries() must
+     * have been called, otherwise the plain hash is returned.
+     *
+     * @return 64 bit hash of the position independent of symmetry.
+     */
+    public long getCanonicalHash() {
+        if(symmetryHashes == null) return hash;
+        long best = symmetryHashes[0];
+        for(int s = 1; s < symmetryHashes.length; s++) {
+            if(Long.compareUnsigned(symmetryHashes[s], best) < 0) best = symmetryHashes[s];
+        }
+        return best;
+    }
+
+    /**
+     * Checks if every cell has been filled.
+     *
+     * @return True if there are no empty cells.
+     */
+    public boolean isFull() {
+        return filledCount == cells.length;
+    }
+
+    /**
+     * Gets the number of filled cells.
+     *
+     * @return Number of cells containing an X or O.
+     */
+    public int getFilledCount() {
+        return filledCount;
+    }
+
+    /**
+     * Gets the number of cells horizontally.
+     *
+     * @return Width in cells.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the number of cells vertically.
+     *
+     * @return Height in cells.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of cells in a row needed to win.
+     *
+     * @return The win length.
+     */
+    public int getWinLength() {
+        return winLength;
+    }
+
+    /**
+     * Gets the total number of cells.
+     *
+     * @return Number of cells on the board.
+     */
+    public int getCellCount() {
+        return cells.length;
+    }
+
+    /**
+     * Counts how many cells in each winning line pass through the cell.
+     * Central cells are part of more lines, so this makes a simple measure
+     * of how valuable a cell is. On a 3x3 board the centre scores 4,
+     * corners score 3, and edges score 2.
+     *
+     * @param index Cell index (x+y*width).
+     * @return Number of possible winning lines that include the cell.
+     */
+    public int countLinesThrough(int index) {
+        int x = index % width;
+        int y = index / width;
+        int lines = 0;
+        for(int[] direction : LINE_DIRECTIONS) {
+            // Try every start point that would place this cell on a line of winLength
+            for(int offset = 0; offset < winLength; offset++) {
+                int startX = x - direction[0] * offset;
+                int startY = y - direction[1] * offset;
+                int endX = startX + direction[0] * (winLength - 1);
+                int endY = startY + direction[1] * (winLength - 1);
+                if(isInside(startX, startY) && isInside(endX, endY)) {
+                    lines++;
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Counts consecutive cells owned by the player moving away from (x,y).
+     *
+     * @param x Starting x coordinate (not counted).
+     * @param y Starting y coordinate (not counted).
+     * @param dx Step in x.
+     * @param dy Step in y.
+     * @param player The player to match.
+     * @return Number of consecutive matching cells.
+     */
+    private int countInDirection(int x, int y, int dx, int dy, int player) {
+        int count = 0;
+        x += dx;
+        y += dy;
+        while(count < winLength && isInside(x, y) && cells[x + y * width] == player) {
+            count++;
+            x += dx;
+            y += dy;
+        }
+        return count;
+    }
+
+    /**
+     * Checks the coordinate is on the board.
+     *
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @return True if the coordinate is inside the board.
+     */
+    private boolean isInside(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /**
+     * Recalculates every hash from the cells after the whole board has changed.
+     */
+    private void rehash() {
+        hash = zobristKeys.hash(cells);
+        if(symmetryTargets == null) return;
+        for(int s = 0; s < symmetryHashes.length; s++) {
+            long symmetryHash = 0;
+            for(int i = 0; i < cells.length; i++) {
+                symmetryHash ^= zobristKeys.getKey(symmetryTargets[s][i], cells[i]);
+            }
+            symmetryHashes[s] = symmetryHash;
+        }
+    }
+}
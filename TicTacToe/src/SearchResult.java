@@ -0,0 +1,103 @@
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * SearchResult class:
+ * Describes the outcome of a single AI search: the chosen move, its score,
+ * and how much work was done to find it.
+ */
+public class SearchResult {
+    /**
+     * The chosen cell index (x+y*gridWidth).
+     */
+    private final int move;
+    /**
+     * Score of the move from the perspective of the AI.
+     */
+    private final int score;
+    /**
+     * Depth of the deepest completed search iteration.
+     */
+    private final int depth;
+    /**
+     * Number of positions visited.
+     */
+    private final long nodes;
+    /**
+     * True if the search stopped because it ran out of time (or was interrupted).
+     */
+    private final boolean timedOut;
+
+    /**
+     * Creates the result of a search.
+     *
+     * @param move The chosen cell index (x+y*gridWidth).
+     * @param score Score of the move from the perspective of the AI.
+     * @param depth Depth of the deepest completed search iteration.
+     * @param nodes Number of positions visited.
+     * @param timedOut True if the search stopped because it ran out of time.
+     */
+    public SearchResult(int move, int score, int depth, long nodes, boolean timedOut) {
+        this.move = move;
+        this.score = score;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.timedOut = timedOut;
+    }
+
+    /**
+     * Gets the chosen move.
+     *
+     * @return The cell index (x+y*gridWidth).
+     */
+    public int getMove() {
+        return move;
+    }
+
+    /**
+     * Gets the score of the chosen move.
+     *
+     * @return Score from the perspective of the AI.
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Gets the depth of the deepest completed search iteration.
+     *
+     * @return Depth reached.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Gets the number of positions visited.
+     *
+     * @return Nodes searched.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Checks if the search ran out of time before finishing.
+     *
+     * @return True if the search stopped early.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Gets a summary of the result.
+     *
+     * @return A string describing the move, score, depth and nodes.
+     */
+    @Override
+    public String toString() {
+        return "move " + move + " score " + score + " depth " + depth + " nodes " + nodes
+                + (timedOut ? " (timed out)" : "");
+    }
+}
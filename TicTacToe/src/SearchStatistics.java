@@ -0,0 +1,32 @@
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * SearchStatistics interface:
+ * An AI behaviour that can report how much work its searches did.
+ * InstrumentedAI reads these after every turn to record the nodes searched,
+ * depth reached and cache hit rate. The cache counts are running totals,
+ * so the work for one turn is the difference before and after it.
+ */
+public interface SearchStatistics {
+    /**
+     * Gets the result of the last search.
+     *
+     * @return The move, depth and nodes of the last chooseMove(), or null if there has not been one.
+     */
+    SearchResult getLastResult();
+
+    /**
+     * Gets the number of times the AI has looked up a cached result since it was created.
+     *
+     * @return Total cache probes, or 0 if the AI has no cache.
+     */
+    long getCacheProbes();
+
+    /**
+     * Gets the number of cache lookups that found a result since the AI was created.
+     *
+     * @return Total cache hits, or 0 if the AI has no cache.
+     */
+    long getCacheHits();
+}
@@ -0,0 +1,415 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * SelfPlaySimulator class:
+ * Plays games between two AIs without any UI to compare their strength and speed.
+ * Games are split into batches that run across every core on a ForkJoinPool.
+ * Each batch creates its own GameGrid and AIs so that no mutable state
+ * is shared between threads.
+ *
+ * Games between two random AIs can be played in lock step instead, when asked for
+ * with setLockStep() or the selfplay.lockstep system property: every game in a batch
+ * plays its next move, then one BatchEvaluator call checks all of them for a winner
+ * at once. Lock step games pick their moves directly rather than through RandomAI,
+ * so they are off by default to keep every run testing the real AI code.
+ *
+ * Usage: SelfPlaySimulator xAI oAI games [gridSize] [winLength] [threads]
+ * where the AI names are any of those listed in AIFactory.AI_NAMES.
+ * Every game is appended to a game record file if the record.file system property is set.
+ * Per-turn metrics for each AI are printed at the end if the ai.metrics system property is true.
+ * Random vs random games are played in lock step if the selfplay.lockstep system property is true.
+ */
+public class SelfPlaySimulator {
+    /**
+     * Batches with more games than this are split in half.
+     */
+    private static final int GAMES_PER_BATCH = 1000;
+    /**
+     * System property that plays random vs random games in lock step, for example -Dselfplay.lockstep=true
+     */
+    public static final String LOCK_STEP_PROPERTY = "selfplay.lockstep";
+
+    /**
+     * Name of the AI playing X.
+     */
+    private final String xAIName;
+    /**
+     * Name of the AI playing O.
+     */
+    private final String oAIName;
+    /**
+     * Number of cells horizontally and vertically.
+     */
+    private final int gridSize;
+    /**
+     * Number of matching cells in a row needed to win.
+     */
+    private final int winLength;
+    /**
+     * Writer that every game is logged to, or null if games are not logged.
+     */
+    private GameRecordWriter recordWriter;
+    /**
+     * True to play the games in lock step with playRandomGamesInLockStep().
+     */
+    private boolean lockStep;
+
+    /**
+     * Runs the simulation from the command line and prints the results.
+     *
+     * @param args xAI oAI games [gridSize] [winLength] [threads]
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 3) {
+            System.out.println("Usage: SelfPlaySimulator xAI oAI games [gridSize] [winLength] [threads]");
+            System.out.println("AIs: " + String.join(", ", AIFactory.AI_NAMES));
+            return;
+        }
+        int games = Integer.parseInt(args[2]);
+        int gridSize = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        int winLength = args.length > 4 ? Integer.parseInt(args[4]) : gridSize;
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+
+        SelfPlaySimulator simulator = new SelfPlaySimulator(args[0], args[1], gridSize, winLength);
+        GameRecordWriter recordWriter = GameRecordWriter.openFromProperty(GameRecordWriter.RECORD_FILE_PROPERTY);
+        simulator.setRecordWriter(recordWriter);
+        simulator.setLockStep(Boolean.getBoolean(LOCK_STEP_PROPERTY));
+        long startTime = System.nanoTime();
+        MatchResult result;
+        try {
+            result = simulator.run(games, threads);
+        } finally {
+            if(recordWriter != null) recordWriter.close();
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+
+        System.out.println(args[0] + " (X) vs " + args[1] + " (O) on " + gridSize + "x" + gridSize
+                + " with " + winLength + " in a row, " + threads + " threads");
+        System.out.println(result);
+        System.out.printf("%d games in %.2f s (%.0f games/sec)%n", result.getGameCount(), seconds,
+                result.getGameCount() / seconds);
+        if(recordWriter != null) {
+            System.out.println(recordWriter.getGameCount() + " games written to "
+                    + System.getProperty(GameRecordWriter.RECORD_FILE_PROPERTY));
+        }
+        InstrumentedAI.dumpMetrics(System.out);
+    }
+
+    /**
+     * Prepares a simulation between two AIs.
+     *
+     * @param xAIName Name of the AI playing X (moves first).
+     * @param oAIName Name of the AI playing O.
+     * @param gridSize Number of cells horizontally and vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     */
+    public SelfPlaySimulator(String xAIName, String oAIName, int gridSize, int winLength) {
+        this.xAIName = xAIName;
+        this.oAIName = oAIName;
+        this.gridSize = gridSize;
+        this.winLength = winLength;
+    }
+
+    /**
+     * Sets where games are logged. The writer is shared by every thread.
+     *
+     * @param recordWriter Writer to log every game to, or null to not log games.
+     */
+    public void setRecordWriter(GameRecordWriter recordWriter) {
+        this.recordWriter = recordWriter;
+    }
+
+    /**
+     * Chooses whether random vs random games are played in lock step. Lock step
+     * games do not use RandomAI or AIFactory, and so are not instrumented either.
+     *
+     * @param lockStep True to play the games in lock step.
+     * @throws IllegalArgumentException If lockStep is true and either AI is not "random".
+     */
+    public void setLockStep(boolean lockStep) {
+        if(lockStep && !(xAIName.equals("random") && oAIName.equals("random"))) {
+            throw new IllegalArgumentException("Only random vs random games can be played in lock step");
+        }
+        this.lockStep = lockStep;
+    }
+
+    /**
+     * Plays the games across a pool of threads and waits for them to finish.
+     *
+     * @param games Number of games to play.
+     * @param threads Number of threads to use.
+     * @return The combined results of every game.
+     */
+    public MatchResult run(int games, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new BatchTask(games));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Plays a number of games on a single thread, in lock step if setLockStep() was given true.
+     *
+     * @param games Number of games to play.
+     * @return The results of the games.
+     */
+    public MatchResult playGames(int games) {
+        if(lockStep) {
+            return playRandomGamesInLockStep(games, new SplittableRandom());
+        }
+        GameGrid gameGrid = new GameGrid(new Position(0,0), gridSize, gridSize, gridSize, gridSize, winLength);
+        TicTacToeAI xAI = AIFactory.create(xAIName, gameGrid, true);
+        TicTacToeAI oAI = AIFactory.create(oAIName, gameGrid, false);
+        MatchResult result = new MatchResult();
+        int[] moves = recordWriter != null ? new int[gridSize * gridSize] : null;
+        for(int i = 0; i < games; i++) {
+            gameGrid.reset();
+            int winner = playGame(gameGrid, xAI, oAI, moves);
+            result.addGame(winner);
+            if(recordWriter != null) {
+                int moveCount = gridSize * gridSize - gameGrid.getBitboard().getEmptyCount();
+                try {
+                    recordWriter.write(gridSize, gridSize, winLength, xAIName, oAIName, moves, moveCount, winner);
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Plays games between two random AIs on a single thread, all at the same time.
+     * Each step plays one move in every unfinished game and then checks every game
+     * for a winner with a single BatchEvaluator call.
+     *
+     * @param games Number of games to play.
+     * @param random Source of the moves.
+     * @return The results of the games.
+     */
+    public MatchResult playRandomGamesInLockStep(int games, SplittableRandom random) {
+        int cellCount = gridSize * gridSize;
+        BatchEvaluator batch = new BatchEvaluator(gridSize, gridSize, winLength, games);
+        // Each game's empty cells. After step s the last s entries are its moves, last move first.
+        int[] emptyCells = new int[games * cellCount];
+        int[] activeGames = new int[games];
+        for(int game = 0; game < games; game++) {
+            for(int cell = 0; cell < cellCount; cell++) {
+                emptyCells[game * cellCount + cell] = cell;
+            }
+            activeGames[game] = game;
+        }
+        int[] moves = recordWriter != null ? new int[cellCount] : null;
+        MatchResult result = new MatchResult();
+        int activeCount = games;
+        for(int step = 0; activeCount > 0; step++) {
+            int player = step % 2 == 0 ? 1 : 2;
+            int lastEmpty = cellCount - step - 1;
+            for(int i = 0; i < activeCount; i++) {
+                int base = activeGames[i] * cellCount;
+                int choice = base + random.nextInt(lastEmpty + 1);
+                int move = emptyCells[choice];
+                emptyCells[choice] = emptyCells[base + lastEmpty];
+                emptyCells[base + lastEmpty] = move;
+                batch.setCell(activeGames[i], move, player);
+            }
+            batch.evaluate();
+
+            int stillActive = 0;
+            for(int i = 0; i < activeCount; i++) {
+                int game = activeGames[i];
+                int winner = batch.getWinner(game);
+                if(winner == 0 && lastEmpty > 0) {
+                    activeGames[stillActive++] = game;
+                    continue;
+                }
+                result.addGame(winner);
+                if(recordWriter != null) {
+                    for(int move = 0; move <= step; move++) {
+                        moves[move] = emptyCells[game * cellCount + cellCount - 1 - move];
+                    }
+                    try {
+                        recordWriter.write(gridSize, gridSize, winLength, xAIName, oAIName, moves, step + 1, winner);
+                    } catch(IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+            activeCount = stillActive;
+        }
+        return result;
+    }
+
+    /**
+     * Plays a single game from an empty grid with X moving first.
+     *
+     * @param gameGrid The empty grid to play on.
+     * @param xAI AI playing X.
+     * @param oAI AI playing O.
+     * @return 1 if X won, 2 if O won, or 0 for a draw.
+     */
+    public static int playGame(GameGrid gameGrid, TicTacToeAI xAI, TicTacToeAI oAI) {
+        return playGame(gameGrid, xAI, oAI, null);
+    }
+
+    /**
+     * Plays a single game from an empty grid with X moving first, keeping the moves played.
+     *
+     * @param gameGrid The empty grid to play on.
+     * @param xAI AI playing X.
+     * @param oAI AI playing O.
+     * @param moves Array with space for every cell that the moves are stored in, or null to not keep them.
+     * @return 1 if X won, 2 if O won, or 0 for a draw.
+     */
+    public static int playGame(GameGrid gameGrid, TicTacToeAI xAI, TicTacToeAI oAI, int[] moves) {
+        GridCell[][] grid = gameGrid.getGrid();
+        int moveCount = 0;
+        while(true) {
+            TicTacToeAI ai = moveCount % 2 == 0 ? xAI : oAI;
+            int player = moveCount % 2 == 0 ? 1 : 2;
+            int move = ai.chooseMove(gameGrid);
+            grid[move % grid.length][move / grid.length].setCellState(player);
+            if(moves != null) moves[moveCount] = move;
+            moveCount++;
+            if(gameGrid.checkForWin(player)) return player;
+            if(gameGrid.isFull()) return 0;
+        }
+    }
+
+    /**
+     * Counts the outcomes of a set of games.
+     */
+    public static class MatchResult {
+        /**
+         * Number of games won by X.
+         */
+        private long xWins;
+        /**
+         * Number of games won by O.
+         */
+        private long oWins;
+        /**
+         * Number of games that were drawn.
+         */
+        private long draws;
+
+        /**
+         * Records the outcome of one game.
+         *
+         * @param winner 1 if X won, 2 if O won, or 0 for a draw.
+         */
+        public void addGame(int winner) {
+            if(winner == 1) xWins++;
+            else if(winner == 2) oWins++;
+            else draws++;
+        }
+
+        /**
+         * Adds the counts from another result to this one.
+         *
+         * @param other Result to add.
+         */
+        public void add(MatchResult other) {
+            xWins += other.xWins;
+            oWins += other.oWins;
+            draws += other.draws;
+        }
+
+        /**
+         * Gets the number of games won by X.
+         *
+         * @return X wins.
+         */
+        public long getXWins() {
+            return xWins;
+        }
+
+        /**
+         * Gets the number of games won by O.
+         *
+         * @return O wins.
+         */
+        public long getOWins() {
+            return oWins;
+        }
+
+        /**
+         * Gets the number of drawn games.
+         *
+         * @return Draws.
+         */
+        public long getDraws() {
+            return draws;
+        }
+
+        /**
+         * Gets the total number of games.
+         *
+         * @return Number of games recorded.
+         */
+        public long getGameCount() {
+            return xWins + oWins + draws;
+        }
+
+        /**
+         * Gets a summary of the results.
+         *
+         * @return A string in the form X wins: a, O wins: b, Draws: c
+         */
+        @Override
+        public String toString() {
+            return "X wins: " + xWins + ", O wins: " + oWins + ", Draws: " + draws;
+        }
+    }
+
+    /**
+     * Splits the games in half until each batch is small enough
+     * to play on one thread, then combines the results.
+     */
+    private class BatchTask extends RecursiveTask<MatchResult> {
+        /**
+         * Version for serialization, which ForkJoinTask supports.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Number of games in this batch.
+         */
+        private final int games;
+
+        /**
+         * Creates a batch of games.
+         *
+         * @param games Number of games in this batch.
+         */
+        public BatchTask(int games) {
+            this.games = games;
+        }
+
+        /**
+         * Plays the batch, splitting it if it is too large.
+         *
+         * @return The results for the batch.
+         */
+        @Override
+        protected MatchResult compute() {
+            if(games <= GAMES_PER_BATCH) {
+                return playGames(games);
+            }
+            BatchTask firstHalf = new BatchTask(games / 2);
+            BatchTask secondHalf = new BatchTask(games - games / 2);
+            firstHalf.fork();
+            MatchResult result = secondHalf.compute();
+            result.add(firstHalf.join());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * Tablebase class:
+ * A memory-mapped endgame tablebase written by TablebaseGenerator. It holds the
+ * result with perfect play (win, draw or loss for the player to move) of every
+ * position on one board size with at least getMinPieces() pieces on it.
+ *
+ * X always moves first, so a position with m pieces has (m+1)/2 X and m/2 O.
+ * Positions are grouped into layers by m. Within a layer the index of a position is
+ *     rank(occupied cells) * C(m, xCount) + rank(which occupied cells are X)
+ * where rank() is the combinatorial number system (colex) rank of a set:
+ * the sum of C(c_i, i) over its members c_1 < c_2 < ... This numbers the
+ * positions 0 to C(n,m)*C(m,xCount)-1 with no gaps, so each one takes only the
+ * 2 bits of its result and a probe is a single read from the mapped file.
+ *
+ * File layout:
+ * 4 byte magic (MAGIC), 1 byte version, 1 byte each for width, height,
+ * winLength and the smallest piece count covered, then one layer per piece count
+ * from a full board down to the smallest, in the order TablebaseGenerator solves
+ * them. Each layer stores 4 results per byte, first position in the low bits,
+ * padded to a whole byte.
+ */
+public class Tablebase {
+    /**
+     * Identifies the file as a tablebase ("TTTE").
+     */
+    public static final int MAGIC = 0x54545445;
+    /**
+     * Version of the file layout.
+     */
+    public static final int VERSION = 1;
+    /**
+     * Size of the header in bytes.
+     */
+    public static final int HEADER_SIZE = 9;
+    /**
+     * Largest number of cells a board can have. Sets of cells are held in a long.
+     */
+    public static final int MAX_CELLS = 62;
+    /**
+     * The player to move will lose with perfect play.
+     */
+    public static final int RESULT_LOSS = 0;
+    /**
+     * The game will be a draw with perfect play.
+     */
+    public static final int RESULT_DRAW = 1;
+    /**
+     * The player to move will win with perfect play.
+     */
+    public static final int RESULT_WIN = 2;
+    /**
+     * Stored for positions that are illegal or where the game is already over.
+     */
+    public static final int NO_ENTRY = 3;
+    /**
+     * Returned by probe() for positions with fewer pieces than the tablebase covers.
+     */
+    public static final int NOT_COVERED = -1;
+
+    /**
+     * Binomial coefficients C(n, k) for n and k up to MAX_CELLS.
+     */
+    private static final long[][] BINOMIALS = createBinomials();
+
+    /**
+     * Number of cells horizontally.
+     */
+    private final int width;
+    /**
+     * Number of cells vertically.
+     */
+    private final int height;
+    /**
+     * Number of matching cells in a row needed to win.
+     */
+    private final int winLength;
+    /**
+     * Smallest number of pieces of the positions in the tablebase.
+     */
+    private final int minPieces;
+    /**
+     * Read only view of the whole file.
+     */
+    private final MappedByteBuffer buffer;
+    /**
+     * File offset of each layer, indexed by piece count.
+     */
+    private final long[] layerOffsets;
+
+    /**
+     * Maps a tablebase file and checks that it is complete.
+     *
+     * @param path The file written by TablebaseGenerator.
+     * @return The tablebase.
+     * @throws IOException If the file cannot be read or is not a valid tablebase.
+     */
+    public static Tablebase open(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if(channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Unexpected tablebase size " + channel.size());
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.getInt(0) != MAGIC || buffer.get(4) != VERSION) {
+                throw new IOException("Not a supported tablebase: " + path);
+            }
+            int width = buffer.get(5);
+            int height = buffer.get(6);
+            int winLength = buffer.get(7);
+            int minPieces = buffer.get(8);
+            if(width < 1 || height < 1 || width * height > MAX_CELLS || winLength < 1
+                    || minPieces < 0 || minPieces > width * height) {
+                throw new IOException("Invalid tablebase header");
+            }
+            long expectedSize;
+            try {
+                expectedSize = getFileSize(width, height, minPieces);
+            } catch(ArithmeticException e) {
+                throw new IOException("Tablebase would be too large", e);
+            }
+            if(channel.size() != expectedSize) {
+                throw new IOException("Tablebase is " + channel.size() + " bytes but should be " + expectedSize);
+            }
+            return new Tablebase(width, height, winLength, minPieces, buffer);
+        }
+    }
+
+    /**
+     * Creates a tablebase over a mapped file.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     * @param minPieces Smallest number of pieces covered.
+     * @param buffer The mapped file, already checked to be the right size.
+     */
+    private Tablebase(int width, int height, int winLength, int minPieces, MappedByteBuffer buffer) {
+        int cellCount = width * height;
+        this.width = width;
+        this.height = height;
+        this.winLength = winLength;
+        this.minPieces = minPieces;
+        this.buffer = buffer;
+        layerOffsets = new long[cellCount + 1];
+        long offset = HEADER_SIZE;
+        for(int pieces = cellCount; pieces >= minPieces; pieces--) {
+            layerOffsets[pieces] = offset;
+            offset += getLayerBytes(cellCount, pieces);
+        }
+    }
+
+    /**
+     * Looks up the result of a position.
+     *
+     * @param xMask Bit i is set if cell i (x+y*width) holds an X.
+     * @param oMask Bit i is set if cell i holds an O.
+     * @return RESULT_LOSS, RESULT_DRAW or RESULT_WIN for the player to move, NO_ENTRY if the
+     *         position is illegal or finished, or NOT_COVERED if it has too few pieces.
+     */
+    public int probe(long xMask, long oMask) {
+        long occupied = xMask | oMask;
+        int pieces = Long.bitCount(occupied);
+        if(pieces < minPieces) return NOT_COVERED;
+        if((xMask & oMask) != 0 || Long.bitCount(xMask) != getXCount(pieces)) return NO_ENTRY;
+        long index = getIndex(occupied, xMask);
+        int packed = buffer.get((int) (layerOffsets[pieces] + (index >>> 2)));
+        return (packed >>> ((int) (index & 3) * 2)) & 3;
+    }
+
+    /**
+     * Checks if positions with a number of pieces are in the tablebase.
+     *
+     * @param pieces Number of pieces on the board.
+     * @return True if probe() will not return NOT_COVERED for them.
+     */
+    public boolean covers(int pieces) {
+        return pieces >= minPieces;
+    }
+
+    /**
+     * Gets the number of cells horizontally.
+     *
+     * @return The width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the number of cells vertically.
+     *
+     * @return The height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of matching cells in a row needed to win.
+     *
+     * @return The win length.
+     */
+    public int getWinLength() {
+        return winLength;
+    }
+
+    /**
+     * Gets the smallest number of pieces of the positions in the tablebase.
+     *
+     * @return 0 if every position is covered.
+     */
+    public int getMinPieces() {
+        return minPieces;
+    }
+
+    /**
+     * Gets the index of a position within its layer.
+     *
+     * @param occupied Set of cells holding a piece.
+     * @param xMask Set of cells holding an X. Must be a subset of occupied.
+     * @return The index, from 0 to getLayerSize()-1.
+     */
+    static long getIndex(long occupied, long xMask) {
+        long occupiedRank = 0;
+        long xRank = 0;
+        int occupiedCount = 0;
+        int xCount = 0;
+        for(long remaining = occupied; remaining != 0; remaining &= remaining - 1) {
+            int cell = Long.numberOfTrailingZeros(remaining);
+            occupiedRank += BINOMIALS[cell][++occupiedCount];
+            if((xMask & (1L << cell)) != 0) {
+                xRank += BINOMIALS[occupiedCount - 1][++xCount];
+            }
+        }
+        return occupiedRank * BINOMIALS[occupiedCount][xCount] + xRank;
+    }
+
+    /**
+     * Finds the set with a colex rank, the inverse of the rank used by getIndex().
+     *
+     * @param rank The rank, less than C(n, size) for the number of possible members n.
+     * @param size Number of members in the set.
+     * @return The set as a bit mask.
+     */
+    static long unrank(long rank, int size) {
+        long mask = 0;
+        int member = MAX_CELLS;
+        for(int i = size; i > 0; i--) {
+            while(BINOMIALS[member][i] > rank) member--;
+            rank -= BINOMIALS[member][i];
+            mask |= 1L << member;
+        }
+        return mask;
+    }
+
+    /**
+     * Gets the number of X pieces in a legal position.
+     *
+     * @param pieces Number of pieces on the board.
+     * @return The number of X, which moves first.
+     */
+    static int getXCount(int pieces) {
+        return (pieces + 1) / 2;
+    }
+
+    /**
+     * Gets the number of positions with a number of pieces.
+     *
+     * @param cellCount Number of cells on the board.
+     * @param pieces Number of pieces on the board.
+     * @return C(cellCount, pieces) * C(pieces, xCount).
+     * @throws ArithmeticException If the size does not fit in a long.
+     */
+    static long getLayerSize(int cellCount, int pieces) {
+        return Math.multiplyExact(BINOMIALS[cellCount][pieces], BINOMIALS[pieces][getXCount(pieces)]);
+    }
+
+    /**
+     * Gets the number of bytes a layer takes in the file.
+     *
+     * @param cellCount Number of cells on the board.
+     * @param pieces Number of pieces on the board.
+     * @return The packed size of the layer.
+     */
+    static long getLayerBytes(int cellCount, int pieces) {
+        return (getLayerSize(cellCount, pieces) + 3) / 4;
+    }
+
+    /**
+     * Gets the size of a tablebase file.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param minPieces Smallest number of pieces covered.
+     * @return The file size in bytes.
+     */
+    static long getFileSize(int width, int height, int minPieces) {
+        long size = HEADER_SIZE;
+        for(int pieces = minPieces; pieces <= width * height; pieces++) {
+            size += getLayerBytes(width * height, pieces);
+        }
+        return size;
+    }
+
+    /**
+     * Gets a binomial coefficient.
+     *
+     * @param n Number of items, up to MAX_CELLS.
+     * @param k Number chosen.
+     * @return C(n, k), or 0 if k is more than n.
+     */
+    static long binomial(int n, int k) {
+        return BINOMIALS[n][k];
+    }
+
+    /**
+     * Finds every line of winLength cells on a board.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     * @return One mask per line with a bit set for each of its cells.
+     */
+    static long[] createLineMasks(int width, int height, int winLength) {
+        int[][] directions = {{1,0},{0,1},{1,1},{1,-1}};
+        long[] lines = new long[4 * width * height];
+        int lineCount = 0;
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                for(int[] direction : directions) {
+                    int endX = x + direction[0] * (winLength - 1);
+                    int endY = y + direction[1] * (winLength - 1);
+                    if(endX < 0 || endX >= width || endY < 0 || endY >= height) continue;
+                    long line = 0;
+                    for(int i = 0; i < winLength; i++) {
+                        line |= 1L << (x + direction[0] * i + (y + direction[1] * i) * width);
+                    }
+                    lines[lineCount++] = line;
+                }
+            }
+        }
+        return Arrays.copyOf(lines, lineCount);
+    }
+
+    /**
+     * Checks if a set of cells contains a whole line.
+     *
+     * @param lines Line masks from createLineMasks().
+     * @param mask The cells held by one player.
+     * @return True if the player has won.
+     */
+    static boolean hasLine(long[] lines, long mask) {
+        for(long line : lines) {
+            if((mask & line) == line) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds Pascal's triangle up to MAX_CELLS.
+     *
+     * @return The binomial coefficients, with C(n, k) = 0 for k > n.
+     */
+    private static long[][] createBinomials() {
+        long[][] binomials = new long[MAX_CELLS + 1][MAX_CELLS + 2];
+        for(int n = 0; n <= MAX_CELLS; n++) {
+            binomials[n][0] = 1;
+            for(int k = 1; k <= n; k++) {
+                binomials[n][k] = binomials[n - 1][k - 1] + binomials[n - 1][k];
+            }
+        }
+        return binomials;
+    }
+}
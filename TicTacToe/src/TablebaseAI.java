@@ -0,0 +1,307 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * TablebaseAI class:
+ * An AI Behaviour that plays perfectly, without searching, in any position covered
+ * by a Tablebase for its board size. Each move is scored by probing the position it
+ * leads to, which is a single read from the memory-mapped file. Winning moves that
+ * finish the game straight away are preferred, and ties go to the cell on the most lines.
+ *
+ * The tablebase is loaded from TablebaseGenerator.getDefaultPath(). If it does not
+ * exist and the whole board can be covered (4x4 and smaller) it is generated on a
+ * background thread, so creating the AI never waits for it. Otherwise it must be made
+ * beforehand with TablebaseGenerator. Positions with too few pieces to be covered,
+ * boards without a tablebase, and every position while the tablebase is being
+ * generated fall back to AlphaBetaAI.
+ */
+public class TablebaseAI implements TicTacToeAI, SearchStatistics {
+    /**
+     * Time allowed for each move by the fallback AI in milliseconds when none is given.
+     */
+    public static final long DEFAULT_FALLBACK_MILLIS = 1000;
+    /**
+     * Tablebases that have been loaded, shared by every instance.
+     */
+    private static final Map<Path, Tablebase> LOADED = new HashMap<>();
+    /**
+     * Paths of tablebases that are being generated in the background, or that failed to generate.
+     */
+    private static final Set<Path> GENERATING = new HashSet<>();
+
+    /**
+     * Reference to the GameGrid for evaluation and playing the turn.
+     */
+    private GameGrid gameGrid;
+    /**
+     * 1 for X or 2 for O representing the one that is being
+     * played by this player.
+     */
+    private int playAs;
+    /**
+     * The tablebase to probe, or null if there is not one for this board or it is not ready.
+     */
+    private Tablebase tablebase;
+    /**
+     * Location of the tablebase while it is being generated, otherwise null.
+     */
+    private Path pendingPath;
+    /**
+     * Every winning line as a mask of cells, used to find moves that win straight away.
+     */
+    private long[] lines;
+    /**
+     * Number of winning lines through each cell, used to break ties.
+     */
+    private int[] cellValues;
+    /**
+     * AI used for positions the tablebase does not cover.
+     */
+    private AlphaBetaAI fallbackAI;
+    /**
+     * Number of positions probed.
+     */
+    private long probeCount;
+    /**
+     * Number of probes that found a result.
+     */
+    private long hitCount;
+    /**
+     * Result of the last chooseMove(), or null if there has not been one.
+     */
+    private SearchResult lastResult;
+
+    /**
+     * Initialises the AI ready to takeTurn()s with a fallback that thinks for DEFAULT_FALLBACK_MILLIS.
+     *
+     * @param gameGrid Reference to the GameGrid for evaluation and playing the turns.
+     * @param isX If true the AI will play as X, otherwise will play as O.
+     */
+    public TablebaseAI(GameGrid gameGrid, boolean isX) {
+        this(gameGrid, isX, DEFAULT_FALLBACK_MILLIS);
+    }
+
+    /**
+     * Initialises the AI ready to takeTurn()s.
+     *
+     * @param gameGrid Reference to the GameGrid for evaluation and playing the turns.
+     * @param isX If true the AI will play as X, otherwise will play as O.
+     * @param fallbackMillis Time allowed for each move outside the tablebase, or 0 for no limit.
+     */
+    public TablebaseAI(GameGrid gameGrid, boolean isX, long fallbackMillis) {
+        this.gameGrid = gameGrid;
+        playAs = isX ? 1 : 2;
+        fallbackAI = new AlphaBetaAI(gameGrid, isX, fallbackMillis);
+        Bitboard bitboard = gameGrid.getBitboard();
+        int width = bitboard.getWidth();
+        int height = bitboard.getHeight();
+        if(width * height <= Tablebase.MAX_CELLS) {
+            lines = Tablebase.createLineMasks(width, height, bitboard.getWinLength());
+            cellValues = new int[width * height];
+            for(long line : lines) {
+                for(long remaining = line; remaining != 0; remaining &= remaining - 1) {
+                    cellValues[Long.numberOfTrailingZeros(remaining)]++;
+                }
+            }
+            try {
+                tablebase = loadTablebase(width, height, bitboard.getWinLength());
+                if(tablebase == null) {
+                    pendingPath = TablebaseGenerator.getDefaultPath(width, height, bitboard.getWinLength());
+                }
+            } catch(IOException e) {
+                System.err.println("Tablebase unavailable, using search instead: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Plays the move from chooseMove().
+     */
+    @Override
+    public void takeTurn() {
+        int move = chooseMove(gameGrid);
+        int gridWidth = gameGrid.getGrid().length;
+        gameGrid.getGrid()[move % gridWidth][move / gridWidth].setCellState(playAs);
+    }
+
+    /**
+     * Chooses the best move from the tablebase, or from the fallback AI if
+     * the position is not covered.
+     *
+     * @param gameGrid The game state to choose a move for.
+     * @return The cell index (x+y*gridWidth) of the chosen move.
+     */
+    @Override
+    public int chooseMove(GameGrid gameGrid) {
+        if(tablebase == null && pendingPath != null) {
+            tablebase = getLoadedTablebase(pendingPath); // Picks up a tablebase that has finished generating
+            if(tablebase != null) pendingPath = null;
+        }
+        if(tablebase != null) {
+            Bitboard bitboard = gameGrid.getBitboard();
+            long xMask = 0;
+            long oMask = 0;
+            for(int i = 0; i < bitboard.getCellCount(); i++) {
+                int state = bitboard.getState(i);
+                if(state == 1) xMask |= 1L << i;
+                else if(state == 2) oMask |= 1L << i;
+            }
+            int move = chooseTablebaseMove(xMask, oMask);
+            if(move != -1) return move;
+        }
+        int move = fallbackAI.chooseMove(gameGrid);
+        lastResult = fallbackAI.getLastResult();
+        return move;
+    }
+
+    /**
+     * Gets the result of the last chooseMove(). Moves from the tablebase score
+     * 1 for a win, 0 for a draw and -1 for a loss, and count each probe as a node.
+     *
+     * @return The last result, or null if no move has been chosen.
+     */
+    @Override
+    public SearchResult getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * Gets the number of tablebase probes plus the fallback AI's cache probes.
+     *
+     * @return Total probes.
+     */
+    @Override
+    public long getCacheProbes() {
+        return probeCount + fallbackAI.getCacheProbes();
+    }
+
+    /**
+     * Gets the number of tablebase probes that found a result plus the fallback AI's cache hits.
+     *
+     * @return Total hits.
+     */
+    @Override
+    public long getCacheHits() {
+        return hitCount + fallbackAI.getCacheHits();
+    }
+
+    /**
+     * Scores every move by probing the position after it.
+     *
+     * @param xMask Set of cells holding an X.
+     * @param oMask Set of cells holding an O.
+     * @return The best move, or -1 if the position is not covered or it is not this AI's turn.
+     */
+    private int chooseTablebaseMove(long xMask, long oMask) {
+        long occupied = xMask | oMask;
+        int pieces = Long.bitCount(occupied);
+        boolean xToMove = pieces % 2 == 0;
+        if(!tablebase.covers(pieces) || xToMove != (playAs == 1)) return -1;
+        long ourMask = xToMove ? xMask : oMask;
+
+        int bestMove = -1;
+        int bestRank = -1;
+        int bestResult = 0;
+        int probes = 0;
+        long empty = ~occupied & ((1L << cellValues.length) - 1);
+        for(; empty != 0; empty &= empty - 1) {
+            int move = Long.numberOfTrailingZeros(empty);
+            long moveBit = 1L << move;
+            int childResult = xToMove ? tablebase.probe(xMask | moveBit, oMask) : tablebase.probe(xMask, oMask | moveBit);
+            probes++;
+            probeCount++;
+            if(childResult < 0 || childResult == Tablebase.NO_ENTRY) return -1; // The position itself is over or illegal
+            hitCount++;
+            // The child is scored for the opponent, so their loss is our win
+            int result = childResult == Tablebase.RESULT_LOSS ? 1 : childResult == Tablebase.RESULT_DRAW ? 0 : -1;
+            int rank = (result + 1) * 2 + (result == 1 && Tablebase.hasLine(lines, ourMask | moveBit) ? 1 : 0);
+            rank = rank * 64 + cellValues[move];
+            if(rank > bestRank) {
+                bestRank = rank;
+                bestMove = move;
+                bestResult = result;
+            }
+        }
+        if(bestMove != -1) {
+            lastResult = new SearchResult(bestMove, bestResult, cellValues.length - pieces, probes, false);
+        }
+        return bestMove;
+    }
+
+    /**
+     * Loads the tablebase for a board size, or starts generating it on a background
+     * thread if it is missing and small enough. Each tablebase is only mapped once.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     * @return The tablebase, or null if it is being generated.
+     * @throws IOException If the tablebase is missing and too large to generate, or is for a different board.
+     */
+    private static synchronized Tablebase loadTablebase(int width, int height, int winLength) throws IOException {
+        Path path = TablebaseGenerator.getDefaultPath(width, height, winLength);
+        Tablebase tablebase = LOADED.get(path);
+        if(tablebase != null || GENERATING.contains(path)) return tablebase;
+        if(Files.exists(path)) {
+            tablebase = openTablebase(path, width, height, winLength);
+            LOADED.put(path, tablebase);
+            return tablebase;
+        }
+        if(TablebaseGenerator.getDefaultMaxEmpty(width, height) < width * height) {
+            throw new IOException(path + " does not exist, create it with TablebaseGenerator");
+        }
+        GENERATING.add(path);
+        Thread generator = new Thread(() -> {
+            try {
+                TablebaseGenerator.generate(path, width, height, winLength, width * height);
+                Tablebase generated = openTablebase(path, width, height, winLength);
+                synchronized(TablebaseAI.class) {
+                    LOADED.put(path, generated);
+                    GENERATING.remove(path);
+                }
+            } catch(IOException e) {
+                // Left in GENERATING so that it is not tried again
+                System.err.println("Tablebase unavailable, using search instead: " + e.getMessage());
+            }
+        }, "TablebaseGenerator");
+        generator.setDaemon(true);
+        generator.start();
+        return null;
+    }
+
+    /**
+     * Gets a tablebase that has finished generating.
+     *
+     * @param path Location of the tablebase.
+     * @return The tablebase, or null if it is not ready.
+     */
+    private static synchronized Tablebase getLoadedTablebase(Path path) {
+        return LOADED.get(path);
+    }
+
+    /**
+     * Opens a tablebase and checks it is for the expected board.
+     *
+     * @param path Location of the tablebase.
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     * @return The tablebase.
+     * @throws IOException If the tablebase cannot be read or is for a different board.
+     */
+    private static Tablebase openTablebase(Path path, int width, int height, int winLength) throws IOException {
+        Tablebase tablebase = Tablebase.open(path);
+        if(tablebase.getWidth() != width || tablebase.getHeight() != height || tablebase.getWinLength() != winLength) {
+            throw new IOException(path + " is for a different board");
+        }
+        return tablebase;
+    }
+}
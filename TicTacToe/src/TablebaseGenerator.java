@@ -0,0 +1,357 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * TablebaseGenerator class:
+ * Builds a Tablebase by retrograde analysis. Every move adds a piece, so a position
+ * with m pieces only leads to positions with m+1. Starting from the full board,
+ * where every position is already decided, each layer is solved from the results
+ * of the layer after it:
+ *
+ *  - if the player that just moved has a line, the player to move has lost,
+ *  - if the player to move has a line too, or instead, the position cannot happen,
+ *  - otherwise the player to move wins if any move leaves the opponent in a lost
+ *    position, draws if any move leaves a draw, and loses if not.
+ *
+ * No position is visited more than once, unlike a forward search. Each layer is
+ * split across the ForkJoinPool by ranges of occupied cell sets, and only two
+ * layers are held in memory at once (one byte per position). Each layer is packed
+ * into 2 bits per position and written as soon as it is solved.
+ *
+ * Covering every position is practical up to 4x4 (about 10 million positions,
+ * 2.6MB). Larger boards can be covered for the last few moves of the game with
+ * maxEmpty, the largest number of empty cells to include.
+ *
+ * Interrupting the thread that called generate() stops it after the current
+ * positions, and no file is written.
+ *
+ * Usage: TablebaseGenerator width height winLength [maxEmpty] [path]
+ */
+public class TablebaseGenerator {
+    /**
+     * Largest number of positions in a single layer, so it fits in a byte array.
+     */
+    public static final long MAX_LAYER_SIZE = Integer.MAX_VALUE - 8;
+    /**
+     * Largest total number of positions used by getDefaultMaxEmpty().
+     */
+    public static final long DEFAULT_MAX_POSITIONS = 1L << 28;
+    /**
+     * Tasks covering fewer positions than this are not split any further.
+     */
+    private static final long SPLIT_THRESHOLD = 1 << 14;
+
+    /**
+     * Number of cells on the board.
+     */
+    private final int cellCount;
+    /**
+     * Every winning line as a mask of cells.
+     */
+    private final long[] lines;
+    /**
+     * Results of the layer being solved, one byte per position.
+     */
+    private byte[] layer;
+    /**
+     * Results of the layer with one more piece, one byte per position.
+     */
+    private byte[] nextLayer;
+    /**
+     * Set when the thread that called generate() is interrupted, so the tasks on the pool stop.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Generates a tablebase from the command line arguments.
+     *
+     * @param args width height winLength [maxEmpty] [path]
+     * @throws IOException If the tablebase could not be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 3) {
+            System.out.println("Usage: TablebaseGenerator width height winLength [maxEmpty] [path]");
+            return;
+        }
+        int width = Integer.parseInt(args[0]);
+        int height = Integer.parseInt(args[1]);
+        int winLength = Integer.parseInt(args[2]);
+        int maxEmpty = args.length > 3 ? Integer.parseInt(args[3]) : getDefaultMaxEmpty(width, height);
+        Path path = args.length > 4 ? Paths.get(args[4]) : getDefaultPath(width, height, winLength);
+        long startTime = System.nanoTime();
+        generate(path, width, height, winLength, maxEmpty);
+        System.out.printf("Wrote tablebase with up to %d empty cells to %s (%d bytes) in %.2f s%n", maxEmpty,
+                path.toAbsolutePath(), Files.size(path), (System.nanoTime() - startTime) / 1e9);
+    }
+
+    /**
+     * Gets the file name TablebaseAI looks for a board size in.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     * @return A path such as tablebase_4x4_4.bin in the working directory.
+     */
+    public static Path getDefaultPath(int width, int height, int winLength) {
+        return Paths.get("tablebase_" + width + "x" + height + "_" + winLength + ".bin");
+    }
+
+    /**
+     * Finds how many moves from the end of the game can be covered with at most
+     * DEFAULT_MAX_POSITIONS positions.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @return The largest maxEmpty to use, or -1 if not even full boards fit.
+     */
+    public static int getDefaultMaxEmpty(int width, int height) {
+        int cellCount = width * height;
+        long total = 0;
+        for(int empty = 0; empty <= cellCount; empty++) {
+            long layerSize = Tablebase.getLayerSize(cellCount, cellCount - empty);
+            if(layerSize > MAX_LAYER_SIZE || (total += layerSize) > DEFAULT_MAX_POSITIONS) {
+                return empty - 1;
+            }
+        }
+        return cellCount;
+    }
+
+    /**
+     * Solves every position with up to maxEmpty empty cells and writes the tablebase.
+     * The file is written to a temporary file first and then moved into place.
+     *
+     * @param path Where to write the tablebase.
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     * @param maxEmpty Largest number of empty cells of the positions to include.
+     * @throws IOException If the tablebase could not be written.
+     * @throws InterruptedIOException If the calling thread was interrupted.
+     * @throws IllegalArgumentException If the board is too big or a layer would have too many positions.
+     */
+    public static void generate(Path path, int width, int height, int winLength, int maxEmpty) throws IOException {
+        int cellCount = width * height;
+        if(width < 1 || height < 1 || cellCount > Tablebase.MAX_CELLS || winLength < 1
+                || maxEmpty < 0 || maxEmpty > cellCount) {
+            throw new IllegalArgumentException("Invalid tablebase size");
+        }
+        int minPieces = cellCount - maxEmpty;
+        for(int pieces = minPieces; pieces <= cellCount; pieces++) {
+            long layerSize;
+            try {
+                layerSize = Tablebase.getLayerSize(cellCount, pieces);
+            } catch(ArithmeticException e) {
+                layerSize = Long.MAX_VALUE;
+            }
+            if(layerSize > MAX_LAYER_SIZE) {
+                throw new IllegalArgumentException("Too many positions with " + pieces + " pieces, use a smaller maxEmpty");
+            }
+        }
+
+        TablebaseGenerator generator = new TablebaseGenerator(width, height, winLength);
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath), 1 << 16))) {
+            out.writeInt(Tablebase.MAGIC);
+            out.writeByte(Tablebase.VERSION);
+            out.writeByte(width);
+            out.writeByte(height);
+            out.writeByte(winLength);
+            out.writeByte(minPieces);
+            for(int pieces = cellCount; pieces >= minPieces; pieces--) {
+                generator.solveLayer(pieces);
+                out.write(pack(generator.layer));
+            }
+        } catch(IOException | RuntimeException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Prepares to solve a board size.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     */
+    private TablebaseGenerator(int width, int height, int winLength) {
+        cellCount = width * height;
+        lines = Tablebase.createLineMasks(width, height, winLength);
+    }
+
+    /**
+     * Solves every position with a number of pieces in parallel. The layer
+     * with one more piece must have been solved by the previous call.
+     *
+     * The calling thread waits on a latch rather than joining the task, so it
+     * does not run tasks itself and always sees its interrupt straight away.
+     *
+     * @param pieces Number of pieces in the layer to solve.
+     * @throws InterruptedIOException If the calling thread was interrupted. The tasks have stopped when this is thrown.
+     */
+    private void solveLayer(int pieces) throws InterruptedIOException {
+        nextLayer = layer;
+        layer = new byte[(int) Tablebase.getLayerSize(cellCount, pieces)];
+        LayerTask task = new LayerTask(pieces, 0, Tablebase.binomial(cellCount, pieces));
+        if(ForkJoinTask.inForkJoinPool()) {
+            ForkJoinPool.commonPool().invoke(task); // Pool threads are not interrupted, and must not block
+            return;
+        }
+        CountDownLatch finished = new CountDownLatch(1);
+        ForkJoinPool.commonPool().execute(() -> {
+            try {
+                task.quietlyInvoke();
+            } finally {
+                finished.countDown();
+            }
+        });
+        try {
+            finished.await();
+        } catch(InterruptedException e) {
+            cancelled = true;
+            task.quietlyJoin();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Tablebase generation was interrupted");
+        }
+        task.join(); // Rethrows anything the tasks threw
+    }
+
+    /**
+     * Solves the positions for a range of occupied cell sets in one layer.
+     */
+    private class LayerTask extends RecursiveAction {
+        /**
+         * Version for serialization, which ForkJoinTask supports.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Number of pieces in the layer.
+         */
+        private final int pieces;
+        /**
+         * Colex rank of the first occupied set to solve.
+         */
+        private final long fromRank;
+        /**
+         * Colex rank after the last occupied set to solve.
+         */
+        private final long toRank;
+
+        /**
+         * Creates a task for a range of occupied sets.
+         *
+         * @param pieces Number of pieces in the layer.
+         * @param fromRank Rank of the first occupied set.
+         * @param toRank Rank after the last occupied set.
+         */
+        public LayerTask(int pieces, long fromRank, long toRank) {
+            this.pieces = pieces;
+            this.fromRank = fromRank;
+            this.toRank = toRank;
+        }
+
+        /**
+         * Splits the range in half until it is small, then solves it.
+         */
+        @Override
+        protected void compute() {
+            long xArrangements = Tablebase.binomial(pieces, Tablebase.getXCount(pieces));
+            if(toRank - fromRank > 1 && (toRank - fromRank) * xArrangements > SPLIT_THRESHOLD) {
+                long middle = (fromRank + toRank) >>> 1;
+                invokeAll(new LayerTask(pieces, fromRank, middle), new LayerTask(pieces, middle, toRank));
+                return;
+            }
+            int xCount = Tablebase.getXCount(pieces);
+            int[] cells = new int[pieces];
+            long occupied = Tablebase.unrank(fromRank, pieces);
+            for(long rank = fromRank; rank < toRank; rank++) {
+                if(cancelled) return; // generate() will not write the layer
+                int cellIndex = 0;
+                for(long remaining = occupied; remaining != 0; remaining &= remaining - 1) {
+                    cells[cellIndex++] = Long.numberOfTrailingZeros(remaining);
+                }
+                // X positions are each subset of xCount of the occupied cells, in colex order
+                int index = (int) (rank * xArrangements);
+                for(long subset = (1L << xCount) - 1; subset < (1L << pieces); subset = nextSubset(subset)) {
+                    long xMask = 0;
+                    for(long remaining = subset; remaining != 0; remaining &= remaining - 1) {
+                        xMask |= 1L << cells[Long.numberOfTrailingZeros(remaining)];
+                    }
+                    layer[index++] = (byte) solve(occupied, xMask, pieces);
+                    if(subset == 0) break; // The only subset of size 0
+                }
+                if(occupied != 0) occupied = nextSubset(occupied);
+            }
+        }
+    }
+
+    /**
+     * Solves one position using the results of the layer with one more piece.
+     *
+     * @param occupied Set of cells holding a piece.
+     * @param xMask Set of cells holding an X.
+     * @param pieces Number of pieces on the board.
+     * @return The result for the player to move, or NO_ENTRY.
+     */
+    private int solve(long occupied, long xMask, int pieces) {
+        long oMask = occupied & ~xMask;
+        boolean xToMove = pieces % 2 == 0;
+        long moverMask = xToMove ? xMask : oMask;
+        long lastMoverMask = xToMove ? oMask : xMask;
+        if(Tablebase.hasLine(lines, moverMask)) return Tablebase.NO_ENTRY;
+        if(Tablebase.hasLine(lines, lastMoverMask)) return Tablebase.RESULT_LOSS;
+        if(pieces == cellCount) return Tablebase.RESULT_DRAW;
+
+        int best = Tablebase.RESULT_LOSS;
+        long empty = ~occupied & ((1L << cellCount) - 1);
+        for(; empty != 0; empty &= empty - 1) {
+            long move = empty & -empty;
+            long childX = xToMove ? xMask | move : xMask;
+            int childResult = nextLayer[(int) Tablebase.getIndex(occupied | move, childX)];
+            if(childResult == Tablebase.RESULT_LOSS) return Tablebase.RESULT_WIN;
+            if(childResult == Tablebase.RESULT_DRAW) best = Tablebase.RESULT_DRAW;
+        }
+        return best;
+    }
+
+    /**
+     * Gets the next larger number with the same number of bits set (Gosper's hack),
+     * which steps through sets of one size in colex order.
+     *
+     * @param subset The current set. Must not be 0.
+     * @return The next set.
+     */
+    private static long nextSubset(long subset) {
+        long lowest = subset & -subset;
+        long ripple = subset + lowest;
+        return ripple | (((subset ^ ripple) >>> 2) / lowest);
+    }
+
+    /**
+     * Packs one result per byte into 4 results per byte, first in the low bits.
+     *
+     * @param results The results to pack.
+     * @return The packed results.
+     */
+    private static byte[] pack(byte[] results) {
+        byte[] packed = new byte[(results.length + 3) / 4];
+        for(int i = 0; i < results.length; i++) {
+            packed[i >> 2] |= (byte) (results[i] << ((i & 3) * 2));
+        }
+        return packed;
+    }
+}
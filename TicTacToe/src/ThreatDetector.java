@@ -0,0 +1,220 @@
+import java.util.Arrays;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * ThreatDetector class:
+ * Finds the moves that decide a game without searching it. A threat is an empty
+ * cell that would complete a line of winLength for a player, so:
+ *
+ *  - if the player to move has a threat they can win now,
+ *  - if not, and the opponent has a threat, it must be blocked,
+ *  - if the opponent has two threats on different cells only one can be blocked, so the game is lost,
+ *  - a move that gives the player to move two threats (a fork) while leaving the
+ *    opponent with none wins, as the opponent can only block one of them.
+ *
+ * Boards are read from an int[] of cells indexed x+y*width where 0 is empty and
+ * any other value belongs to a player, so both the 1/2 values of SearchBoard and
+ * the 1/-1 values used by MinimaxAI work. Every line of winLength is precomputed
+ * so a scan reads each line once and stops reading it at the first opposing piece.
+ * The lines through each cell are indexed too, so a search that knows which move
+ * was just played can check only the lines that move could have changed.
+ * Nothing is allocated after construction. findForkMove() and findForcedMove() use
+ * a scratch board, so they must not be called by several threads at once on one
+ * instance, but the other methods only read the board they are given.
+ */
+public class ThreatDetector {
+    /**
+     * Direction offsets (dx, dy) for the four lines that pass through a cell:
+     * horizontal, vertical, and the two diagonals.
+     */
+    private static final int[][] LINE_DIRECTIONS = {{1,0},{0,1},{1,1},{1,-1}};
+
+    /**
+     * Number of matching cells in a row needed to win.
+     */
+    private final int winLength;
+    /**
+     * Cells of every line. Line i occupies [i*winLength, (i+1)*winLength).
+     */
+    private final int[] lineCells;
+    /**
+     * Start in lineCells of every line through each cell. The lines through
+     * cell c are cellLines[cellLineOffsets[c]] to cellLines[cellLineOffsets[c+1]-1].
+     */
+    private final int[] cellLines;
+    /**
+     * Where the lines through each cell start in cellLines, with one extra entry for the end.
+     */
+    private final int[] cellLineOffsets;
+    /**
+     * Copy of the board that findForkMove() can play moves on.
+     */
+    private final int[] scratchBoard;
+
+    /**
+     * Precomputes the lines for a board size.
+     *
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param winLength Number of matching cells in a row needed to win.
+     */
+    public ThreatDetector(int width, int height, int winLength) {
+        this.winLength = winLength;
+        int[] lines = new int[4 * width * height * winLength];
+        int lineCount = 0;
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                for(int[] direction : LINE_DIRECTIONS) {
+                    int endX = x + direction[0] * (winLength - 1);
+                    int endY = y + direction[1] * (winLength - 1);
+                    if(endX < 0 || endX >= width || endY < 0 || endY >= height) continue;
+                    for(int i = 0; i < winLength; i++) {
+                        lines[lineCount * winLength + i] = (x + direction[0] * i) + (y + direction[1] * i) * width;
+                    }
+                    lineCount++;
+                }
+            }
+        }
+        lineCells = Arrays.copyOf(lines, lineCount * winLength);
+        scratchBoard = new int[width * height];
+
+        cellLineOffsets = new int[width * height + 1];
+        for(int cell : lineCells) {
+            cellLineOffsets[cell + 1]++;
+        }
+        for(int cell = 0; cell < width * height; cell++) {
+            cellLineOffsets[cell + 1] += cellLineOffsets[cell];
+        }
+        cellLines = new int[lineCells.length];
+        int[] nextLine = Arrays.copyOf(cellLineOffsets, width * height);
+        for(int i = 0; i < lineCells.length; i++) {
+            cellLines[nextLine[lineCells[i]]++] = i - i % winLength;
+        }
+    }
+
+    /**
+     * Finds a cell that would complete a line for a player.
+     *
+     * @param cells The board, with 0 for empty cells.
+     * @param player The value of the player's pieces on the board.
+     * @return The cell index, or -1 if the player cannot win with one move.
+     */
+    public int findWinningMove(int[] cells, int player) {
+        return findWinningMove(cells, player, -1);
+    }
+
+    /**
+     * Finds a cell other than one already known that would complete a line for a player.
+     * Calling this with the result of findWinningMove() checks if there is a second threat.
+     *
+     * @param cells The board, with 0 for empty cells.
+     * @param player The value of the player's pieces on the board.
+     * @param excludedCell A cell to ignore, or -1 for none.
+     * @return The cell index, or -1 if there is no other winning cell.
+     */
+    public int findWinningMove(int[] cells, int player, int excludedCell) {
+        for(int start = 0; start < lineCells.length; start += winLength) {
+            int emptyCell = findEmptyCellToComplete(cells, player, start);
+            if(emptyCell != -1 && emptyCell != excludedCell) {
+                return emptyCell;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds a cell that would complete a line through a given cell for a player.
+     * If the player had no threats before playing that cell, these are the only
+     * threats they can have after it, so this finds the same cells as
+     * findWinningMove() while reading only the lines through the cell.
+     *
+     * @param cells The board, with 0 for empty cells.
+     * @param player The value of the player's pieces on the board.
+     * @param throughCell Only lines through this cell are checked.
+     * @param excludedCell A cell to ignore, or -1 for none.
+     * @return The cell index, or -1 if there is no such cell.
+     */
+    public int findWinningMoveThrough(int[] cells, int player, int throughCell, int excludedCell) {
+        for(int i = cellLineOffsets[throughCell]; i < cellLineOffsets[throughCell + 1]; i++) {
+            int emptyCell = findEmptyCellToComplete(cells, player, cellLines[i]);
+            if(emptyCell != -1 && emptyCell != excludedCell) {
+                return emptyCell;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if one line is a single empty cell away from being completed by a player.
+     *
+     * @param cells The board, with 0 for empty cells.
+     * @param player The value of the player's pieces on the board.
+     * @param start Start of the line in lineCells.
+     * @return The empty cell, or -1 if the line is blocked or missing more than one cell.
+     */
+    private int findEmptyCellToComplete(int[] cells, int player, int start) {
+        int emptyCell = -1;
+        int end = start + winLength;
+        for(int i = start; i < end; i++) {
+            int cell = lineCells[i];
+            int value = cells[cell];
+            if(value == player) continue;
+            if(value != 0 || emptyCell != -1) return -1; // Blocked, or more than one cell missing
+            emptyCell = cell;
+        }
+        return emptyCell;
+    }
+
+    /**
+     * Counts the different cells that would complete a line for a player, up to two.
+     *
+     * @param cells The board, with 0 for empty cells.
+     * @param player The value of the player's pieces on the board.
+     * @return 0, 1, or 2 for two or more.
+     */
+    public int countThreats(int[] cells, int player) {
+        int first = findWinningMove(cells, player, -1);
+        if(first == -1) return 0;
+        return findWinningMove(cells, player, first) == -1 ? 1 : 2;
+    }
+
+    /**
+     * Finds a move that gives a player two threats on different cells while
+     * leaving the opponent without one. Assumes neither player can win straight away.
+     *
+     * @param cells The board, with 0 for empty cells. Not changed.
+     * @param player The value of the player's pieces on the board.
+     * @param opponent The value of the opponent's pieces on the board.
+     * @return The cell index, or -1 if there is no fork.
+     */
+    public int findForkMove(int[] cells, int player, int opponent) {
+        System.arraycopy(cells, 0, scratchBoard, 0, scratchBoard.length);
+        for(int move = 0; move < scratchBoard.length; move++) {
+            if(scratchBoard[move] != 0) continue;
+            scratchBoard[move] = player;
+            boolean isFork = countThreats(scratchBoard, player) == 2 && findWinningMove(scratchBoard, opponent) == -1;
+            scratchBoard[move] = 0;
+            if(isFork) return move;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds a move that must be played: a win, a block of the opponent's win,
+     * or a fork. Searching any other move can only do worse.
+     *
+     * @param cells The board, with 0 for empty cells. Not changed.
+     * @param player The value of the pieces of the player to move.
+     * @param opponent The value of the opponent's pieces.
+     * @return The forced move, or -1 if the position needs to be searched.
+     */
+    public int findForcedMove(int[] cells, int player, int opponent) {
+        int move = findWinningMove(cells, player);
+        if(move != -1) return move;
+        move = findWinningMove(cells, opponent);
+        if(move != -1) return move;
+        return findForkMove(cells, player, opponent);
+    }
+}
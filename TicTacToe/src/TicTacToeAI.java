@@ -5,10 +5,22 @@
  * TicTacToeAI interface:
  * Used to define any AI behaviour that all have a takeTurn().
  * This should take the current game state and make a single move on the board.
+ * chooseMove() does the same thinking without playing the move so that it can be
+ * run against a snapshot of the game, for example on a background thread.
  */
 public interface TicTacToeAI {
     /**
      * Takes a turn. This should be implemented to modify the current game state by playing a valid move.
      */
     void takeTurn();
+
+    /**
+     * Chooses the move this AI would play without changing the grid.
+     * The grid must be the same size as the grid the AI was created with,
+     * but can be a different instance such as one from GameGrid.createSnapshot().
+     *
+     * @param gameGrid The game state to choose a move for.
+     * @return The cell index (x+y*gridWidth) of the chosen move.
+     */
+    int chooseMove(GameGrid gameGrid);
 }
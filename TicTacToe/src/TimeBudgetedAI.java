@@ -0,0 +1,21 @@
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * TimeBudgetedAI interface:
+ * An AI behaviour that can stop thinking at a deadline. The search should
+ * keep improving its answer (for example with iterative deepening) so that
+ * whenever the deadline arrives it can return the best move found so far.
+ * Searches should also stop early if the thread is interrupted.
+ */
+public interface TimeBudgetedAI extends TicTacToeAI {
+    /**
+     * Chooses a move without changing the grid, stopping at the deadline.
+     * A valid move is always returned even if the deadline has already passed.
+     *
+     * @param gameGrid The game state to choose a move for.
+     * @param deadline Time to stop searching, as a System.nanoTime() value.
+     * @return The chosen move along with the depth reached and nodes searched.
+     */
+    SearchResult chooseMove(GameGrid gameGrid, long deadline);
+}
@@ -0,0 +1,237 @@
+import java.util.Arrays;
+
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * TranspositionTable class:
+ * A fixed size cache of search results keyed by position. Entries are
+ * grouped into buckets of two slots. The first slot keeps the result from the
+ * deepest search (replaced only by an equal or deeper search, or by any search
+ * once the entry is from an older generation). The second slot always takes
+ * whatever the first slot rejected. This keeps memory bounded while
+ * holding on to the most expensive results.
+ *
+ * Entries are packed into a single long so probing does not allocate.
+ * Use getScore(), getMove(), getDepth() and getFlag() to read a probed entry.
+ *
+ * The table can be shared by several searching threads without locking.
+ * Each slot stores the key XORed with the entry, so if two threads write the
+ * same slot at once and a reader sees the key from one write and the entry
+ * from the other, the check in probe() fails and it is treated as a miss.
+ * The probe and hit counts are not synchronised, so threads sharing a table
+ * should use probeUncounted() and keep their own counts.
+ */
+public class TranspositionTable {
+    /**
+     * Value returned by probe() when the key is not in the table.
+     */
+    public static final long MISSING = 0;
+    /**
+     * The stored score is the exact score of the position.
+     */
+    public static final int EXACT = 0;
+    /**
+     * The real score is at least the stored score (search failed high).
+     */
+    public static final int LOWER_BOUND = 1;
+    /**
+     * The real score is at most the stored score (search failed low).
+     */
+    public static final int UPPER_BOUND = 2;
+
+    /**
+     * Key XOR entry for each slot.
+     */
+    private final long[] keys;
+    /**
+     * Packed entries for each slot. 0 means the slot is empty.
+     */
+    private final long[] entries;
+    /**
+     * Mask to convert a key into a bucket index.
+     */
+    private final int bucketMask;
+    /**
+     * Current generation, in the range 1 to 63. Stored with every entry
+     * so that results from older searches can be replaced first.
+     */
+    private int generation;
+    /**
+     * Number of calls to probe().
+     */
+    private long probeCount;
+    /**
+     * Number of calls to probe() that found an entry.
+     */
+    private long hitCount;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param capacity Maximum number of entries. Rounded up to a power of two.
+     */
+    public TranspositionTable(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        keys = new long[size];
+        entries = new long[size];
+        bucketMask = (size >>> 1) - 1;
+        generation = 1;
+    }
+
+    /**
+     * Removes every entry from the table.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(entries, 0);
+        generation = 1;
+    }
+
+    /**
+     * Moves on to a new generation so that entries from
+     * previous searches will be preferred for replacement.
+     */
+    public void nextGeneration() {
+        generation = generation == 63 ? 1 : generation + 1;
+    }
+
+    /**
+     * Looks up the entry stored for a key.
+     *
+     * @param key Key of the position to find.
+     * @return The packed entry, or MISSING if there is no entry for the key.
+     */
+    public long probe(long key) {
+        probeCount++;
+        long entry = probeUncounted(key);
+        if(entry != MISSING) {
+            hitCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Looks up the entry stored for a key without counting the probe.
+     * Used by threads sharing the table, which keep their own counts.
+     *
+     * @param key Key of the position to find.
+     * @return The packed entry, or MISSING if there is no entry for the key.
+     */
+    public long probeUncounted(long key) {
+        int slot = bucketIndex(key);
+        for(int i = slot; i < slot + 2; i++) {
+            long entry = entries[i];
+            if(entry != 0 && (keys[i] ^ entry) == key) {
+                return entry;
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * Stores a search result, replacing an existing entry as needed.
+     *
+     * @param key Key of the position.
+     * @param score Score of the position.
+     * @param depth Depth that was searched to find the score (0 to 255).
+     * @param move Best move found, or -1 if there is none.
+     * @param flag One of EXACT, LOWER_BOUND, or UPPER_BOUND.
+     */
+    public void store(long key, int score, int depth, int move, int flag) {
+        long entry = (score & 0xFFFFFFFFL)
+                | ((long) ((move + 1) & 0xFFFF) << 32)
+                | ((long) (depth & 0xFF) << 48)
+                | ((long) (flag & 0x3) << 56)
+                | ((long) generation << 58);
+        int slot = bucketIndex(key);
+        long existing = entries[slot];
+        if(existing == 0 || (keys[slot] ^ existing) == key || getGeneration(existing) != generation
+                || depth >= getDepth(existing)) {
+            keys[slot] = key ^ entry;
+            entries[slot] = entry;
+        } else {
+            keys[slot + 1] = key ^ entry;
+            entries[slot + 1] = entry;
+        }
+    }
+
+    /**
+     * Gets the number of times the table has been probed.
+     *
+     * @return The number of probes.
+     */
+    public long getProbeCount() {
+        return probeCount;
+    }
+
+    /**
+     * Gets the number of probes that found an entry.
+     *
+     * @return The number of hits.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the score from a packed entry.
+     *
+     * @param entry Entry returned by probe().
+     * @return The stored score.
+     */
+    public static int getScore(long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * Gets the move from a packed entry.
+     *
+     * @param entry Entry returned by probe().
+     * @return The stored move, or -1 if there was none.
+     */
+    public static int getMove(long entry) {
+        return (int) ((entry >>> 32) & 0xFFFF) - 1;
+    }
+
+    /**
+     * Gets the depth from a packed entry.
+     *
+     * @param entry Entry returned by probe().
+     * @return The depth the stored result was searched to.
+     */
+    public static int getDepth(long entry) {
+        return (int) ((entry >>> 48) & 0xFF);
+    }
+
+    /**
+     * Gets the flag from a packed entry.
+     *
+     * @param entry Entry returned by probe().
+     * @return One of EXACT, LOWER_BOUND, or UPPER_BOUND.
+     */
+    public static int getFlag(long entry) {
+        return (int) ((entry >>> 56) & 0x3);
+    }
+
+    /**
+     * Gets the generation from a packed entry.
+     *
+     * @param entry Entry returned by probe().
+     * @return The generation the entry was stored in.
+     */
+    private static int getGeneration(long entry) {
+        return (int) (entry >>> 58);
+    }
+
+    /**
+     * Finds the first slot of the bucket for a key.
+     *
+     * @param key Key to find the bucket for.
+     * @return Index of the first of the two slots in the bucket.
+     */
+    private int bucketIndex(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return ((int) (mixed >>> 32) & bucketMask) << 1;
+    }
+}
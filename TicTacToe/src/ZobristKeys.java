@@ -0,0 +1,86 @@
+/**
+ * Tic Tac Toe
+ * Author: Peter Mitchell (2021)
+ *
+ * ZobristKeys class:
+ * Random 64 bit keys for every (cell, player) pair used to hash positions.
+ * The hash of a position is the XOR of the keys for every piece on the board,
+ * so placing or removing a piece only needs one XOR to update it.
+ *
+ * The keys come from a fixed seed, so the same position always has the same
+ * hash in every run and on every board with the same number of cells.
+ * The player to move is not part of the hash because X always moves first,
+ * so it follows from the number of pieces on the board. Searches that can be
+ * asked to move for either side XOR in PLAYER_TWO_KEY when O is to move.
+ */
+public class ZobristKeys {
+    /**
+     * Key to XOR into a hash when O is the player to move.
+     */
+    public static final long PLAYER_TWO_KEY = 0x6A09E667F3BCC909L;
+    /**
+     * Seed used to generate the keys. Changing this changes every stored hash.
+     */
+    private static final long SEED = 0x5A4F425249535421L;
+    /**
+     * Step between SplitMix64 states (the 64 bit golden ratio).
+     */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Keys indexed as index*2+(player-1).
+     */
+    private final long[] keys;
+
+    /**
+     * Generates the keys for a board.
+     *
+     * @param cellCount Number of cells on the board.
+     */
+    public ZobristKeys(int cellCount) {
+        keys = new long[cellCount * 2];
+        long state = SEED;
+        for(int i = 0; i < keys.length; i++) {
+            state += GOLDEN_GAMMA;
+            keys[i] = mix(state);
+        }
+    }
+
+    /**
+     * Gets the key for a piece.
+     *
+     * @param index Cell index (x+y*width).
+     * @param state 0 for empty, 1 for X, 2 for O.
+     * @return The key to XOR into the hash, or 0 for an empty cell.
+     */
+    public long getKey(int index, int state) {
+        if(state != 1 && state != 2) return 0;
+        return keys[index * 2 + state - 1];
+    }
+
+    /**
+     * Hashes a whole board. Used when a board is copied rather than built up move by move.
+     *
+     * @param cells Cell states indexed as x+y*width (0=empty, 1=X, 2=O).
+     * @return The XOR of the keys for every piece.
+     */
+    public long hash(int[] cells) {
+        long hash = 0;
+        for(int i = 0; i < cells.length; i++) {
+            hash ^= getKey(i, cells[i]);
+        }
+        return hash;
+    }
+
+    /**
+     * SplitMix64 finaliser that turns consecutive states into well mixed keys.
+     *
+     * @param z State to mix.
+     * @return The mixed value.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}